@@ -0,0 +1,83 @@
+package vision;
+
+import org.opencv.core.*;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.Objdetect;
+
+import java.util.List;
+
+/**
+ * Frames the benchmarks run on. OpenCV must be loaded.
+ */
+public class BenchmarkFrames {
+    public static final String COURSE_TEST = "courseTest";
+    public static final String SYNTHETIC = "synthetic";
+
+    /**
+     * @param name COURSE_TEST or SYNTHETIC.
+     * @return a new Mat holding the frame.
+     */
+    public static Mat load(String name) {
+        return switch (name) {
+            case COURSE_TEST -> courseTest();
+            case SYNTHETIC -> synthetic();
+            default -> throw new IllegalArgumentException("Unknown frame " + name);
+        };
+    }
+
+    /**
+     * Screenshot of the course. No border or robot is found on it, so those detectors always do their full search.
+     */
+    public static Mat courseTest() {
+        Mat frame = Imgcodecs.imread("src/test/java/resources/courseTest.png");
+        if (frame.empty()) throw new RuntimeException("Run the benchmarks from the remote directory");
+        return frame;
+    }
+
+    /**
+     * Drawn frame with every object the detectors look for: border, cross, a white and an orange ball and the robot,
+     * both as its two blue markers and as the ArUco marker the aruco robotEngine looks for.
+     */
+    public static Mat synthetic() {
+        Scalar red = new Scalar(30, 30, 200), blue = new Scalar(200, 100, 30);
+        Mat frame = new Mat(768, 1024, CvType.CV_8UC3, new Scalar(120, 120, 110));
+
+        // Border
+        Imgproc.rectangle(frame, new Point(150, 80), new Point(880, 680), red, 20);
+
+        // Cross
+        Point c = new Point(500, 380);
+        MatOfPoint cross = new MatOfPoint(
+                new Point(c.x - 60, c.y - 8), new Point(c.x - 8, c.y - 8), new Point(c.x - 8, c.y - 60),
+                new Point(c.x + 8, c.y - 60), new Point(c.x + 8, c.y - 8), new Point(c.x + 60, c.y - 8),
+                new Point(c.x + 60, c.y + 8), new Point(c.x + 8, c.y + 8), new Point(c.x + 8, c.y + 60),
+                new Point(c.x - 8, c.y + 60), new Point(c.x - 8, c.y + 8), new Point(c.x - 60, c.y + 8));
+        Imgproc.fillPoly(frame, List.of(cross), red);
+
+        // Balls
+        Imgproc.circle(frame, new Point(300, 200), 10, new Scalar(220, 220, 220), -1);
+        Imgproc.circle(frame, new Point(700, 500), 10, new Scalar(40, 100, 230), -1);
+
+        // Robot markers
+        Imgproc.circle(frame, new Point(400, 550), 18, blue, -1);
+        Imgproc.circle(frame, new Point(460, 550), 14, blue, -1);
+
+        // ArUco marker 0 with a side of 40 pixels, turned 30 degrees. Drawn large and scaled down, for edges between pixels
+        Mat marker = new Mat(), patch = new Mat(480, 480, CvType.CV_8UC1, new Scalar(255));
+        Objdetect.generateImageMarker(Objdetect.getPredefinedDictionary(Objdetect.DICT_4X4_50), 0, 240, marker);
+        marker.copyTo(patch.submat(120, 360, 120, 360));
+        Imgproc.GaussianBlur(patch, patch, new Size(0, 0), 3);
+        Mat transform = Imgproc.getRotationMatrix2D(new Point(239.5, 239.5), -30, 1 / 6.);
+        transform.put(0, 2, transform.get(0, 2)[0] + 650 - 239.5);
+        transform.put(1, 2, transform.get(1, 2)[0] + 250 - 239.5);
+        Mat gray = new Mat(), inside = new Mat(), patchMask = new Mat(480, 480, CvType.CV_8UC1, new Scalar(255));
+        Imgproc.warpAffine(patch, gray, transform, frame.size());
+        Imgproc.warpAffine(patchMask, inside, transform, frame.size(), Imgproc.INTER_NEAREST);
+        Mat color = new Mat();
+        Imgproc.cvtColor(gray, color, Imgproc.COLOR_GRAY2BGR);
+        color.copyTo(frame, inside);
+
+        return frame;
+    }
+}
@@ -0,0 +1,72 @@
+package vision;
+
+import courseObjects.Course;
+import nu.pattern.OpenCV;
+import org.openjdk.jmh.annotations.*;
+import org.opencv.core.Mat;
+import vision.capture.ImageSequenceFrameSource;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The whole per-frame path: the scheduled sub detectors, categorizing the balls and updating the Course.
+ * Runs on the synthetic frame, as the setup needs the border and robot to be found.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DetectionControllerBenchmark {
+    private static final long FRAME_INTERVAL = 33_000_000;
+
+    @Param({"true", "false"})
+    public String parallelDetection;
+
+    @Param({"true", "false"})
+    public String lutSegmentation;
+
+    @Param({"true", "false"})
+    public String scheduledDetection; // False detects everything on every frame
+
+    private Mat frame;
+    private DetectionController detectionController;
+    private long timestamp;
+
+    @Setup
+    public void setup() {
+        OpenCV.loadLocally();
+
+        // Each fork starts a new JVM, so the configuration is read after this
+        configs.GlobalConfig.getConfigProperties().setProperty("parallelDetection", this.parallelDetection);
+        configs.GlobalConfig.getConfigProperties().setProperty("lutSegmentation", this.lutSegmentation);
+        configs.GlobalConfig.getConfigProperties().setProperty("headless", "true");
+        if (!Boolean.parseBoolean(this.scheduledDetection)) {
+            configs.GlobalConfig.getConfigProperties().setProperty("ballDetectionRate", "0");
+            configs.GlobalConfig.getConfigProperties().setProperty("borderDetectionRate", "0");
+        }
+        configs.GlobalConfig.getConfigProperties().setProperty("overlayRefreshRate", "0");
+        configs.GlobalConfig.getConfigProperties().setProperty("ballIncremental", "false"); // The frame never changes
+        configs.GlobalConfig.getConfigProperties().setProperty("backgroundSetupFrames", "1"); // Setup sees one frame
+
+        this.frame = BenchmarkFrames.synthetic();
+
+        // Setup runs on one frame from the source. The benchmark then passes the frames itself
+        ImageSequenceFrameSource source = new ImageSequenceFrameSource(List.of(this.frame.clone()), 30, false, false);
+        this.detectionController = new DetectionController(new Course(), source, false, false);
+        this.timestamp = System.nanoTime(); // After the setup frame
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.detectionController.stop();
+    }
+
+    @Benchmark
+    public void detectFrame() {
+        this.timestamp += FRAME_INTERVAL;
+        this.detectionController.detectFrame(this.frame, this.timestamp);
+    }
+}
@@ -0,0 +1,54 @@
+package vision.detection;
+
+import nu.pattern.OpenCV;
+import org.openjdk.jmh.annotations.*;
+import org.opencv.core.Mat;
+import vision.BenchmarkFrames;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ball detection on a new frame, including the blur and masks it needs.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BallDetectorBenchmark {
+    @Param({BenchmarkFrames.COURSE_TEST, BenchmarkFrames.SYNTHETIC})
+    public String frameName;
+
+    @Param({"true", "false"})
+    public String ballPyramid;
+
+    @Param({"hough", "components"})
+    public String ballEngine;
+
+    private Mat frame;
+    private FramePreprocessor preprocessor;
+    private BallDetector ballDetector;
+
+    @Setup
+    public void setup() {
+        OpenCV.loadLocally();
+
+        // Each fork starts a new JVM, so the configuration is read after this
+        configs.GlobalConfig.getConfigProperties().setProperty("ballPyramid", this.ballPyramid);
+        configs.GlobalConfig.getConfigProperties().setProperty("ballEngine", this.ballEngine);
+        configs.GlobalConfig.getConfigProperties().setProperty("ballIncremental", "false"); // The frame never changes
+
+        this.frame = BenchmarkFrames.load(this.frameName);
+        this.preprocessor = new FramePreprocessor();
+        this.ballDetector = new BallDetector();
+    }
+
+    @Benchmark
+    public Object detectBalls() {
+        // A new frame invalidates the masks, as with a camera
+        this.preprocessor.setFrame(this.frame);
+        this.ballDetector.detectBalls(this.preprocessor);
+        return this.ballDetector.getBalls();
+    }
+}
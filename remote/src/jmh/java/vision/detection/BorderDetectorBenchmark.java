@@ -0,0 +1,53 @@
+package vision.detection;
+
+import nu.pattern.OpenCV;
+import org.openjdk.jmh.annotations.*;
+import org.opencv.core.Mat;
+import vision.BenchmarkFrames;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Border and cross detection on a new frame, including the mask it needs.
+ * With borderLock the border locks during warmup on the synthetic frame, so the lock validation is measured.
+ * With borderPyramid the border is found at quarter resolution and its corners refined at full resolution.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BorderDetectorBenchmark {
+    @Param({BenchmarkFrames.COURSE_TEST, BenchmarkFrames.SYNTHETIC})
+    public String frameName;
+
+    @Param({"true", "false"})
+    public String borderLock;
+
+    @Param({"true", "false"})
+    public String borderPyramid;
+
+    private Mat frame;
+    private FramePreprocessor preprocessor;
+    private BorderDetector borderDetector;
+
+    @Setup
+    public void setup() {
+        OpenCV.loadLocally();
+
+        // Each fork starts a new JVM, so the configuration is read after this
+        configs.GlobalConfig.getConfigProperties().setProperty("borderLock", this.borderLock);
+        configs.GlobalConfig.getConfigProperties().setProperty("borderPyramid", this.borderPyramid);
+
+        this.frame = BenchmarkFrames.load(this.frameName);
+        this.preprocessor = new FramePreprocessor();
+        this.borderDetector = new BorderDetector();
+    }
+
+    @Benchmark
+    public boolean detectBorder() {
+        this.preprocessor.setFrame(this.frame);
+        return this.borderDetector.detectBorder(this.preprocessor);
+    }
+}
@@ -0,0 +1,94 @@
+package vision.detection;
+
+import nu.pattern.OpenCV;
+import org.openjdk.jmh.annotations.*;
+import org.opencv.core.*;
+import vision.BenchmarkFrames;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Robot detection on a new frame, including the mask it needs. Frames are 33 ms apart, as from the camera.
+ * With noise the frames are copies with camera noise of that standard deviation, and the spread of the robot pose
+ * over them, its jitter, is printed after each trial.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RobotDetectorBenchmark {
+    private static final long FRAME_INTERVAL = 33_000_000;
+
+    @Param({BenchmarkFrames.COURSE_TEST, BenchmarkFrames.SYNTHETIC})
+    public String frameName;
+
+    @Param({"markers", "aruco"})
+    public String robotEngine;
+
+    @Param({"0", "4"})
+    public double noise;
+
+    private static final int NOISY_FRAMES = 16;
+
+    private final List<Mat> frames = new ArrayList<>();
+    private final List<double[]> poses = new ArrayList<>(); // Center x, center y and heading in degrees
+    private int frameIndex = 0;
+    private FramePreprocessor preprocessor;
+    private RobotDetector robotDetector;
+    private long timestamp = 0;
+
+    @Setup
+    public void setup() {
+        OpenCV.loadLocally();
+
+        // Each fork starts a new JVM, so the configuration is read after this
+        configs.GlobalConfig.getConfigProperties().setProperty("robotEngine", this.robotEngine);
+
+        Mat frame = BenchmarkFrames.load(this.frameName);
+        if (this.noise == 0) {
+            this.frames.add(frame);
+        } else {
+            Core.setRNGSeed(1);
+            for (int i = 0; i < NOISY_FRAMES; i++) {
+                Mat noisy = new Mat(frame.size(), frame.type()), noise = new Mat(frame.size(), CvType.CV_16SC3);
+                Core.randn(noise, 0, this.noise);
+                Core.add(frame, noise, noisy, new Mat(), frame.depth());
+                this.frames.add(noisy);
+            }
+        }
+        this.preprocessor = new FramePreprocessor();
+        this.robotDetector = new RobotDetector();
+    }
+
+    @Benchmark
+    public boolean detectRobot() {
+        this.timestamp += FRAME_INTERVAL;
+        this.frameIndex = (this.frameIndex + 1) % this.frames.size();
+        this.preprocessor.setFrame(this.frames.get(this.frameIndex), this.timestamp);
+        boolean found = this.robotDetector.detectRobot(this.preprocessor);
+
+        if (found && this.poses.size() < 10000) {
+            Point center = this.robotDetector.getRobot().getCenter(), front = this.robotDetector.getRobot().getFront();
+            this.poses.add(new double[]{center.x, center.y, Math.toDegrees(Math.atan2(front.y - center.y, front.x - center.x))});
+        }
+        return found;
+    }
+
+    @TearDown(Level.Trial)
+    public void printJitter() {
+        if (this.poses.isEmpty()) return;
+
+        double[] mean = new double[3], variance = new double[3];
+        for (double[] pose : this.poses)
+            for (int i = 0; i < 3; i++) mean[i] += pose[i] / this.poses.size();
+        for (double[] pose : this.poses)
+            for (int i = 0; i < 3; i++) variance[i] += Math.pow(pose[i] - mean[i], 2) / this.poses.size();
+
+        System.out.printf("%nRobot pose jitter (%s): center sd (%.3f, %.3f) px, heading sd %.3f degrees%n", this.robotEngine,
+                Math.sqrt(variance[0]), Math.sqrt(variance[1]), Math.sqrt(variance[2]));
+    }
+}
@@ -0,0 +1,75 @@
+package vision.detection;
+
+import nu.pattern.OpenCV;
+import org.openjdk.jmh.annotations.*;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import vision.BenchmarkFrames;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full frame ball and robot detection at camera resolutions, in one piece and in strips on all cores.
+ * The synthetic frame and the ball and marker sizes are scaled up to each resolution. Both search the balls at full
+ * resolution, so they find the same.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TiledDetectionBenchmark {
+    @Param({"1024x768", "1920x1080", "3840x2160"})
+    public String resolution;
+
+    @Param({"true", "false"})
+    public String tiledDetection;
+
+    private Mat frame;
+    private FramePreprocessor preprocessor;
+    private BallDetector ballDetector;
+    private RobotDetector robotDetector;
+
+    @Setup
+    public void setup() {
+        OpenCV.loadLocally();
+
+        // Each fork starts a new JVM, so the configuration is read after this
+        String[] size = this.resolution.split("x");
+        double scale = Integer.parseInt(size[0]) / 1024.0;
+        scaleSize("ballSizeLower", scale);
+        scaleSize("ballSizeUpper", scale);
+        scaleSize("ballMinDist", scale);
+        scaleSize("robotSizeLower", scale * scale);
+        scaleSize("robotSizeUpper", scale * scale);
+
+        configs.GlobalConfig.getConfigProperties().setProperty("tiledDetection", this.tiledDetection);
+        configs.GlobalConfig.getConfigProperties().setProperty("ballPyramid", "false");
+        configs.GlobalConfig.getConfigProperties().setProperty("ballIncremental", "false"); // The frame never changes
+        configs.GlobalConfig.getConfigProperties().setProperty("robotTracking", "false");
+
+        this.frame = new Mat();
+        Imgproc.resize(BenchmarkFrames.synthetic(), this.frame,
+                new Size(Integer.parseInt(size[0]), Integer.parseInt(size[1])), 0, 0, Imgproc.INTER_LINEAR);
+
+        this.preprocessor = new FramePreprocessor();
+        this.ballDetector = new BallDetector();
+        this.robotDetector = new RobotDetector();
+    }
+
+    private static void scaleSize(String key, double scale) {
+        long value = Math.round(Double.parseDouble(configs.GlobalConfig.getConfigProperties().getProperty(key)) * scale);
+        configs.GlobalConfig.getConfigProperties().setProperty(key, Long.toString(value));
+    }
+
+    @Benchmark
+    public Object detect() {
+        // A new frame invalidates the masks, as with a camera
+        this.preprocessor.setFrame(this.frame);
+        this.ballDetector.detectBalls(this.preprocessor);
+        this.robotDetector.detectRobot(this.preprocessor);
+        return this.ballDetector.getBalls();
+    }
+}
@@ -1,25 +1,33 @@
 import courseObjects.Ball;
 import courseObjects.Course;
 import exceptions.MissingArgumentException;
+import nu.pattern.OpenCV;
 import routing.Algorithm.HamiltonianRoute;
 import routing.Algorithm.IRoutePlanner;
 import routing.RobotController;
 import routing.RoutingController;
 import vision.Algorithms;
 import vision.DetectionController;
+import vision.capture.FrameSource;
+import vision.capture.ImageSequenceFrameSource;
+import vision.capture.VideoFileFrameSource;
 import vision.detection.DetectionConfiguration;
 
 import javax.swing.*;
+import java.io.File;
 
 public class Main {
     public static void main(String[] args) throws MissingArgumentException, InterruptedException {
         if (args.length < 1) {
-            throw new MissingArgumentException("Please provide a camera index");
+            throw new MissingArgumentException("Please provide a camera index, or a video file or image directory to replay");
         }
 
-        int cameraIndex = Integer.parseInt(args[0]);
         Course course = new Course();
-        new DetectionController(course, cameraIndex, false); // Runs in the background
+        DetectionController detectionController; // Runs in the background
+        if (args[0].matches("\\d+"))
+            detectionController = new DetectionController(course, Integer.parseInt(args[0]), false);
+        else
+            detectionController = new DetectionController(course, openRecording(args[0]), false);
         DetectionConfiguration.DetectionConfiguration();
 
         RobotController controller = new RobotController(course.getRobot());
@@ -33,6 +41,9 @@ public class Main {
         while(true) {
             try {
                 while (true) {
+                    // Plan from the balls as they are now, not as they were at the last scheduled detection
+                    if (!detectionController.requestFreshBalls(1000))
+                        System.out.println("No fresh ball detection, planning from the last one");
                     routePlanner.computeFullRoute(course, controller.getRobot().getNumberOfBallsInMagazine());
                     routePlanner.getComputedRoute(routingController);
                     controller.startMagazineCounting(course.getBalls().size());
@@ -48,6 +59,20 @@ public class Main {
         }
     }
 
+    /**
+     * Opens recorded footage to replay at the recorded rate, as if it came from the camera.
+     *
+     * @param path A video file, an image or a directory of images.
+     */
+    private static FrameSource openRecording(String path) {
+        OpenCV.loadLocally();
+
+        File file = new File(path);
+        if (file.isDirectory() || path.matches("(?i).*\\.(png|jpe?g|bmp)$"))
+            return new ImageSequenceFrameSource(path, 30, true, true);
+        return new VideoFileFrameSource(path, true);
+    }
+
     public static void reset(RobotController robotController) {
         robotController.stopCollectRelease();
         robotController.stopMotors();
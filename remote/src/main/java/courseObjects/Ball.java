@@ -8,6 +8,9 @@ public class Ball {
     private BallColor color;
     private BallPickupStrategy strategy;
     private final double radius;
+    private int id = -1; // Given by BallTracker, and kept while the ball is on the course
+
+    private static double configuredRadius = -1; // Parsed once, as balls are created for every detection
 
     public Ball(Point center, BallColor color, BallPickupStrategy strategy) {
         this(); // Call default constructor
@@ -18,7 +21,13 @@ public class Ball {
     }
 
     public Ball(){
-        this.radius = Integer.parseInt(configs.GlobalConfig.getConfigProperties().getProperty("ballRadius")); // CM
+        this.radius = getConfiguredRadius(); // CM
+    }
+
+    private static double getConfiguredRadius() {
+        if (configuredRadius < 0)
+            configuredRadius = Integer.parseInt(configs.GlobalConfig.getConfigProperties().getProperty("ballRadius"));
+        return configuredRadius;
     }
 
     public BallColor getColor() {
@@ -45,6 +54,14 @@ public class Ball {
         this.strategy = strategy;
     }
 
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
     public double getRadius() {
         return this.radius;
     }
@@ -0,0 +1,161 @@
+package courseObjects;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Follows the balls across frames, so each ball keeps its Ball object and id while it is on the course.
+ * <br/><br/>
+ * Every frame the detected balls are matched to the tracks, closest pairs of the same color first. A detection
+ * further than the gate from every track starts a new track. A track is only published once it has been detected in
+ * a number of frames, and it is retired once it has been missed in a number of frames in a row. This filters out
+ * flickering false detections, without delaying the position of the balls that are found.
+ * <br/><br/>
+ * NB! All measurements are given in centimetres
+ */
+public class BallTracker {
+    private final double gate; // Farthest a ball moves between frames
+    private final int confirmFrames; // Frames a track must be detected in before it is published
+    private final int missFrames; // Frames in a row a track may be missed before it is retired
+
+    private final List<Ball> published; // The confirmed balls, in the order they were confirmed
+    private final List<Track> tracks = new ArrayList<>();
+    private boolean[] detectionUsed = new boolean[0];
+    private int nextId = 0;
+
+    private static class Track {
+        final Ball ball;
+        int hits = 0, misses = 0;
+        boolean confirmed = false, matched;
+
+        Track(Ball ball) {
+            this.ball = ball;
+        }
+    }
+
+    /**
+     * Reads the tracking settings from the configuration.
+     *
+     * @param published The list to keep the confirmed balls in.
+     */
+    public BallTracker(List<Ball> published) {
+        Properties configProp = configs.GlobalConfig.getConfigProperties();
+        this.published = published;
+        this.gate = Double.parseDouble(configProp.getProperty("ballTrackGate"));
+        this.confirmFrames = Integer.parseInt(configProp.getProperty("ballTrackConfirmFrames"));
+        this.missFrames = Integer.parseInt(configProp.getProperty("ballTrackMissFrames"));
+    }
+
+    /**
+     * @param published     The list to keep the confirmed balls in.
+     * @param gate          Farthest a ball moves between frames, in centimetres.
+     * @param confirmFrames Frames a track must be detected in before it is published.
+     * @param missFrames    Frames in a row a track may be missed before it is retired.
+     */
+    public BallTracker(List<Ball> published, double gate, int confirmFrames, int missFrames) {
+        this.published = published;
+        this.gate = gate;
+        this.confirmFrames = confirmFrames;
+        this.missFrames = missFrames;
+    }
+
+    /**
+     * Updates the tracks with the balls detected on a frame.
+     *
+     * @param detections The balls of the frame. Their positions are copied, the objects are not kept.
+     */
+    public void update(List<Ball> detections) {
+        update(detections, false);
+    }
+
+    /**
+     * Updates the tracks with the balls detected on a frame.
+     *
+     * @param detections The balls of the frame. Their positions are copied, the objects are not kept.
+     * @param asFound    True to skip the confirm and miss frames, e.g. for a full search that was asked for. The
+     *                   detected balls are then published at once, and the missed balls retired at once.
+     */
+    public void update(List<Ball> detections, boolean asFound) {
+        int confirmFrames = asFound ? 1 : this.confirmFrames;
+        int missFrames = asFound ? 0 : this.missFrames;
+
+        if (this.detectionUsed.length < detections.size())
+            this.detectionUsed = new boolean[detections.size()];
+        for (int i = 0; i < detections.size(); i++)
+            this.detectionUsed[i] = false;
+        for (Track track : this.tracks)
+            track.matched = false;
+
+        // Match the closest pair within the gate, until no pair is left
+        while (true) {
+            Track bestTrack = null;
+            int bestDetection = -1;
+            double bestDistance = this.gate;
+
+            for (Track track : this.tracks) {
+                if (track.matched) continue;
+
+                for (int i = 0; i < detections.size(); i++) {
+                    Ball detection = detections.get(i);
+                    if (this.detectionUsed[i] || detection.getColor() != track.ball.getColor()) continue;
+
+                    double distance = Math.hypot(detection.getCenter().x - track.ball.getCenter().x,
+                            detection.getCenter().y - track.ball.getCenter().y);
+                    if (distance <= bestDistance) {
+                        bestDistance = distance;
+                        bestTrack = track;
+                        bestDetection = i;
+                    }
+                }
+            }
+
+            if (bestTrack == null) break;
+
+            Ball detection = detections.get(bestDetection);
+            bestTrack.ball.setCenter(detection.getCenter().clone());
+            bestTrack.ball.setStrategy(detection.getStrategy());
+            bestTrack.matched = true;
+            this.detectionUsed[bestDetection] = true;
+        }
+
+        // Count hits and misses, and publish or retire tracks
+        for (Iterator<Track> iterator = this.tracks.iterator(); iterator.hasNext(); ) {
+            Track track = iterator.next();
+
+            if (track.matched) {
+                track.hits++;
+                track.misses = 0;
+
+                if (!track.confirmed && track.hits >= confirmFrames) {
+                    track.confirmed = true;
+                    this.published.add(track.ball);
+                }
+            } else if (!track.confirmed || ++track.misses > missFrames) {
+                // Unconfirmed tracks are dropped at the first miss, as they are likely noise
+                iterator.remove();
+                if (track.confirmed)
+                    this.published.remove(track.ball);
+            }
+        }
+
+        // Unmatched detections start new tracks
+        for (int i = 0; i < detections.size(); i++) {
+            if (this.detectionUsed[i]) continue;
+
+            Ball detection = detections.get(i);
+            Ball ball = new Ball(detection.getCenter().clone(), detection.getColor(), detection.getStrategy());
+            ball.setId(this.nextId++);
+
+            Track track = new Track(ball);
+            track.hits = 1;
+            this.tracks.add(track);
+
+            if (confirmFrames <= 1) {
+                track.confirmed = true;
+                this.published.add(ball);
+            }
+        }
+    }
+}
@@ -20,8 +20,9 @@ public class Course {
     private final int resolutionHeight;
 
     private final Border border = new Border();
-    private final Queue<List<Ball>> ballWindow = new ArrayDeque<>(); // To stabilize the List of Balls
     private final List<Ball> balls = Collections.synchronizedList(new ArrayList<>());
+    private final BallTracker ballTracker = new BallTracker(this.balls); // Follows the balls across frames
+    private final List<Ball> ballsInsideCourse = new ArrayList<>();
     private final Robot robot = new Robot();
     private final Cross cross = new Cross();
 
@@ -29,6 +30,10 @@ public class Course {
 
     private final int maxNumberOfBalls;
 
+    // System.nanoTime() at which the frames the objects were last updated from were captured. 0 before any update
+    private long captureTimestamp = 0;
+    private volatile long ballsCaptureTimestamp = 0;
+
     public Course() {
         Properties configProp = configs.GlobalConfig.getConfigProperties();
         this.cameraHeight = Double.parseDouble(configProp.getProperty("camHeight"));
@@ -85,60 +90,59 @@ public class Course {
     }
 
     /**
-     * Add List<Ball> to Window. This window is used to average the list of ball to increase stability.
-     * Only adds balls to window if balls are inside the course.
-     * @param balls
+     * @return the System.nanoTime() at which the newest frame any object was updated from was captured.
+     * Subtract it from System.nanoTime() to get the age of the course.
      */
-    public void addBallListToWindow(List<Ball> balls) {
-        // Add list of balls to window
-        int BALL_WINDOW_SIZE = 10;
-        if (this.ballWindow.size() >= BALL_WINDOW_SIZE)
-            this.ballWindow.poll();
-
-        List<Ball> ballsInsideCourse = new ArrayList<>();
-        for (Ball ball : balls) {
-            boolean result = Algorithms.isOutsideCourse(ball.getCenter(), border.getCornersAsArray());
-            if(result) {
-                continue;
-            }
-            ballsInsideCourse.add(ball);
-        }
+    public synchronized long getCaptureTimestamp() {
+        return this.captureTimestamp;
+    }
 
-        this.ballWindow.add(ballsInsideCourse);
+    /**
+     * Tags the course with the capture time of a frame its objects were updated from. A frame published after a newer
+     * one does not move it back.
+     * @param timestamp System.nanoTime() at which the frame was captured.
+     */
+    public synchronized void updateCaptureTimestamp(long timestamp) {
+        this.captureTimestamp = Math.max(this.captureTimestamp, timestamp);
+    }
 
-        // Find median list of balls, using size of list.
-        List<List<Ball>> ballFrames = this.ballWindow.stream().sorted(Comparator.comparingInt(List::size)).toList();
-        List<Ball> newBalls = ballFrames.get(ballFrames.size() / 2);
+    /**
+     * @return the System.nanoTime() at which the frame the balls were last updated from was captured.
+     * The balls are not detected on every frame, so they may be older than the rest of the course.
+     */
+    public long getBallsCaptureTimestamp() {
+        return this.ballsCaptureTimestamp;
+    }
 
-        // Transfer balls
-        this.balls.clear();
-        this.balls.addAll(newBalls);
+    /**
+     * Update the balls of the course with the balls detected on a frame. The balls are tracked across frames, so
+     * each ball keeps its Ball object and id, and a ball is only added once it has been seen in a few frames.
+     * Only balls inside the course are used.
+     * @param balls detected on the frame
+     * @param timestamp System.nanoTime() at which the frame was captured.
+     */
+    public void updateBalls(List<Ball> balls, long timestamp) {
+        updateBalls(balls, timestamp, false);
     }
 
     /**
-     * Replace the Course's objects variables with the new Course.
-     * @param newCourse objects to be used for replacing.
+     * Update the balls of the course with the balls detected on a frame.
+     * @param balls detected on the frame
+     * @param timestamp System.nanoTime() at which the frame was captured.
+     * @param asFound true to take the balls as they were found, without waiting for them to be seen in a few frames.
+     *                For a full search that was asked for.
      */
-    public void replaceObjects(Course newCourse) {
-        // Border
-        Point[] newBorderCorners = newCourse.getBorder().getCornersAsArray();
-        this.border.setTopLeft(newBorderCorners[0]);
-        this.border.setTopRight(newBorderCorners[1]);
-        this.border.setBottomLeft(newBorderCorners[2]);
-        this.border.setBottomRight(newBorderCorners[3]);
-
-        // Cross
-        Cross newCross = newCourse.getCross();
-        this.cross.setEndPoints(newCross.getEndPoints());
-        this.cross.setMiddle(newCross.getMiddle());
-        this.cross.setMeasurePoint(newCross.getMeasurePoint());
-
-        // Robot
-        Robot newRobot = newCourse.getRobot();
-        this.robot.setFrontAndCenter(newRobot.getCenter(), newRobot.getFront());
-
-        // Balls
-        List<Ball> newBalls = newCourse.getBalls();
-        this.addBallListToWindow(newBalls);
+    public void updateBalls(List<Ball> balls, long timestamp, boolean asFound) {
+        Point[] corners = this.border.getCornersAsArray();
+        this.ballsInsideCourse.clear();
+        for (Ball ball : balls) {
+            if (Algorithms.isOutsideCourse(ball.getCenter(), corners))
+                continue;
+            this.ballsInsideCourse.add(ball);
+        }
+
+        this.ballTracker.update(this.ballsInsideCourse, asFound);
+        this.ballsCaptureTimestamp = timestamp;
+        updateCaptureTimestamp(timestamp);
     }
 }
@@ -0,0 +1,216 @@
+package vision;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Maps pixel coordinates of the frame to corrected centimetre coordinates on the course.
+ * <br/><br/>
+ * The four border corners are seen on the top of the border, so the homography from the corner pixels to the course
+ * corners maps every pixel to the plane at the height of the border. This also holds when the camera is tilted.
+ * The ray from the camera through that point is then followed to the height of the object. By similar triangles the
+ * point moves away from the point below the camera by (cameraHeight - objectHeight) / (cameraHeight - borderHeight),
+ * so no trigonometry is needed per point.
+ * <br/><br/>
+ * A mapper is made once per border. It can also warp frames to a rectified view of the course, through a map that
+ * is computed on first use.
+ * <br/><br/>
+ * Given a LensModel, the pixels are undistorted before they are mapped, including the border corners. The homography
+ * is then made in undistorted pixels, where straight lines on the course are straight.
+ */
+public class CoordinateMapper {
+    private final Point[] borderCorners; // Pixels of the corners the mapper was made from
+    private final double courseWidth, courseHeight;
+    private final double[] homography = new double[9]; // Pixel to border plane, row major
+    private final Mat homographyMat;
+    private final Point camera; // Point on the course below the camera, in centimetres
+    private final double cameraHeight, borderHeight;
+    private final LensModel lens; // Null if the pixels are already undistorted
+
+    // Bulk mapping buffers. They only grow
+    private Mat bulkPixels, bulkCourse;
+    private double[] bulkBuffer = new double[0];
+
+    // Rectified view
+    private Mat rectifyMap, rectifyMapFraction;
+    private double rectifyPixelsPerCm, rectifyMargin;
+
+    /**
+     * @param borderCorners Pixels of the border corners: top left, top right, bottom left and bottom right
+     * @param courseWidth   Width of the course inside the border, in centimetres
+     * @param courseHeight  Height of the course inside the border, in centimetres
+     * @param borderHeight  Height of the border, where the corners are seen
+     * @param camera        Point on the course below the camera, in centimetres
+     * @param cameraHeight  Height of the camera above the course, in centimetres
+     * @param lens          Lens to undistort the pixels with, or null if they are not distorted
+     */
+    public CoordinateMapper(Point[] borderCorners, double courseWidth, double courseHeight, double borderHeight,
+                            Point camera, double cameraHeight, LensModel lens) {
+        this.borderCorners = new Point[borderCorners.length];
+        for (int i = 0; i < borderCorners.length; i++)
+            this.borderCorners[i] = borderCorners[i].clone();
+        this.courseWidth = courseWidth;
+        this.courseHeight = courseHeight;
+        this.borderHeight = borderHeight;
+        this.camera = camera.clone();
+        this.cameraHeight = cameraHeight;
+        this.lens = lens;
+
+        Point[] undistortedCorners = new Point[borderCorners.length];
+        for (int i = 0; i < borderCorners.length; i++)
+            undistortedCorners[i] = lens != null ? lens.undistort(borderCorners[i]) : borderCorners[i];
+
+        MatOfPoint2f pixels = new MatOfPoint2f(undistortedCorners);
+        MatOfPoint2f course = new MatOfPoint2f(new Point(0, 0), new Point(courseWidth, 0),
+                new Point(0, courseHeight), new Point(courseWidth, courseHeight));
+        this.homographyMat = Imgproc.getPerspectiveTransform(pixels, course);
+        this.homographyMat.get(0, 0, this.homography);
+        pixels.release();
+        course.release();
+    }
+
+    /**
+     * @return true if the mapper was made from the same border corners, so it can be kept.
+     */
+    public boolean isCalibratedFor(Point[] borderCorners) {
+        if (borderCorners.length != this.borderCorners.length)
+            return false;
+
+        for (int i = 0; i < borderCorners.length; i++)
+            if (!this.borderCorners[i].equals(borderCorners[i]))
+                return false;
+        return true;
+    }
+
+    /**
+     * @return how far a point on the border plane moves away from the point below the camera, when followed along the
+     * camera ray to the height.
+     */
+    private double heightScale(double objectHeight) {
+        return (this.cameraHeight - objectHeight) / (this.cameraHeight - this.borderHeight);
+    }
+
+    /**
+     * Maps a pixel to the course, corrected for the height of the object.
+     *
+     * @param pixel        Pixel coordinates of the point on the object
+     * @param objectHeight Height of the point above the course, in centimetres
+     * @return the course coordinates below the point, in centimetres
+     */
+    public Point toCourse(Point pixel, double objectHeight) {
+        if (this.lens != null)
+            pixel = this.lens.undistort(pixel);
+
+        double[] h = this.homography;
+        double w = h[6] * pixel.x + h[7] * pixel.y + h[8];
+        double x = (h[0] * pixel.x + h[1] * pixel.y + h[2]) / w;
+        double y = (h[3] * pixel.x + h[4] * pixel.y + h[5]) / w;
+
+        double scale = heightScale(objectHeight);
+        return new Point(this.camera.x + (x - this.camera.x) * scale, this.camera.y + (y - this.camera.y) * scale);
+    }
+
+    /**
+     * Maps many pixels of objects of the same height to the course at once.
+     *
+     * @param pixels       x and y of each pixel. Not modified
+     * @param course       Receives x and y of each course point, in centimetres. May be the pixel array
+     * @param count        Number of points
+     * @param objectHeight Height of the points above the course, in centimetres
+     */
+    public void toCourse(double[] pixels, double[] course, int count, double objectHeight) {
+        if (count == 0)
+            return;
+
+        if (this.bulkPixels == null) {
+            this.bulkPixels = new Mat();
+            this.bulkCourse = new Mat();
+        }
+        if (this.bulkPixels.rows() < count)
+            this.bulkPixels.create(count, 1, CvType.CV_64FC2);
+        if (this.bulkBuffer.length < count * 2)
+            this.bulkBuffer = new double[count * 2];
+
+        System.arraycopy(pixels, 0, this.bulkBuffer, 0, count * 2);
+        if (this.lens != null)
+            this.lens.undistort(this.bulkBuffer, count);
+
+        Mat src = this.bulkPixels.rows() == count ? this.bulkPixels : this.bulkPixels.rowRange(0, count);
+        src.put(0, 0, this.bulkBuffer);
+        Core.perspectiveTransform(src, this.bulkCourse, this.homographyMat);
+        this.bulkCourse.get(0, 0, this.bulkBuffer);
+        if (src != this.bulkPixels)
+            src.release();
+
+        double scale = heightScale(objectHeight);
+        for (int i = 0; i < count; i++) {
+            course[i * 2] = this.camera.x + (this.bulkBuffer[i * 2] - this.camera.x) * scale;
+            course[i * 2 + 1] = this.camera.y + (this.bulkBuffer[i * 2 + 1] - this.camera.y) * scale;
+        }
+    }
+
+    /**
+     * Warps the frame to a top down view of the course at the height of the border, where each centimetre is the same
+     * number of pixels. The frame must be undistorted if the mapper has a lens. The warp map is computed on the first
+     * call and reused while the scale and margin are the same.
+     *
+     * @param frame       Frame to warp
+     * @param dst         Receives the rectified course
+     * @param pixelsPerCm Pixels per centimetre of the rectified view
+     * @param margin      Centimetres outside the border to keep on each side
+     */
+    public void rectify(Mat frame, Mat dst, double pixelsPerCm, double margin) {
+        if (this.rectifyMap == null || this.rectifyPixelsPerCm != pixelsPerCm || this.rectifyMargin != margin)
+            createRectifyMap(pixelsPerCm, margin);
+
+        Imgproc.remap(frame, dst, this.rectifyMap, this.rectifyMapFraction, Imgproc.INTER_LINEAR);
+    }
+
+    /**
+     * Computes the source pixel of every pixel of the rectified view, by mapping the view's pixels to course points and
+     * those back to the frame through the inverse homography.
+     */
+    private void createRectifyMap(double pixelsPerCm, double margin) {
+        int width = (int) Math.ceil((this.courseWidth + 2 * margin) * pixelsPerCm);
+        int height = (int) Math.ceil((this.courseHeight + 2 * margin) * pixelsPerCm);
+
+        // Rectified pixel to course point, then course point to frame pixel
+        Mat viewToCourse = Mat.eye(3, 3, CvType.CV_64F);
+        viewToCourse.put(0, 0, 1 / pixelsPerCm, 0, -margin, 0, 1 / pixelsPerCm, -margin);
+        Mat courseToFrame = this.homographyMat.inv(), viewToFrame = new Mat();
+        Mat empty = new Mat(); // No matrix added to the product, and no second map to convert
+        Core.gemm(courseToFrame, viewToCourse, 1, empty, 0, viewToFrame);
+
+        float[] grid = new float[width * height * 2];
+        for (int y = 0, i = 0; y < height; y++)
+            for (int x = 0; x < width; x++, i += 2) {
+                grid[i] = x;
+                grid[i + 1] = y;
+            }
+        Mat view = new Mat(height, width, CvType.CV_32FC2);
+        view.put(0, 0, grid);
+
+        Mat map = new Mat();
+        Core.perspectiveTransform(view, map, viewToFrame);
+
+        // Fixed point maps are faster to remap with
+        if (this.rectifyMap == null) {
+            this.rectifyMap = new Mat();
+            this.rectifyMapFraction = new Mat();
+        }
+        Imgproc.convertMaps(map, empty, this.rectifyMap, this.rectifyMapFraction, CvType.CV_16SC2);
+        this.rectifyPixelsPerCm = pixelsPerCm;
+        this.rectifyMargin = margin;
+
+        viewToCourse.release();
+        courseToFrame.release();
+        empty.release();
+        viewToFrame.release();
+        view.release();
+        map.release();
+    }
+}
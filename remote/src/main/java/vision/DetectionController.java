@@ -5,26 +5,45 @@ import nu.pattern.OpenCV;
 import org.opencv.core.Mat;
 import org.opencv.core.Point;
 import org.opencv.core.Rect;
-import org.opencv.core.Scalar;
 import org.opencv.highgui.HighGui;
-import org.opencv.imgproc.Imgproc;
-import org.opencv.videoio.VideoCapture;
-import org.opencv.videoio.Videoio;
+import vision.capture.CameraFrameSource;
+import vision.capture.FrameGrabber;
+import vision.capture.FrameSource;
+import vision.detection.BackgroundModel;
 import vision.detection.BallDetector;
 import vision.detection.BorderDetector;
+import vision.detection.CourseMask;
+import vision.detection.DetectionConfiguration;
+import vision.detection.FramePreprocessor;
+import vision.detection.FrameVariant;
 import vision.detection.RobotDetector;
 import vision.detection.SubDetector;
-import vision.helperClasses.MaskSet;
+import vision.helperClasses.MaskPublisher;
 
 import static math.Geometry.distanceBetweenTwoPoints;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.IntStream;
 
 public class DetectionController {
     private final int refreshRate = 33; // Value for best FPS (ms)
-    private Mat frame, overlayFrame; // Frame to detect objects from
+    private final int statisticsInterval = 300; // Frames between printing capture statistics
+    private Mat overlayFrame; // Frame the overlay is drawn on
+    private final FrameGrabber frameGrabber; // Captures frames on its own thread
+    private long processedFrames = 0;
+    private long totalDetectionTime = 0; // Nanoseconds spent in the sub detectors since last statistics
+    private long totalPreprocessTime = 0, totalPublishTime = 0; // Nanoseconds spent in the other pipeline stages
 
     // Sub Detectors
     private final List<SubDetector> subDetectors = new ArrayList<>();
@@ -32,15 +51,44 @@ public class DetectionController {
     private final BorderDetector borderDetector = new BorderDetector();
     private final RobotDetector robotDetector = new RobotDetector();
 
+    private final DetectionScheduler scheduler; // Decides which sub detectors run on each frame
+
+    // Frames with their blurs and masks. Serial detection only uses the first. In the pipeline they are passed from
+    // stage to stage, so one frame is preprocessed, one detected and one published at the same time
+    private static final int PIPELINE_STAGES = 3;
+    private final FrameSlot[] frameSlots;
+    private final boolean pipelined;
+    private final CourseMask courseMask; // Where balls and the robot are searched for. Null to search whole frames
+    private final BackgroundModel backgroundModel; // The empty course. Null to search the whole course
+    private final boolean backgroundLoaded; // Loaded from the last run, so it need not be saved after setup
+    private int framesSinceLearned = 0; // Only touched by the thread preprocessing frames
+
+    // Runs the sub detectors concurrently. Null when detecting serially
+    private final ExecutorService detectionExecutor;
+    private final Map<SubDetector, Callable<Boolean>> detectionTasks = new HashMap<>();
+    private final List<Future<Boolean>> detectionFutures = new ArrayList<>();
+    private FramePreprocessor detectingPreprocessor; // Read by the detection tasks. Set before they are submitted
+
+    // Ball detections put on the course, counted for requestFreshBalls()
+    private final Object ballScanLock = new Object();
+    private long completedBallScans = 0;
+
     // For converting pixels to centimeters
     private double conversionFactorX;
     private double conversionFactorY;
-    private Point pixelOffset;
+    private volatile CoordinateMapper coordinateMapper; // Made again when the border moves
+    private volatile LensModel lens; // Null if the lens is not corrected
+    private final boolean undistortFrames; // Undistort whole frames, instead of only the detected points
+    private double[] ballBuffer = new double[0]; // Ball centers, mapped all at once
+    private final double ballRadius = new Ball().getRadius(); // The same for all balls
+    private final List<Ball> courseBalls = new ArrayList<>(); // Ball centers in centimetres, handed to the course
 
     private final boolean showMasks; // Primarily for debugging
+    private final boolean backgroundDetection; // If false, the caller passes frames to detectFrame()
+    private final boolean headless; // If true, the detection loop never touches HighGui
+    private final OverlayRenderer overlayRenderer; // Displays overlays on its own thread in headless mode. Null if not displaying
     private final Course course;
 
-    private Border oldBorder; // Used only for creating overlay
     private final double camHeight;
     private final Point courseCenter;
 
@@ -54,8 +102,35 @@ public class DetectionController {
      * @param showMasks   Only needed for debugging masks. If true, displays mask windows.
      */
     public DetectionController(Course course, int cameraIndex, boolean showMasks) {
+        this(course, openCamera(course, cameraIndex), showMasks);
+    }
+
+    /**
+     * Start a setup process on frames from the given source, e.g. recorded footage.
+     * When the setup is over a background thread starts doing background detection until the source ends.
+     *
+     * @param course      The class that contains all the objects and information about the course during runtime.
+     * @param frameSource The source of the frames. The controller takes ownership of it.
+     * @param showMasks   Only needed for debugging masks. If true, displays mask windows.
+     */
+    public DetectionController(Course course, FrameSource frameSource, boolean showMasks) {
+        this(course, frameSource, showMasks, true);
+    }
+
+    /**
+     * Start a setup process on frames from the given source.
+     *
+     * @param course              The class that contains all the objects and information about the course during runtime.
+     * @param frameSource         The source of the frames. The controller takes ownership of it.
+     * @param showMasks           Only needed for debugging masks. If true, displays mask windows.
+     * @param backgroundDetection If false, no detection runs after the setup. Frames are then passed to detectFrame()
+     *                            by the caller, e.g. a benchmark, and the frame source is stopped.
+     */
+    public DetectionController(Course course, FrameSource frameSource, boolean showMasks, boolean backgroundDetection) {
         this.showMasks = showMasks;
+        this.backgroundDetection = backgroundDetection;
         this.course = course;
+        this.headless = DetectionConfiguration.DetectionConfiguration().isHeadless();
 
         this.camHeight = course.getCameraHeight();
         this.courseCenter = new Point(course.getWidth() / 2, course.getHeight() / 2);
@@ -63,81 +138,204 @@ public class DetectionController {
         // Initialize OpenCV
         OpenCV.loadLocally();
 
-        // Start capture
-        VideoCapture capture = new VideoCapture();
-        capture.open(cameraIndex);
-
-        setCaptureProperties(capture);
+        this.lens = loadLens(DetectionConfiguration.DetectionConfiguration().getLensCalibration());
+        this.undistortFrames = DetectionConfiguration.DetectionConfiguration().isLensUndistortFrames();
 
-        if (!capture.isOpened()) throw new RuntimeException("Camera Capture was not opened");
+        // Capture frames in the background, so detection always works on the newest frame
+        this.frameGrabber = new FrameGrabber(frameSource);
+        this.frameGrabber.start();
 
-        this.subDetectors.add(this.ballDetector);
-        this.subDetectors.add(this.robotDetector);
         this.subDetectors.add(this.borderDetector);
+        this.subDetectors.add(this.robotDetector);
+        this.subDetectors.add(this.ballDetector);
+        this.scheduler = new DetectionScheduler(this.subDetectors);
+
+        this.pipelined = DetectionConfiguration.DetectionConfiguration().isPipelinedDetection() && backgroundDetection;
+        this.frameSlots = new FrameSlot[this.pipelined ? PIPELINE_STAGES : 1];
+        for (int i = 0; i < this.frameSlots.length; i++)
+            this.frameSlots[i] = new FrameSlot();
+
+        // Balls and robot markers are only searched for inside the border, once it is found
+        this.courseMask = DetectionConfiguration.DetectionConfiguration().isCourseMask() ? new CourseMask() : null;
+        for (FrameSlot slot : this.frameSlots)
+            slot.preprocessor.setCourseMask(this.courseMask);
+
+        // Balls and robot markers are only searched for where the frame differs from the empty course
+        this.backgroundModel = DetectionConfiguration.DetectionConfiguration().isBackgroundModel() ? new BackgroundModel() : null;
+        this.backgroundLoaded = this.backgroundModel != null
+                && loadBackground(this.backgroundModel, DetectionConfiguration.DetectionConfiguration().getBackgroundModelFile());
+        for (FrameSlot slot : this.frameSlots)
+            slot.preprocessor.setBackgroundModel(this.backgroundModel);
+
+        // Masks are only kept while someone is looking at them
+        List<MaskPublisher> maskPublishers = new ArrayList<>();
+        if (this.showMasks)
+            for (SubDetector subDetector : this.subDetectors) {
+                subDetector.getMaskPublisher().subscribe();
+                maskPublishers.add(subDetector.getMaskPublisher());
+            }
+
+        // Display on a separate thread at its own rate when headless
+        int overlayRefreshRate = DetectionConfiguration.DetectionConfiguration().getOverlayRefreshRate();
+        if (this.headless && overlayRefreshRate > 0) {
+            this.overlayRenderer = new OverlayRenderer(overlayRefreshRate, maskPublishers);
+            this.overlayRenderer.start();
+        } else
+            this.overlayRenderer = null;
+
+        // One thread per sub detector, so a frame takes as long as the slowest detector
+        if (DetectionConfiguration.DetectionConfiguration().isParallelDetection()) {
+            this.detectionExecutor = Executors.newFixedThreadPool(this.subDetectors.size());
+            for (SubDetector subDetector : this.subDetectors)
+                this.detectionTasks.put(subDetector, () -> subDetector.detect(this.detectingPreprocessor));
+        } else
+            this.detectionExecutor = null;
 
         // Run setup to get initial objects
-        runDetectionSetup(capture);
+        runDetectionSetup();
 
-        startBackgroundDetection(capture);
+        if (backgroundDetection)
+            startBackgroundDetection();
+        else
+            this.frameGrabber.stop();
     }
 
     /**
-     * Sets the properties of the capture.
-     * @param capture to be changed.
+     * Opens the camera. OpenCV is loaded first, as the camera is opened before the controller's constructor body runs.
+     *
+     * @param course      Holds the resolution to capture at.
+     * @param cameraIndex The camera index of intended camera (computer specific).
+     * @return the opened camera.
      */
-    private void setCaptureProperties(VideoCapture capture) {
-        // Resolution
-        capture.set(Videoio.CAP_PROP_FRAME_WIDTH, course.getResolutionWidth());
-        capture.set(Videoio.CAP_PROP_FRAME_HEIGHT, course.getResolutionHeight());
+    private static FrameSource openCamera(Course course, int cameraIndex) {
+        OpenCV.loadLocally();
+        return new CameraFrameSource(cameraIndex, course.getResolutionWidth(), course.getResolutionHeight());
+    }
 
-        // Focus
-        capture.set(Videoio.CAP_PROP_AUTOFOCUS, 0);
-        capture.set(Videoio.CAP_PROP_FOCUS, 0);
+    /**
+     * @param path File with the lens intrinsics. Empty if the lens is not corrected.
+     * @return the lens, or null if it is not corrected or could not be loaded.
+     */
+    private static LensModel loadLens(String path) {
+        if (path.isEmpty())
+            return null;
+
+        try {
+            LensModel lens = LensModel.load(path);
+            System.out.printf("Correcting lens distortion. Calibrated at %dx%d with an error of %.2f pixels%n",
+                    lens.getWidth(), lens.getHeight(), lens.getError());
+            return lens;
+        } catch (IOException e) {
+            System.err.println("Could not load lens calibration " + path + ": " + e.getMessage());
+            return null;
+        }
+    }
 
-        // Brightness, Contrast and Saturation
-        capture.set(Videoio.CAP_PROP_BRIGHTNESS, 90);
-        capture.set(Videoio.CAP_PROP_SATURATION, 180);
-        capture.set(Videoio.CAP_PROP_CONTRAST, 80);
+    /**
+     * @param path Image the background was saved to by the last run. Empty if it is learned every run.
+     * @return true if the background was loaded, false if it has to be learned during setup.
+     */
+    private static boolean loadBackground(BackgroundModel backgroundModel, String path) {
+        if (path.isEmpty())
+            return false;
+
+        try {
+            backgroundModel.load(path);
+            System.out.println("Loaded background " + path);
+            return true;
+        } catch (IOException e) {
+            System.out.println("Learning the background during setup: " + e.getMessage());
+            return false;
+        }
     }
 
     /**
-     * Blocks the thread until all objects are found in the camera's view.
+     * Saves the learned background, so the next run need not learn it again.
+     */
+    private void saveBackground() {
+        String path = DetectionConfiguration.DetectionConfiguration().getBackgroundModelFile();
+        if (path.isEmpty())
+            return;
+
+        try {
+            this.backgroundModel.save(path);
+            System.out.println("Saved background " + path);
+        } catch (IOException e) {
+            System.err.println("Could not save background " + path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Undistorts the frame if whole frames are corrected. The lens is dropped if the frame has another resolution than
+     * the lens was calibrated at, as the intrinsics would not fit.
      *
-     * @param capture the video capture from which the frame should be read.
+     * @param frame Frame from the camera
+     * @param dst   Receives the undistorted frame
+     * @return true if the frame was undistorted into dst, false if it is used as it is.
+     */
+    private boolean correctLens(Mat frame, Mat dst) {
+        LensModel lens = this.lens;
+        if (lens == null)
+            return false;
+
+        if (frame.width() != lens.getWidth() || frame.height() != lens.getHeight()) {
+            System.err.printf("Lens calibrated at %dx%d, but frames are %dx%d. Not correcting the lens%n",
+                    lens.getWidth(), lens.getHeight(), frame.width(), frame.height());
+            this.lens = null;
+            return false;
+        }
+
+        if (!this.undistortFrames)
+            return false;
+
+        lens.undistort(frame, dst);
+        return true;
+    }
+
+    /**
+     * Blocks the thread until all objects are found in the camera's view.
      */
-    private void runDetectionSetup(VideoCapture capture) {
+    private void runDetectionSetup() {
         boolean borderFound = false, robotFound = false, ballFound = false;
+        FrameSlot slot = this.frameSlots[0];
 
         System.out.println("Starting Setup");
 
-        this.frame = new Mat();
         this.overlayFrame = new Mat();
 
         while (true) {
-            capture.read(this.frame);
+            Mat frame = this.frameGrabber.grab();
+            if (frame == null)
+                throw new RuntimeException("Frame source ended before all objects were found");
+            preprocess(slot, frame, this.frameGrabber.getCaptureTimestamp(), false);
 
             // Display frame in popup window
-            showOverlay();
-            if (this.showMasks)
-                showMasks();
-            HighGui.waitKey(this.refreshRate);
+            display(slot.frame, createSnapshot());
 
             // Run sub detectors. To get objects in necessary order
             if (!borderFound) {
-                borderFound = this.borderDetector.detectBorder(this.frame);
+                borderFound = this.borderDetector.detectBorder(slot.preprocessor);
                 if (!borderFound) continue;
 
                 System.out.println("Found Corners");
+                if (this.courseMask != null)
+                    this.courseMask.setBorder(this.borderDetector.getBorder().getCornersAsArray());
             }
 
             if (!robotFound) {
-                robotFound = this.robotDetector.detectRobot(this.frame);
+                robotFound = this.robotDetector.detectRobot(slot.preprocessor);
                 if (!robotFound) continue;
 
                 System.out.println("Found Robot");
             }
-            this.ballDetector.detectBalls(this.frame);
-            updateCourse();
+            this.ballDetector.detectBalls(slot.preprocessor);
+            updateCourse(createSnapshot(), slot.timestamp, true, true, true, false);
+
+            // The background is learned from every frame of the setup, until it has seen enough of them
+            if (this.backgroundModel != null && !this.backgroundModel.isReady())
+                continue;
+            if (this.backgroundModel != null && !this.backgroundLoaded)
+                saveBackground();
 
             // Exit when all objects are found
             System.out.println("Exiting Setup");
@@ -148,63 +346,387 @@ public class DetectionController {
     /**
      * Spawns a thread that will run in the background. This thread runs detections and updates the course when objects
      * are found. (E.g. when the robot moves)
-     *
-     * @param capture the video capture from which the frame should be read.
+     * For recorded footage the thread stops when the footage ends, and prints the throughput it sustained.
      */
-    private void startBackgroundDetection(VideoCapture capture) {
+    private void startBackgroundDetection() {
         System.out.println("Start Background Detection");
 
+        if (this.pipelined) {
+            startPipeline();
+            return;
+        }
+
         new Thread(() -> {
-            while (true)
-                detectCourse(capture);
+            long start = System.nanoTime();
+            long frames = 0;
+            while (detectCourse())
+                frames++;
+
+            if (this.detectionExecutor != null)
+                this.detectionExecutor.shutdown();
+
+            sourceEnded(frames, start);
         }).start();
     }
 
     /**
-     * Runs all the sub detectors to detect objects on the course.
+     * Prints the throughput and stops the overlay renderer, once the frame source has ended.
+     *
+     * @param frames Number of frames processed.
+     * @param start  The System.nanoTime() at which background detection started.
+     */
+    private void sourceEnded(long frames, long start) {
+        printThroughput(frames, start);
+        if (this.overlayRenderer != null)
+            this.overlayRenderer.stop();
+    }
+
+    /**
+     * Prints the throughput sustained until the frame source ended.
+     *
+     * @param frames Number of frames processed.
+     * @param start  The System.nanoTime() at which background detection started.
+     */
+    private static void printThroughput(long frames, long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Frame source ended. Processed %d frames in %.1f s (%.1f FPS)%n",
+                frames, seconds, frames / seconds);
+    }
+
+    /**
+     * Detects the course on the newest frame and displays it.
+     *
+     * @return false if the frame source has ended.
+     */
+    private boolean detectCourse() {
+        // Grab newest frame. Older frames are dropped by the grabber
+        Mat frame = this.frameGrabber.grab();
+        if (frame == null)
+            return false;
+
+        long detectionStart = System.nanoTime();
+        detectFrame(frame, this.frameGrabber.getCaptureTimestamp());
+        this.totalDetectionTime += System.nanoTime() - detectionStart;
+
+        FrameSlot slot = this.frameSlots[0];
+        display(slot.frame, slot.detections);
+
+        // Show how far detection falls behind the camera
+        if (++this.processedFrames % this.statisticsInterval == 0) {
+            this.frameGrabber.printStatistics();
+            System.out.printf("Detection (%s): %.1f ms per frame%n",
+                    this.detectionExecutor != null ? "parallel" : "serial",
+                    this.totalDetectionTime / 1e6 / this.statisticsInterval);
+            this.totalDetectionTime = 0;
+        }
+
+        return true;
+    }
+
+    /**
+     * Spawns a thread per stage of the pipeline: preprocessing, detection and publishing. Each stage works on its own
+     * frame, so frame N+1 is preprocessed while frame N is detected and frame N-1 is published. The frame slots are
+     * passed on through queues, and a stage waits when the next one has not handed back a slot yet. The pipeline so
+     * runs at the rate of its slowest stage, and a frame is never more than three stages old when it is published.
+     * <br/><br/>
+     * A slot without a frame is passed through the stages when the frame source ends.
+     */
+    private void startPipeline() {
+        BlockingQueue<FrameSlot> free = new ArrayBlockingQueue<>(this.frameSlots.length, false, List.of(this.frameSlots));
+        BlockingQueue<FrameSlot> toDetect = new ArrayBlockingQueue<>(1);
+        BlockingQueue<FrameSlot> toPublish = new ArrayBlockingQueue<>(1);
+
+        new Thread(() -> runStage(() -> {
+            FrameSlot slot = free.take();
+
+            // Grab newest frame. Older frames are dropped by the grabber. It is copied, as the grabber reuses it
+            Mat frame = this.frameGrabber.grab();
+            if (frame == null)
+                slot.frame = null;
+            else
+                preprocess(slot, frame, this.frameGrabber.getCaptureTimestamp(), true);
+
+            toDetect.put(slot);
+            return slot.frame != null;
+        }), "DetectionPreprocess").start();
+
+        new Thread(() -> {
+            runStage(() -> {
+                FrameSlot slot = toDetect.take();
+                if (slot.frame != null)
+                    detect(slot);
+
+                toPublish.put(slot);
+                return slot.frame != null;
+            });
+
+            if (this.detectionExecutor != null)
+                this.detectionExecutor.shutdown();
+        }, "DetectionDetect").start();
+
+        new Thread(() -> {
+            long start = System.nanoTime();
+
+            runStage(() -> {
+                FrameSlot slot = toPublish.take();
+                if (slot.frame == null)
+                    return false;
+
+                long publishStart = System.nanoTime();
+                publish(slot);
+                display(slot.frame, slot.detections);
+                this.totalPublishTime += System.nanoTime() - publishStart;
+                this.totalPreprocessTime += slot.preprocessTime;
+                this.totalDetectionTime += slot.detectionTime;
+
+                free.put(slot);
+                printPipelineStatistics();
+                return true;
+            });
+
+            sourceEnded(this.processedFrames, start);
+        }, "DetectionPublish").start();
+    }
+
+    /**
+     * A step of a pipeline stage.
+     */
+    private interface PipelineStep {
+        /**
+         * @return false when the frame source has ended.
+         */
+        boolean run() throws InterruptedException;
+    }
+
+    /**
+     * Runs a pipeline stage until the frame source ends.
+     *
+     * @param step One frame's work of the stage.
+     */
+    private static void runStage(PipelineStep step) {
+        try {
+            boolean running = true;
+            while (running)
+                running = step.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Shows how far detection falls behind the camera, and how long each stage of the pipeline takes.
+     */
+    private void printPipelineStatistics() {
+        if (++this.processedFrames % this.statisticsInterval != 0)
+            return;
+
+        this.frameGrabber.printStatistics();
+        System.out.printf("Pipeline (%s): preprocessing %.1f ms, detection %.1f ms, publishing %.1f ms per frame%n",
+                this.detectionExecutor != null ? "parallel" : "serial",
+                this.totalPreprocessTime / 1e6 / this.statisticsInterval,
+                this.totalDetectionTime / 1e6 / this.statisticsInterval,
+                this.totalPublishTime / 1e6 / this.statisticsInterval);
+        this.totalPreprocessTime = 0;
+        this.totalDetectionTime = 0;
+        this.totalPublishTime = 0;
+    }
+
+    /**
+     * Runs the sub detectors scheduled for the frame to detect objects on the course.
      * The objects gets corrected using different algorithms (E.g. height correction).
      * Then the objects gets converted to real world units (cm) and updates the Course object.
-     * The frames will get displayed.
+     * Objects whose sub detector did not run keep their place on the course.
+     * Must not be called while background detection is running.
      *
-     * @param capture the video capture from which the frame should be read.
+     * @param frame     The frame to detect objects from. It is not modified.
+     * @param timestamp The System.nanoTime() at which the frame was captured.
      */
-    private void detectCourse(VideoCapture capture) {
-        // Grab frame
-        capture.read(this.frame);
+    public void detectFrame(Mat frame, long timestamp) {
+        FrameSlot slot = this.frameSlots[0];
+        preprocess(slot, frame, timestamp, false);
+        detect(slot);
+        publish(slot);
+    }
 
-        // Run sub detectors. They store the objects
-        this.borderDetector.detectBorder(this.frame);
-        this.robotDetector.detectRobot(this.frame);
-        this.ballDetector.detectBalls(this.frame);
-        this.borderDetector.getBorder().getSmallGoalMiddlePoint();
+    /**
+     * Puts a frame in a slot, undistorted if whole frames are corrected, and hands it to the slot's preprocessor.
+     * The blurs and masks are left to the sub detectors, as they mostly only need small regions of them.
+     *
+     * @param slot      The slot to fill.
+     * @param frame     Frame from the frame source. It is not modified.
+     * @param timestamp The System.nanoTime() at which the frame was captured.
+     * @param copy      If the frame must be copied, as it is reused by the frame source.
+     */
+    private void preprocess(FrameSlot slot, Mat frame, long timestamp, boolean copy) {
+        long start = System.nanoTime();
 
-        categorizeBallsPickupStrategy(
-                this.ballDetector.getBalls(),
-                this.borderDetector.getCross()
-        );
+        if (slot.ownedFrame == null)
+            slot.ownedFrame = new Mat();
 
-        updateCourse();
-        showOverlay();
+        if (correctLens(frame, slot.ownedFrame))
+            frame = slot.ownedFrame;
+        else if (copy) {
+            frame.copyTo(slot.ownedFrame);
+            frame = slot.ownedFrame;
+        }
 
-        // Display masks for debugging
-        if (this.showMasks)
-            showMasks();
+        slot.frame = frame;
+        slot.timestamp = timestamp;
+        slot.preprocessor.setFrame(frame, timestamp);
 
-        // Open all window pop-ups
-        HighGui.waitKey(this.refreshRate);
+        // Learned from every frame until it is ready, then now and then to follow the light. The frame being
+        // preprocessed already uses the background it was set with
+        if (this.backgroundModel != null && (!this.backgroundModel.isReady()
+                || ++this.framesSinceLearned >= DetectionConfiguration.DetectionConfiguration().getBackgroundLearnInterval())) {
+            this.backgroundModel.learn(frame, slot.preprocessor.get(FrameVariant.OBJECT_MASK));
+            this.framesSinceLearned = 0;
+        }
+
+        slot.preprocessTime = System.nanoTime() - start;
+    }
+
+    /**
+     * Runs the sub detectors scheduled for the slot's frame, and copies what they found into the slot.
+     * The robot is put on the course as soon as it is found.
+     *
+     * @param slot A preprocessed slot.
+     */
+    private void detect(FrameSlot slot) {
+        long start = System.nanoTime();
+
+        List<SubDetector> scheduled = runSubDetectors(slot.preprocessor, slot.timestamp);
+        slot.borderDetected = scheduled.contains(this.borderDetector);
+        slot.ballsDetected = scheduled.contains(this.ballDetector);
+        slot.ballsRequested = this.scheduler.isRequestedRun(this.ballDetector);
+        slot.detections = createSnapshot();
+
+        slot.detectionTime = System.nanoTime() - start;
+    }
+
+    /**
+     * Converts the objects found on the slot's frame to centimetres and puts them on the course.
+     *
+     * @param slot A detected slot.
+     */
+    private void publish(FrameSlot slot) {
+        updateCourse(slot.detections, slot.timestamp, false,
+                slot.borderDetected, slot.ballsDetected, slot.ballsRequested);
+
+        if (slot.ballsDetected)
+            synchronized (this.ballScanLock) {
+                this.completedBallScans++;
+                this.ballScanLock.notifyAll();
+            }
+    }
+
+    /**
+     * Makes the next frame detect the balls, and waits until they are on the course. Used before planning a route, so
+     * it is planned from the balls as they are now, and not as they were at the last scheduled ball detection.
+     * The requested detection searches the whole frame, also with ballIncremental, and its balls replace those on the
+     * course as found, without the frames the ball tracker otherwise waits to confirm or retire a ball.
+     *
+     * @param timeout Milliseconds to wait at most.
+     * @return true if the balls were detected within the timeout.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public boolean requestFreshBalls(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+
+        synchronized (this.ballScanLock) {
+            // A detection already running may be on an older frame, so wait for the one after it
+            long target = this.scheduler.request(this.ballDetector) + 1;
+
+            while (this.completedBallScans < target) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                    return false;
+                this.ballScanLock.wait(remaining);
+            }
+        }
+
+        return true;
     }
 
     /**
-     * Categorized the picku strategy for each ball, depending on the closeness to the course corners and object
-     * provided in the arguments.
-     * @param balls The balls to be categorized
-     * @param cross The cross within the border.
+     * Stops capturing frames. Background detection ends once the remaining frame is done, and shuts down the
+     * detection threads itself.
      */
-    private void categorizeBallsPickupStrategy(List<Ball> balls, Cross cross) {
-        Border border = this.borderDetector.getBorder();
+    public void stop() {
+        this.frameGrabber.stop();
+        if (this.overlayRenderer != null)
+            this.overlayRenderer.stop();
+        if (!this.backgroundDetection && this.detectionExecutor != null)
+            this.detectionExecutor.shutdown();
+    }
 
-        if (border == null) return;
+    /**
+     * Runs the sub detectors scheduled for a frame and returns when all of them are done.
+     * Depending on the configuration they run one after another or concurrently. Either way the robot is put on the
+     * course as soon as it is detected, without waiting for the other sub detectors.
+     *
+     * @param preprocessor Holds the frame.
+     * @param timestamp    The System.nanoTime() at which the frame was captured.
+     * @return the sub detectors that ran. The list is reused by the next frame.
+     */
+    private List<SubDetector> runSubDetectors(FramePreprocessor preprocessor, long timestamp) {
+        List<SubDetector> scheduled = this.scheduler.schedule(timestamp);
+        if (this.scheduler.isRequestedRun(this.ballDetector))
+            this.ballDetector.requestFullScan();
+
+        if (this.detectionExecutor == null) {
+            // Highest priority first
+            for (SubDetector subDetector : scheduled) {
+                subDetector.detect(preprocessor);
+                if (subDetector == this.robotDetector)
+                    publishRobot(timestamp);
+            }
+            return scheduled;
+        }
+
+        try {
+            this.detectingPreprocessor = preprocessor;
+            this.detectionFutures.clear();
+            for (SubDetector subDetector : scheduled)
+                this.detectionFutures.add(this.detectionExecutor.submit(this.detectionTasks.get(subDetector)));
+
+            // Join all detectors before the course is updated, the robot first
+            for (int i = 0; i < scheduled.size(); i++) {
+                this.detectionFutures.get(i).get();
+                if (scheduled.get(i) == this.robotDetector)
+                    publishRobot(timestamp);
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+
+        return scheduled;
+    }
+
+    /**
+     * Puts the robot on the course, with the coordinate mapping of the last border. It does not read the border, which
+     * may be detected or published at the same time.
+     *
+     * @param timestamp The System.nanoTime() at which the frame was captured.
+     */
+    private void publishRobot(long timestamp) {
+        CoordinateMapper mapper = this.coordinateMapper;
+        if (mapper == null)
+            return;
+
+        Robot pixelRobot = this.robotDetector.getRobot();
+        updateCourseRobot(mapper, pixelRobot.getCenter(), pixelRobot.getFront());
+        this.course.updateCaptureTimestamp(timestamp);
+    }
 
+    /**
+     * Categorizes the pickup strategy of a ball, depending on the closeness to the course corners and the cross.
+     *
+     * @param position    The center of the ball, in pixels.
+     * @param corners     The corners of the border, in pixels.
+     * @param crossCenter The middle of the cross, in pixels. Null if not found.
+     * @return the strategy to pick up the ball with.
+     */
+    private BallPickupStrategy categorizeBallPickupStrategy(Point position, Point[] corners, Point crossCenter) {
         final double centimeterMargin = 5;
 
         // Convert margin to pixels
@@ -212,250 +734,236 @@ public class DetectionController {
         final double pixelMarginY = centimeterMargin / conversionFactorY;
 
         // Get corners, TopLeft, TopRight, BottomLeft
-        Point[] corners = border.getCornersAsArray();
         Point TL = corners[0], TR = corners[1], BL = corners[2];
 
-        balls.forEach(ball -> {
-            Point position = ball.getCenter();
+        // Order: Top, Bottom, Right, Left
+        boolean[] closeTo = new boolean[4];
 
-            // Order: Top, Bottom, Right, Left
-            boolean[] closeTo = new boolean[4];
+        if (position.y <= TL.y + pixelMarginY) closeTo[0] = true;
+        else if (position.y >= BL.y - pixelMarginY) closeTo[1] = true;
+        if (position.x >= TR.x - pixelMarginX) closeTo[2] = true;
+        else if (position.x <= TL.x + pixelMarginX) closeTo[3] = true;
 
-            if (position.y <= TL.y + pixelMarginY) closeTo[0] = true;
-            else if (position.y >= BL.y - pixelMarginY) closeTo[1] = true;
-            if (position.x >= TR.x - pixelMarginX) closeTo[2] = true;
-            else if (position.x <= TL.x + pixelMarginX) closeTo[3] = true;
+        // How many border are the ball close
+        int amountCloseTo = 0;
+        for (boolean b : closeTo){
+            if (b) amountCloseTo++;
+        }
 
-            // How many border are the ball close
-            int amountCloseTo = 0;
-            for (boolean b : closeTo){
-                if (b) amountCloseTo++;
-            }
+        //free or cross
+        if (amountCloseTo == 0) {
+            if (crossCenter != null) {
+                double radius = (this.course.getCross().getLongestSide() / 2 + centimeterMargin) / conversionFactorX;
 
-            //free or cross
-            if (amountCloseTo == 0) {
-                Point crossCenter = cross.getMiddle();
-                if (crossCenter != null) {
-                    double radius = (cross.getLongestSide() / 2 + centimeterMargin) / conversionFactorX;
-
-                    if (Math.pow(position.x - crossCenter.x, 2) + Math.pow(position.y - crossCenter.y, 2) < Math.pow(radius, 2))
-                        ball.setStrategy(BallPickupStrategy.CROSS);
-                } else
-                    ball.setStrategy(BallPickupStrategy.FREE);
-            // Border
-            }else if (amountCloseTo == 1) {
-                if (closeTo[0]) ball.setStrategy(BallPickupStrategy.BORDER_TOP);
-                else if (closeTo[1]) ball.setStrategy(BallPickupStrategy.BORDER_BOTTOM);
-                else if (closeTo[2]) ball.setStrategy(BallPickupStrategy.BORDER_RIGHT);
-                else ball.setStrategy(BallPickupStrategy.BORDER_LEFT);
-
-            // Corner
-            } else if (amountCloseTo == 2) {
-
-                //Top corner
-                if (closeTo[0]){
-                    if (closeTo[2]) ball.setStrategy(BallPickupStrategy.CORNER_TOP_RIGHT);
-                    else ball.setStrategy(BallPickupStrategy.CORNER_TOP_LEFT);
-                }
-
-                //Bottom Corner
-                else if (closeTo[1]){
-                    if (closeTo[2]) ball.setStrategy(BallPickupStrategy.CORNER_BOTTOM_RIGHT);
-                    else ball.setStrategy(BallPickupStrategy.CORNER_BOTTOM_LEFT);
-                }
-            } else {
-                //TODO: error handling
+                if (Math.pow(position.x - crossCenter.x, 2) + Math.pow(position.y - crossCenter.y, 2) < Math.pow(radius, 2))
+                    return BallPickupStrategy.CROSS;
+            }
+            return BallPickupStrategy.FREE;
+        // Border
+        } else if (amountCloseTo == 1) {
+            if (closeTo[0]) return BallPickupStrategy.BORDER_TOP;
+            else if (closeTo[1]) return BallPickupStrategy.BORDER_BOTTOM;
+            else if (closeTo[2]) return BallPickupStrategy.BORDER_RIGHT;
+            else return BallPickupStrategy.BORDER_LEFT;
+
+        // Corner
+        } else {
+            //Top corner
+            if (closeTo[0]){
+                if (closeTo[2]) return BallPickupStrategy.CORNER_TOP_RIGHT;
+                else return BallPickupStrategy.CORNER_TOP_LEFT;
             }
-        });
+
+            //Bottom Corner
+            if (closeTo[2]) return BallPickupStrategy.CORNER_BOTTOM_RIGHT;
+            else return BallPickupStrategy.CORNER_BOTTOM_LEFT;
+        }
     }
 
     /**
      * Updates the Course object with the objects detected from the sub detectors.
      * This converts the pixel values to centimetres, so that the course only has real world units.
+     *
+     * @param detections     The objects found on the frame, in pixels.
+     * @param timestamp      The System.nanoTime() at which the frame was captured.
+     * @param robotDetected  If the robot should be updated.
+     * @param borderDetected If the border and cross should be updated.
+     * @param ballsDetected  If the balls should be updated.
+     * @param ballsRequested If the balls are from a requested full scan, and are taken as found.
      */
-    private void updateCourse() {
-        Border border = this.borderDetector.getBorder();
+    private void updateCourse(DetectionSnapshot detections, long timestamp, boolean robotDetected,
+                              boolean borderDetected, boolean ballsDetected, boolean ballsRequested) {
+        Point[] corners = detections.getBorderCorners();
 
         // Find the corners at least once to allow updating of other course objects
-        if (border != null) { // True when a border is found
+        if (corners != null) { // True when a border is found
+
+            // The mapping only changes with the border, so it is made once per border
+            CoordinateMapper mapper = this.coordinateMapper;
+            if (mapper == null || !mapper.isCalibratedFor(corners)) {
+                mapper = new CoordinateMapper(corners, this.course.getWidth(), this.course.getHeight(),
+                        this.course.getBorder().height, this.courseCenter, this.camHeight,
+                        this.undistortFrames ? null : this.lens);
 
-            // Calculate conversion factors and get offset
-            this.conversionFactorX = this.course.getWidth() / distanceBetweenTwoPoints(border.getTopLeft().x, border.getTopLeft().y,
-                    border.getTopRight().x, border.getTopRight().y);
+                // Approximate scale, for margins given in centimetres
+                this.conversionFactorX = this.course.getWidth() / distanceBetweenTwoPoints(corners[0].x, corners[0].y,
+                        corners[1].x, corners[1].y);
 
-            this.conversionFactorY = this.course.getHeight() / distanceBetweenTwoPoints(border.getTopLeft().x, border.getTopLeft().y,
-                    border.getBottomLeft().x, border.getBottomLeft().y);
+                this.conversionFactorY = this.course.getHeight() / distanceBetweenTwoPoints(corners[0].x, corners[0].y,
+                        corners[2].x, corners[2].y);
 
-            this.pixelOffset = this.borderDetector.getCameraOffset();
+                this.coordinateMapper = mapper;
+            }
 
-            // Update new Course's objects
-            Course newCourse = new Course();
-            updateNewCourseBorder(newCourse.getBorder());
-            updateNewCourseRobot(newCourse.getRobot());
-            updateNewCourseBalls(newCourse.getBalls());
-            updateNewCourseCross(newCourse.getCross());
+            // Update the Course's objects. The border goes first, as the balls outside it are left out
+            if (borderDetected) {
+                updateCourseBorder(mapper, corners);
+                updateCourseCross(mapper, detections);
 
-            // Update Real Course
-            course.replaceObjects(newCourse);
+                // The next frames are searched within the border. The mask is only rebuilt if it moved
+                if (this.courseMask != null)
+                    this.courseMask.setBorder(corners);
+            }
+            if (robotDetected)
+                updateCourseRobot(mapper, detections.getRobotCenter(), detections.getRobotFront());
+            if (ballsDetected) {
+                this.courseBalls.clear();
+                updateCourseBalls(mapper, detections, corners, this.courseBalls);
+                this.course.updateBalls(this.courseBalls, timestamp, ballsRequested);
+            }
+
+            this.course.updateCaptureTimestamp(timestamp);
         }
     }
 
     /**
      * Updates the Border in the Course object, by converting to centimeters and correction coordinates using height.
      */
-    private void updateNewCourseBorder(Border newBorder) {
-        Border pixelBorder = this.borderDetector.getBorder();
-        Point[] pixelCorners = pixelBorder.getCornersAsArray(); // From pixel Border
+    private void updateCourseBorder(CoordinateMapper mapper, Point[] pixelCorners) {
+        Border courseBorder = this.course.getBorder();
         Point[] correctedCorners = new Point[4];
 
-        // Save border to use for overlay
-        oldBorder = pixelBorder;
-
         // Convert from pixel to cm.
-        for (int i = 0; i < pixelCorners.length; i++) {
-            correctedCorners[i] = convertPixelPointToCmPoint(pixelCorners[i], this.pixelOffset);
-            correctedCorners[i] = Algorithms.correctedCoordinatesOfObject(correctedCorners[i], courseCenter, newBorder.height, camHeight);
-        }
+        for (int i = 0; i < pixelCorners.length; i++)
+            correctedCorners[i] = mapper.toCourse(pixelCorners[i], courseBorder.height);
 
-        newBorder.setTopLeft(correctedCorners[0]);
-        newBorder.setTopRight(correctedCorners[1]);
-        newBorder.setBottomLeft(correctedCorners[2]);
-        newBorder.setBottomRight(correctedCorners[3]);
+        courseBorder.setTopLeft(correctedCorners[0]);
+        courseBorder.setTopRight(correctedCorners[1]);
+        courseBorder.setBottomLeft(correctedCorners[2]);
+        courseBorder.setBottomRight(correctedCorners[3]);
     }
 
     /**
      * Updates the Course robot's position, by converting to centimeters and correction coordinates using height.
      */
-    private void updateNewCourseRobot(Robot newRobot) {
+    private void updateCourseRobot(CoordinateMapper mapper, Point pixelCenter, Point pixelFront) {
         // Convert from pixel to centimetres
-        Robot pixelRobot = this.robotDetector.getRobot();
-        Point correctedCenter = convertPixelPointToCmPoint(pixelRobot.getCenter(), this.pixelOffset);
-        Point correctedFront = convertPixelPointToCmPoint(pixelRobot.getFront(), this.pixelOffset);
-
-        correctedCenter = Algorithms.correctedCoordinatesOfObject(correctedCenter, courseCenter, newRobot.height, camHeight);
-        correctedFront = Algorithms.correctedCoordinatesOfObject(correctedFront, courseCenter, newRobot.height, camHeight);
+        Robot courseRobot = this.course.getRobot();
+        Point correctedCenter = mapper.toCourse(pixelCenter, courseRobot.height);
+        Point correctedFront = mapper.toCourse(pixelFront, courseRobot.height);
 
-        // Update new Robot
-        newRobot.setFrontAndCenter(correctedCenter, correctedFront);
+        // Update Robot
+        courseRobot.setFrontAndCenter(correctedCenter, correctedFront);
     }
 
     /**
      * Updates the Course's balls positions, by converting to centimeters and correction coordinates using height.
+     * The pickup strategy of each ball is categorized from its position in pixels.
      */
-    private void updateNewCourseBalls(List<Ball> newBalls) {
-        List<Ball> pixelBalls = this.ballDetector.getBalls();
-        for (Ball ball : pixelBalls) {
-            // Convert position from pixel to cm
-            Point correctedCenter = convertPixelPointToCmPoint(ball.getCenter(), this.pixelOffset);
-
-            // Correct by height
-            correctedCenter = Algorithms.correctedCoordinatesOfObject(correctedCenter, courseCenter, ball.getRadius(), camHeight);
+    private void updateCourseBalls(CoordinateMapper mapper, DetectionSnapshot detections, Point[] pixelCorners,
+                                   List<Ball> balls) {
+        Point[] pixelCenters = detections.getBallCenters();
+        BallColor[] colors = detections.getBallColors();
+        Point crossCenter = detections.getCrossMiddle();
+        if (this.ballBuffer.length < pixelCenters.length * 2)
+            this.ballBuffer = new double[pixelCenters.length * 2];
+
+        // Convert positions from pixel to cm, corrected by height. All balls have the same radius
+        for (int i = 0; i < pixelCenters.length; i++) {
+            this.ballBuffer[i * 2] = pixelCenters[i].x;
+            this.ballBuffer[i * 2 + 1] = pixelCenters[i].y;
+        }
+        mapper.toCourse(this.ballBuffer, this.ballBuffer, pixelCenters.length, this.ballRadius);
 
-            // Update New Balls
-            Ball correctedBall = new Ball(correctedCenter, ball.getColor(), ball.getStrategy());
-            newBalls.add(correctedBall);
+        for (int i = 0; i < pixelCenters.length; i++) {
+            Point correctedCenter = new Point(this.ballBuffer[i * 2], this.ballBuffer[i * 2 + 1]);
+            BallPickupStrategy strategy = categorizeBallPickupStrategy(pixelCenters[i], pixelCorners, crossCenter);
+            balls.add(new Ball(correctedCenter, colors[i], strategy));
         }
     }
 
     /**
      * Updates the Course's Cross object, by converting to centimeters and correction coordinates using height.
      */
-    private void updateNewCourseCross(Cross newCross) {
-        Cross pixelCross = this.borderDetector.getCross();
+    private void updateCourseCross(CoordinateMapper mapper, DetectionSnapshot detections) {
+        Cross courseCross = this.course.getCross();
+
+        double crossHeight = courseCross.getHeight(); // Parsed from the configuration on every call
 
-        if (pixelCross.getEndPoints() != null) {
+        Point[] endPoints = detections.getCrossEndPoints();
+        if (endPoints != null) {
             List<Point> correctedEndPointList = new ArrayList<>();
-            for (Point endPoint : pixelCross.getEndPoints()) {
-                Point correctedEndPoint = convertPixelPointToCmPoint(endPoint, this.pixelOffset);
-                correctedEndPoint = Algorithms.correctedCoordinatesOfObject(correctedEndPoint, this.courseCenter, newCross.getHeight(), this.camHeight);
-                correctedEndPointList.add(correctedEndPoint);
+            for (Point endPoint : endPoints) {
+                correctedEndPointList.add(mapper.toCourse(endPoint, crossHeight));
             }
-            newCross.setEndPoints(correctedEndPointList);
+            courseCross.setEndPoints(correctedEndPointList);
         }
 
-        if (pixelCross.getMiddle() != null && pixelCross.getMeasurePoint() != null) {
-            // Convert to CM
-            Point correctedMiddle = convertPixelPointToCmPoint(pixelCross.getMiddle(), this.pixelOffset);
-            Point correctedMeasurePoint = convertPixelPointToCmPoint(pixelCross.getMeasurePoint(), this.pixelOffset);
-
-            // Correct using height
-            correctedMiddle = Algorithms.correctedCoordinatesOfObject(correctedMiddle, this.courseCenter, newCross.getHeight(), this.camHeight);
-            correctedMeasurePoint = Algorithms.correctedCoordinatesOfObject(correctedMeasurePoint, this.courseCenter, newCross.getHeight(), this.camHeight);
+        Point middle = detections.getCrossMiddle(), measurePoint = detections.getCrossMeasurePoint();
+        if (middle != null && measurePoint != null) {
+            // Convert to CM, corrected using height
+            Point correctedMiddle = mapper.toCourse(middle, crossHeight);
+            Point correctedMeasurePoint = mapper.toCourse(measurePoint, crossHeight);
 
-            newCross.setMiddle(correctedMiddle);
-            newCross.setMeasurePoint(correctedMeasurePoint);
+            courseCross.setMiddle(correctedMiddle);
+            courseCross.setMeasurePoint(correctedMeasurePoint);
         }
     }
 
     /**
-     * Converts Point from pixel units to centimetres and subtracts a pixel offset.
+     * Displays the frame with an overlay, and the masks if enabled.
+     * When headless, the frame is instead handed to the overlay renderer if it is ready for one.
      *
-     * @param point       Point to be converted.
-     * @param pixelOffset The offset to be subtracted before the multiplication of the factor.
-     * @return The new converted point in centimetres.
+     * @param frame      The frame to display.
+     * @param detections The objects to draw on it.
      */
-    private Point convertPixelPointToCmPoint(Point point, Point pixelOffset) {
-        return new Point((point.x - pixelOffset.x) * this.conversionFactorX, (point.y - pixelOffset.y) * this.conversionFactorY);
+    private void display(Mat frame, DetectionSnapshot detections) {
+        if (this.headless) {
+            if (this.overlayRenderer != null && this.overlayRenderer.wantsFrame())
+                this.overlayRenderer.submit(frame, detections);
+            return;
+        }
+
+        showOverlay(frame, detections);
+
+        // Display masks for debugging
+        if (this.showMasks)
+            showMasks();
+
+        // Open all window pop-ups
+        HighGui.waitKey(this.refreshRate);
     }
 
     /**
      * Displays the frames with an overlay
      */
-    private void showOverlay() {
-        // Display overlay
-        createOverlay();
+    private void showOverlay(Mat frame, DetectionSnapshot detections) {
+        // Draw on a copy, as the frame is read by the sub detectors
+        frame.copyTo(this.overlayFrame);
+        OverlayRenderer.draw(this.overlayFrame, detections);
         HighGui.imshow("overlay", this.overlayFrame);
     }
 
     /**
-     * Draws an overlay on the frame and puts it in the display pile.
+     * @return a copy of the objects found by the sub detectors.
      */
-    private void createOverlay() {
-        // Define colors for different objects
-        Scalar cornerColor = new Scalar(0, 255, 0); // Green
-        Scalar robotMarkerColor = new Scalar(255, 0, 255); // Magenta
-        Scalar ballColor = new Scalar(255, 255, 0); // Cyan
-        Scalar crossColor = new Scalar(0, 255, 255); // Yellow
-
-        this.overlayFrame = this.frame;
-
-        // Draw Corners
-        Point[] corners = oldBorder != null ? oldBorder.getCornersAsArray() : null;
-
-        if (corners != null)
-            for (Point corner : corners)
-                Imgproc.circle(this.overlayFrame, corner, 2, cornerColor, 3);
-
-        // Draw the middle of the cross
-        Cross cross = this.borderDetector.getCross();
-        if (cross != null) {
-            Point middle = cross.getMiddle();
-            if (middle != null)
-                Imgproc.circle(this.overlayFrame, middle, 2, crossColor, 3);
-            Point measurePoint = cross.getMeasurePoint();
-            if (measurePoint != null)
-                Imgproc.circle(this.overlayFrame, measurePoint, 2, crossColor, 3);
-        }
-
-        // Draw Robot Markers
-        Robot robot = this.robotDetector.getRobot();
-
-        if (robot != null) {
-            Imgproc.circle(this.overlayFrame, robot.getCenter(), 5, robotMarkerColor, 2);
-            Imgproc.circle(this.overlayFrame, robot.getFront(), 4, robotMarkerColor, 2);
-            Imgproc.line(this.overlayFrame, robot.getCenter(), robot.getFront(), robotMarkerColor, 2);
-        }
-
-        // Draw Balls
-        List<Ball> balls = this.ballDetector.getBalls();
-
-        for (Ball ball : balls) {
-            Imgproc.circle(this.overlayFrame, ball.getCenter(), 4, ballColor, 1);
-
-            // Draw Lines between robot and balls
-            if (robot != null)
-                Imgproc.line(this.overlayFrame, robot.getCenter(), ball.getCenter(), ballColor, 1);
-        }
+    private DetectionSnapshot createSnapshot() {
+        return new DetectionSnapshot(
+                this.borderDetector.getBorder(),
+                this.borderDetector.getCross(),
+                this.robotDetector.getRobot(),
+                this.ballDetector.getBalls()
+        );
     }
 
     /**
@@ -463,10 +971,20 @@ public class DetectionController {
      * Debugging Tool
      */
     private void showMasks() {
-        for (SubDetector subDetector : this.subDetectors) {
-            for (MaskSet maskSet : subDetector.getMaskSets()) {
-                HighGui.imshow(maskSet.getMaskName(), maskSet.getMask());
-            }
-        }
+        for (SubDetector subDetector : this.subDetectors)
+            subDetector.getMaskPublisher().forEachMask(maskSet -> HighGui.imshow(maskSet.getMaskName(), maskSet.getMask()));
+    }
+
+    /**
+     * A frame on its way through the pipeline, with the blurs and masks derived from it and the objects found on it.
+     */
+    private static class FrameSlot {
+        final FramePreprocessor preprocessor = new FramePreprocessor();
+        Mat ownedFrame; // Holds the frame when it is copied or undistorted
+        Mat frame; // Null when the frame source has ended
+        long timestamp; // System.nanoTime() at which the frame was captured
+        DetectionSnapshot detections;
+        boolean borderDetected, ballsDetected, ballsRequested;
+        long preprocessTime, detectionTime; // Nanoseconds
     }
 }
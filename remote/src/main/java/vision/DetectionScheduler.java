@@ -0,0 +1,131 @@
+package vision;
+
+import vision.detection.SubDetector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Decides which sub detectors run on each frame, from the rate and priority they declare.
+ * <br/><br/>
+ * Sub detectors with a rate of 0 run on every frame. Of the others, at most one runs per frame, so their cost is spread
+ * over the frames instead of piling up on the same one. Requested sub detectors go first, then the due sub detector
+ * that is the most overdue, in periods of its rate. Priority only breaks ties, so a high rate sub detector cannot
+ * starve the others when the frame rate is below the sum of their rates. A sub detector is due once a period of its
+ * rate has passed since it was last due, so it keeps its rate on average, even though it can only run when a frame
+ * arrives.
+ * <br/><br/>
+ * Time is taken from the capture timestamps of the frames, so recordings are scheduled like the camera.
+ */
+public class DetectionScheduler {
+    private final List<SubDetector> subDetectors; // Highest priority first
+    private final long[] periods; // Nanoseconds between runs. 0 for every frame
+    private final long[] nextRuns; // Timestamp each sub detector is due at
+    private final long[] runs; // Number of frames each sub detector was scheduled on
+    private final boolean[] requested;
+    private final boolean[] ranOnRequest; // On the last scheduled frame
+    private boolean started; // Once the first frame is scheduled
+    private final List<SubDetector> scheduled = new ArrayList<>();
+
+    /**
+     * @param subDetectors The sub detectors to schedule.
+     */
+    public DetectionScheduler(List<SubDetector> subDetectors) {
+        this.subDetectors = new ArrayList<>(subDetectors);
+        this.subDetectors.sort(Comparator.comparingInt(SubDetector::getPriority).reversed());
+
+        int count = this.subDetectors.size();
+        this.periods = new long[count];
+        this.nextRuns = new long[count];
+        this.runs = new long[count];
+        this.requested = new boolean[count];
+        this.ranOnRequest = new boolean[count];
+
+        for (int i = 0; i < count; i++) {
+            double rate = this.subDetectors.get(i).getTargetRate();
+            this.periods[i] = rate > 0 ? (long) (1e9 / rate) : 0;
+        }
+    }
+
+    /**
+     * Selects the sub detectors to run on a frame, and counts them as run.
+     *
+     * @param timestamp The System.nanoTime() at which the frame was captured.
+     * @return the sub detectors to run, highest priority first. The list is reused by the next call.
+     */
+    public synchronized List<SubDetector> schedule(long timestamp) {
+        this.scheduled.clear();
+
+        // Every sub detector is due from the first frame on
+        if (!this.started) {
+            Arrays.fill(this.nextRuns, timestamp);
+            this.started = true;
+        }
+
+        // The most important requested sub detector, or else the most overdue one, of those not running on every frame
+        int selected = -1;
+        double selectedOverdue = 0; // Periods it is late by
+        for (int i = 0; i < this.subDetectors.size(); i++) {
+            if (this.periods[i] == 0) continue;
+
+            if (this.requested[i]) {
+                if (selected < 0 || !this.requested[selected])
+                    selected = i;
+            } else if (timestamp >= this.nextRuns[i] && (selected < 0 || !this.requested[selected])) {
+                // Ties go to the higher priority, which comes first
+                double overdue = (double) (timestamp - this.nextRuns[i]) / this.periods[i];
+                if (selected < 0 || overdue > selectedOverdue) {
+                    selected = i;
+                    selectedOverdue = overdue;
+                }
+            }
+        }
+
+        for (int i = 0; i < this.subDetectors.size(); i++) {
+            this.ranOnRequest[i] = false;
+            if (this.periods[i] != 0 && i != selected) continue;
+
+            this.scheduled.add(this.subDetectors.get(i));
+
+            // Keep the phase, unless the sub detector fell a whole period behind
+            this.nextRuns[i] += this.periods[i];
+            if (this.nextRuns[i] <= timestamp)
+                this.nextRuns[i] = timestamp + this.periods[i];
+            this.runs[i]++;
+            this.ranOnRequest[i] = this.requested[i];
+            this.requested[i] = false;
+        }
+
+        return this.scheduled;
+    }
+
+    /**
+     * Makes the sub detector run on the next frame, ahead of the due sub detectors.
+     *
+     * @param subDetector The sub detector to run.
+     * @return the number of frames the sub detector was scheduled on before the request.
+     */
+    public synchronized long request(SubDetector subDetector) {
+        int index = this.subDetectors.indexOf(subDetector);
+        this.requested[index] = true;
+        return this.runs[index];
+    }
+
+    /**
+     * @param subDetector A scheduled sub detector.
+     * @return true if the sub detector was scheduled on the last frame because it was requested.
+     */
+    public synchronized boolean isRequestedRun(SubDetector subDetector) {
+        return this.ranOnRequest[this.subDetectors.indexOf(subDetector)];
+    }
+
+    /**
+     * @param subDetector A scheduled sub detector.
+     * @return true if the sub detector runs on every frame.
+     */
+    public boolean isEveryFrame(SubDetector subDetector) {
+        return this.periods[this.subDetectors.indexOf(subDetector)] == 0;
+    }
+}
@@ -0,0 +1,98 @@
+package vision;
+
+import courseObjects.Ball;
+import courseObjects.BallColor;
+import courseObjects.Border;
+import courseObjects.Cross;
+import courseObjects.Robot;
+import org.opencv.core.Point;
+
+import java.util.List;
+
+/**
+ * Immutable copy of the objects detected in a frame, in pixel units.
+ * Safe to hand to other threads while the sub detectors move on to the next frame, e.g. the overlay renderer or the
+ * publishing stage of the detection pipeline.
+ */
+public class DetectionSnapshot {
+    private final Point[] borderCorners; // TopLeft, TopRight, BottomLeft, BottomRight. Null if not found
+    private final Point[] crossEndPoints; // Null if not found
+    private final Point crossMiddle, crossMeasurePoint;
+    private final Point robotCenter, robotFront;
+    private final Point[] ballCenters;
+    private final BallColor[] ballColors;
+
+    /**
+     * Copies the positions of the objects. Any of the objects may be null if not found.
+     */
+    public DetectionSnapshot(Border border, Cross cross, Robot robot, List<Ball> balls) {
+        this.borderCorners = border != null ? copy(border.getCornersAsArray()) : null;
+
+        List<Point> endPoints = cross != null ? cross.getEndPoints() : null;
+        this.crossEndPoints = endPoints != null ? copy(endPoints.toArray(new Point[0])) : null;
+        this.crossMiddle = cross != null ? copy(cross.getMiddle()) : null;
+        this.crossMeasurePoint = cross != null ? copy(cross.getMeasurePoint()) : null;
+
+        this.robotCenter = robot != null ? copy(robot.getCenter()) : null;
+        this.robotFront = robot != null ? copy(robot.getFront()) : null;
+
+        this.ballCenters = new Point[balls != null ? balls.size() : 0];
+        this.ballColors = new BallColor[this.ballCenters.length];
+        for (int i = 0; i < this.ballCenters.length; i++) {
+            this.ballCenters[i] = copy(balls.get(i).getCenter());
+            this.ballColors[i] = balls.get(i).getColor();
+        }
+    }
+
+    private static Point copy(Point point) {
+        return point != null ? point.clone() : null;
+    }
+
+    private static Point[] copy(Point[] points) {
+        Point[] copies = new Point[points.length];
+        for (int i = 0; i < points.length; i++)
+            copies[i] = copy(points[i]);
+        return copies;
+    }
+
+    /**
+     * @return TopLeft, TopRight, BottomLeft, BottomRight, or null if the border was not found
+     */
+    public Point[] getBorderCorners() {
+        return borderCorners != null ? copy(borderCorners) : null;
+    }
+
+    /**
+     * @return the end points of the cross, or null if the cross was not found
+     */
+    public Point[] getCrossEndPoints() {
+        return crossEndPoints != null ? copy(crossEndPoints) : null;
+    }
+
+    public Point getCrossMiddle() {
+        return copy(crossMiddle);
+    }
+
+    public Point getCrossMeasurePoint() {
+        return copy(crossMeasurePoint);
+    }
+
+    public Point getRobotCenter() {
+        return copy(robotCenter);
+    }
+
+    public Point getRobotFront() {
+        return copy(robotFront);
+    }
+
+    public Point[] getBallCenters() {
+        return copy(ballCenters);
+    }
+
+    /**
+     * @return the color of each ball, in the order of getBallCenters()
+     */
+    public BallColor[] getBallColors() {
+        return ballColors.clone();
+    }
+}
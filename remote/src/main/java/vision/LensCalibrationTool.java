@@ -0,0 +1,108 @@
+package vision;
+
+import nu.pattern.OpenCV;
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+import vision.capture.FrameSource;
+import vision.capture.ImageSequenceFrameSource;
+import vision.capture.VideoFileFrameSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the intrinsics of the camera lens from recordings of a checkerboard, and writes them for LensModel to load.
+ * Run it once per camera, and point the lensCalibration setting to the written file.
+ * <br/><br/>
+ * Record the board with the camera at the resolution used on the course, held at many positions and angles, and
+ * especially near the edges of the frame where the distortion is largest.
+ * <br/><br/>
+ * Usage: LensCalibrationTool &lt;video file or image directory&gt; &lt;inner corners per row&gt;
+ * &lt;inner corners per column&gt; &lt;square size in cm&gt; &lt;output file&gt; [use every nth frame]
+ */
+public class LensCalibrationTool {
+    private static final TermCriteria CORNER_CRITERIA = new TermCriteria(TermCriteria.EPS + TermCriteria.COUNT, 30, 0.01);
+    private static final int MIN_VIEWS = 10;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 5) {
+            System.err.println("Usage: LensCalibrationTool <video file or image directory> <inner corners per row> "
+                    + "<inner corners per column> <square size in cm> <output file> [use every nth frame]");
+            System.exit(1);
+        }
+
+        OpenCV.loadLocally();
+
+        Size boardSize = new Size(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+        double squareSize = Double.parseDouble(args[3]);
+        int step = args.length > 5 ? Integer.parseInt(args[5]) : 1;
+
+        // The same board corners in every view, on the plane of the board
+        MatOfPoint3f boardCorners = new MatOfPoint3f();
+        List<Point3> corners = new ArrayList<>();
+        for (int row = 0; row < boardSize.height; row++)
+            for (int column = 0; column < boardSize.width; column++)
+                corners.add(new Point3(column * squareSize, row * squareSize, 0));
+        boardCorners.fromList(corners);
+
+        List<Mat> objectPoints = new ArrayList<>(), imagePoints = new ArrayList<>();
+        Size imageSize = null;
+
+        FrameSource source = open(args[0]);
+        Mat frame = new Mat(), gray = new Mat();
+        for (int index = 0; source.read(frame); index++) {
+            if (index % step != 0)
+                continue;
+
+            imageSize = frame.size();
+            Imgproc.cvtColor(frame, gray, Imgproc.COLOR_BGR2GRAY);
+
+            MatOfPoint2f found = new MatOfPoint2f();
+            if (!Calib3d.findChessboardCorners(gray, boardSize, found,
+                    Calib3d.CALIB_CB_ADAPTIVE_THRESH + Calib3d.CALIB_CB_NORMALIZE_IMAGE)) {
+                System.out.println("Frame " + index + ": no board");
+                continue;
+            }
+
+            Imgproc.cornerSubPix(gray, found, new Size(11, 11), new Size(-1, -1), CORNER_CRITERIA);
+            objectPoints.add(boardCorners);
+            imagePoints.add(found);
+            System.out.println("Frame " + index + ": board found");
+        }
+        source.release();
+
+        if (imagePoints.size() < MIN_VIEWS) {
+            System.err.println("Found the board in " + imagePoints.size() + " frames, but at least " + MIN_VIEWS
+                    + " are needed");
+            System.exit(1);
+        }
+
+        Mat cameraMatrix = new Mat(), distortion = new Mat();
+        double error = Calib3d.calibrateCamera(objectPoints, imagePoints, imageSize, cameraMatrix, distortion,
+                new ArrayList<>(), new ArrayList<>());
+
+        double[] camera = new double[9];
+        cameraMatrix.get(0, 0, camera);
+        double[] coefficients = new double[(int) distortion.total()];
+        distortion.get(0, 0, coefficients);
+
+        LensModel lens = new LensModel(camera, coefficients, (int) imageSize.width, (int) imageSize.height, error);
+        lens.save(args[4]);
+
+        System.out.printf("Calibrated from %d views with a reprojection error of %.3f pixels. Written to %s%n",
+                imagePoints.size(), error, args[4]);
+    }
+
+    /**
+     * Opens the recording without pacing, so every frame is read as fast as possible.
+     */
+    private static FrameSource open(String path) {
+        File file = new File(path);
+        if (file.isDirectory() || path.matches("(?i).*\\.(png|jpe?g|bmp)$"))
+            return new ImageSequenceFrameSource(path, 30, false, false);
+        return new VideoFileFrameSource(path, false);
+    }
+}
@@ -0,0 +1,226 @@
+package vision;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+import org.opencv.core.TermCriteria;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * The intrinsics of the camera lens, as found by LensCalibrationTool, and the tables to correct its distortion.
+ * <br/><br/>
+ * Points are undistorted by looking them up in a table holding the undistorted position of every pixel. Whole frames
+ * are undistorted by remapping them through the table from initUndistortRectifyMap. Both tables are computed on
+ * first use, and the corrected pixels use the camera matrix of the lens, so they match between the two.
+ * <br/><br/>
+ * The intrinsics are stored as a properties XML file, like the configuration.
+ */
+public class LensModel {
+    private static final TermCriteria UNDISTORT_CRITERIA = new TermCriteria(TermCriteria.COUNT + TermCriteria.EPS, 20, 1e-4);
+
+    private final double[] cameraMatrix; // fx, 0, cx, 0, fy, cy, 0, 0, 1
+    private final double[] distortion; // k1, k2, p1, p2 and optionally k3 and higher
+    private final int width, height; // Resolution the lens was calibrated at
+    private final double error; // Root mean square reprojection error of the calibration, in pixels
+
+    // Undistorted x and y of each pixel
+    private float[] pointTable;
+
+    // Fixed point remap tables for frames
+    private Mat frameMap, frameMapFraction;
+
+    /**
+     * @param cameraMatrix Row major 3x3 camera matrix
+     * @param distortion   Distortion coefficients, as returned by calibrateCamera
+     * @param width        Width of the calibration images
+     * @param height       Height of the calibration images
+     * @param error        Root mean square reprojection error of the calibration, in pixels
+     */
+    public LensModel(double[] cameraMatrix, double[] distortion, int width, int height, double error) {
+        this.cameraMatrix = cameraMatrix.clone();
+        this.distortion = distortion.clone();
+        this.width = width;
+        this.height = height;
+        this.error = error;
+    }
+
+    /**
+     * Reads intrinsics written by save().
+     *
+     * @param path File to read
+     * @return the lens model
+     * @throws IOException if the file cannot be read
+     */
+    public static LensModel load(String path) throws IOException {
+        Properties properties = new Properties();
+        try (FileInputStream in = new FileInputStream(path)) {
+            properties.loadFromXML(in);
+        }
+
+        return new LensModel(
+                parse(properties.getProperty("cameraMatrix")),
+                parse(properties.getProperty("distortion")),
+                Integer.parseInt(properties.getProperty("imageWidth")),
+                Integer.parseInt(properties.getProperty("imageHeight")),
+                Double.parseDouble(properties.getProperty("error")));
+    }
+
+    private static double[] parse(String values) {
+        return Arrays.stream(values.split(",")).mapToDouble(value -> Double.parseDouble(value.trim())).toArray();
+    }
+
+    /**
+     * Writes the intrinsics to a properties XML file.
+     *
+     * @param path File to write
+     * @throws IOException if the file cannot be written
+     */
+    public void save(String path) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("cameraMatrix", join(this.cameraMatrix));
+        properties.setProperty("distortion", join(this.distortion));
+        properties.setProperty("imageWidth", String.valueOf(this.width));
+        properties.setProperty("imageHeight", String.valueOf(this.height));
+        properties.setProperty("error", String.valueOf(this.error));
+
+        try (FileOutputStream out = new FileOutputStream(path)) {
+            properties.storeToXML(out, "Lens intrinsics from LensCalibrationTool");
+        }
+    }
+
+    private static String join(double[] values) {
+        StringBuilder builder = new StringBuilder();
+        for (double value : values) {
+            if (builder.length() > 0) builder.append(", ");
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Removes the distortion from a point.
+     *
+     * @param pixel Pixel of the distorted frame
+     * @return the pixel it would be without distortion
+     */
+    public Point undistort(Point pixel) {
+        double[] xy = {pixel.x, pixel.y};
+        undistort(xy, 1);
+        return new Point(xy[0], xy[1]);
+    }
+
+    /**
+     * Removes the distortion from points, interpolating between the pixels of the table.
+     *
+     * @param pixels x and y of each point, replaced by the undistorted point
+     * @param count  Number of points
+     */
+    public void undistort(double[] pixels, int count) {
+        float[] table = getPointTable();
+
+        for (int i = 0; i < count; i++) {
+            double x = Math.min(this.width - 1, Math.max(0, pixels[i * 2]));
+            double y = Math.min(this.height - 1, Math.max(0, pixels[i * 2 + 1]));
+
+            int left = Math.min(this.width - 2, (int) x), top = Math.min(this.height - 2, (int) y);
+            double dx = x - left, dy = y - top;
+            int topLeft = (top * this.width + left) * 2, bottomLeft = topLeft + this.width * 2;
+
+            for (int axis = 0; axis < 2; axis++) {
+                double upper = table[topLeft + axis] * (1 - dx) + table[topLeft + 2 + axis] * dx;
+                double lower = table[bottomLeft + axis] * (1 - dx) + table[bottomLeft + 2 + axis] * dx;
+                // Points outside the frame keep their offset from the edge
+                double outside = axis == 0 ? pixels[i * 2] - x : pixels[i * 2 + 1] - y;
+                pixels[i * 2 + axis] = upper * (1 - dy) + lower * dy + outside;
+            }
+        }
+    }
+
+    /**
+     * @return the undistorted position of every pixel. Computed once, in one call for all pixels.
+     */
+    private synchronized float[] getPointTable() {
+        if (this.pointTable != null)
+            return this.pointTable;
+
+        float[] grid = new float[this.width * this.height * 2];
+        for (int y = 0, i = 0; y < this.height; y++)
+            for (int x = 0; x < this.width; x++, i += 2) {
+                grid[i] = x;
+                grid[i + 1] = y;
+            }
+
+        Mat pixels = new Mat(this.width * this.height, 1, CvType.CV_32FC2);
+        pixels.put(0, 0, grid);
+        Mat undistorted = new Mat();
+        Mat camera = cameraMatrix(), distortion = distortionCoefficients();
+        Calib3d.undistortPointsIter(pixels, undistorted, camera, distortion, new Mat(), camera, UNDISTORT_CRITERIA);
+        undistorted.get(0, 0, grid);
+
+        pixels.release();
+        undistorted.release();
+        camera.release();
+        distortion.release();
+
+        this.pointTable = grid;
+        return grid;
+    }
+
+    /**
+     * Removes the distortion from a frame.
+     *
+     * @param frame Frame from the camera, at the calibrated resolution
+     * @param dst   Receives the undistorted frame
+     */
+    public void undistort(Mat frame, Mat dst) {
+        if (frame.width() != this.width || frame.height() != this.height)
+            throw new IllegalArgumentException("The lens was calibrated at " + this.width + "x" + this.height
+                    + ", but the frame is " + frame.width() + "x" + frame.height());
+
+        synchronized (this) {
+            if (this.frameMap == null) {
+                Mat camera = cameraMatrix(), distortion = distortionCoefficients();
+                this.frameMap = new Mat();
+                this.frameMapFraction = new Mat();
+                Calib3d.initUndistortRectifyMap(camera, distortion, new Mat(), camera, new Size(this.width, this.height),
+                        CvType.CV_16SC2, this.frameMap, this.frameMapFraction);
+                camera.release();
+                distortion.release();
+            }
+        }
+
+        Imgproc.remap(frame, dst, this.frameMap, this.frameMapFraction, Imgproc.INTER_LINEAR);
+    }
+
+    private Mat cameraMatrix() {
+        Mat camera = new Mat(3, 3, CvType.CV_64F);
+        camera.put(0, 0, this.cameraMatrix);
+        return camera;
+    }
+
+    private Mat distortionCoefficients() {
+        Mat distortion = new Mat(1, this.distortion.length, CvType.CV_64F);
+        distortion.put(0, 0, this.distortion);
+        return distortion;
+    }
+
+    public int getWidth() {
+        return this.width;
+    }
+
+    public int getHeight() {
+        return this.height;
+    }
+
+    public double getError() {
+        return this.error;
+    }
+}
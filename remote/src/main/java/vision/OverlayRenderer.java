@@ -0,0 +1,177 @@
+package vision;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.highgui.HighGui;
+import org.opencv.imgproc.Imgproc;
+import vision.helperClasses.MaskPublisher;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Draws the detected objects on top of a frame.
+ * <br/><br/>
+ * When started, the renderer displays overlays on its own low priority thread at its own refresh rate, so detection
+ * never waits on the display. The detection thread submits a copy of the frame and a snapshot of the detections
+ * whenever the renderer is ready for a new frame.
+ */
+public class OverlayRenderer {
+    // Define colors for different objects
+    private static final Scalar CORNER_COLOR = new Scalar(0, 255, 0); // Green
+    private static final Scalar ROBOT_MARKER_COLOR = new Scalar(255, 0, 255); // Magenta
+    private static final Scalar BALL_COLOR = new Scalar(255, 255, 0); // Cyan
+    private static final Scalar CROSS_COLOR = new Scalar(0, 255, 255); // Yellow
+
+    private final int refreshRate; // Milliseconds between displayed frames
+    private final List<MaskPublisher> maskPublishers; // Masks to display along with the overlay
+    private final Map<String, Mat> maskCopies = new HashMap<>();
+
+    // Double buffer. The detection thread writes the pending frame while the renderer draws on the other
+    private Mat pendingFrame = new Mat(), renderFrame = new Mat();
+    private DetectionSnapshot pendingDetections;
+    private boolean hasPendingFrame = false;
+    private boolean wantsFrame = true;
+    private boolean running = false;
+
+    /**
+     * @param refreshRate    milliseconds between displayed frames.
+     * @param maskPublishers publishers of masks to display. May be empty.
+     */
+    public OverlayRenderer(int refreshRate, List<MaskPublisher> maskPublishers) {
+        this.refreshRate = refreshRate;
+        this.maskPublishers = maskPublishers;
+    }
+
+    /**
+     * Spawns the low priority display thread. It is a daemon, so it never keeps the program running on its own.
+     */
+    public synchronized void start() {
+        if (this.running) return;
+        this.running = true;
+
+        Thread thread = new Thread(() -> {
+            while (renderNextFrame()) ;
+        }, "OverlayRenderer");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the display thread once the frame it is drawing is displayed. Frames submitted after this are ignored.
+     */
+    public synchronized void stop() {
+        this.running = false;
+        notifyAll();
+    }
+
+    /**
+     * @return true if the renderer is running, and done with its last frame and ready for a new one.
+     */
+    public synchronized boolean wantsFrame() {
+        return this.wantsFrame && this.running;
+    }
+
+    /**
+     * Hands a frame to the display thread. The frame is copied, so the caller may reuse it right away.
+     *
+     * @param frame      the frame to draw on.
+     * @param detections the objects detected in the frame.
+     */
+    public synchronized void submit(Mat frame, DetectionSnapshot detections) {
+        frame.copyTo(this.pendingFrame);
+        this.pendingDetections = detections;
+        this.hasPendingFrame = true;
+        this.wantsFrame = false;
+        notifyAll();
+    }
+
+    /**
+     * Waits for a submitted frame, then draws and displays it.
+     *
+     * @return false if the renderer was stopped.
+     */
+    private boolean renderNextFrame() {
+        DetectionSnapshot detections;
+
+        synchronized (this) {
+            try {
+                while (!this.hasPendingFrame && this.running)
+                    wait();
+            } catch (InterruptedException e) {
+                return false;
+            }
+            if (!this.running) return false;
+
+            // Swap buffers, so the next frame can be submitted while drawing
+            Mat temp = this.renderFrame;
+            this.renderFrame = this.pendingFrame;
+            this.pendingFrame = temp;
+            detections = this.pendingDetections;
+            this.hasPendingFrame = false;
+        }
+
+        draw(this.renderFrame, detections);
+        HighGui.imshow("overlay", this.renderFrame);
+
+        // Copy the masks, as they are overwritten by the detectors
+        for (MaskPublisher maskPublisher : this.maskPublishers)
+            maskPublisher.forEachMask(maskSet -> {
+                Mat copy = this.maskCopies.computeIfAbsent(maskSet.getMaskName(), name -> new Mat());
+                maskSet.getMask().copyTo(copy);
+                HighGui.imshow(maskSet.getMaskName(), copy);
+            });
+
+        // Open all window pop-ups and wait until the next frame should be displayed
+        HighGui.waitKey(this.refreshRate);
+
+        synchronized (this) {
+            this.wantsFrame = true;
+        }
+        return true;
+    }
+
+    /**
+     * Draws an overlay of the detected objects on the frame.
+     *
+     * @param frame      the frame to draw on. It is modified.
+     * @param detections the objects to draw.
+     */
+    public static void draw(Mat frame, DetectionSnapshot detections) {
+        // Draw Corners
+        Point[] corners = detections.getBorderCorners();
+
+        if (corners != null)
+            for (Point corner : corners)
+                Imgproc.circle(frame, corner, 2, CORNER_COLOR, 3);
+
+        // Draw the middle of the cross
+        Point middle = detections.getCrossMiddle();
+        if (middle != null)
+            Imgproc.circle(frame, middle, 2, CROSS_COLOR, 3);
+        Point measurePoint = detections.getCrossMeasurePoint();
+        if (measurePoint != null)
+            Imgproc.circle(frame, measurePoint, 2, CROSS_COLOR, 3);
+
+        // Draw Robot Markers
+        Point robotCenter = detections.getRobotCenter(), robotFront = detections.getRobotFront();
+
+        if (robotCenter != null) {
+            Imgproc.circle(frame, robotCenter, 5, ROBOT_MARKER_COLOR, 2);
+            Imgproc.circle(frame, robotFront, 4, ROBOT_MARKER_COLOR, 2);
+            Imgproc.line(frame, robotCenter, robotFront, ROBOT_MARKER_COLOR, 2);
+        }
+
+        // Draw Balls
+        for (Point ballCenter : detections.getBallCenters()) {
+            Imgproc.circle(frame, ballCenter, 4, BALL_COLOR, 1);
+
+            // Draw Lines between robot and balls
+            if (robotCenter != null)
+                Imgproc.line(frame, robotCenter, ballCenter, BALL_COLOR, 1);
+        }
+    }
+}
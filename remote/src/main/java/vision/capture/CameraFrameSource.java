@@ -0,0 +1,75 @@
+package vision.capture;
+
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+/**
+ * Reads frames from a camera attached to the computer.
+ */
+public class CameraFrameSource implements FrameSource {
+    private final VideoCapture capture = new VideoCapture();
+    private long timestamp;
+
+    /**
+     * Opens the camera and sets its properties. OpenCV must be loaded.
+     *
+     * @param cameraIndex The camera index of intended camera (computer specific).
+     * @param width       Resolution width in pixels.
+     * @param height      Resolution height in pixels.
+     */
+    public CameraFrameSource(int cameraIndex, int width, int height) {
+        this.capture.open(cameraIndex);
+
+        setCaptureProperties(width, height);
+
+        if (!this.capture.isOpened()) throw new RuntimeException("Camera Capture was not opened");
+    }
+
+    /**
+     * Sets the properties of the capture.
+     */
+    private void setCaptureProperties(int width, int height) {
+        // Resolution
+        this.capture.set(Videoio.CAP_PROP_FRAME_WIDTH, width);
+        this.capture.set(Videoio.CAP_PROP_FRAME_HEIGHT, height);
+
+        // Focus
+        this.capture.set(Videoio.CAP_PROP_AUTOFOCUS, 0);
+        this.capture.set(Videoio.CAP_PROP_FOCUS, 0);
+
+        // Brightness, Contrast and Saturation
+        this.capture.set(Videoio.CAP_PROP_BRIGHTNESS, 90);
+        this.capture.set(Videoio.CAP_PROP_SATURATION, 180);
+        this.capture.set(Videoio.CAP_PROP_CONTRAST, 80);
+    }
+
+    @Override
+    public boolean read(Mat frame) {
+        if (!this.capture.read(frame) || frame.empty())
+            return false;
+
+        this.timestamp = System.nanoTime();
+        return true;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    @Override
+    public boolean isLive() {
+        return true;
+    }
+
+    @Override
+    public boolean isRealtime() {
+        return true;
+    }
+
+    @Override
+    public void release() {
+        this.capture.release();
+    }
+}
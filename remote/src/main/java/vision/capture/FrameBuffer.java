@@ -0,0 +1,153 @@
+package vision.capture;
+
+import org.opencv.core.Mat;
+
+/**
+ * Hands frames from the capture thread to the detection thread using a fixed pool of reusable Mats.
+ * Only the newest frame is kept. If the detection thread has not taken the previous frame before a new one is
+ * published, the old frame is dropped instead of queued.
+ * <br/><br/>
+ * The pool always holds three frames: one being written by the producer, one published and waiting, and one being
+ * read by the consumer. Publishing and taking only swap indices, so no Mats are allocated after construction.
+ * <br/><br/>
+ * In lossless mode publishing instead waits until the previous frame is taken, so every frame is processed. This is
+ * used when replaying recorded footage as fast as possible.
+ */
+public class FrameBuffer {
+    private static final int POOL_SIZE = 3;
+
+    private final Mat[] pool = new Mat[POOL_SIZE];
+    private final long[] captureTimestamps = new long[POOL_SIZE]; // System.nanoTime() of each frame
+
+    private int writeIndex = 0, latestIndex = 1, readIndex = 2;
+    private boolean hasNewFrame = false;
+    private boolean closed = false;
+    private final boolean lossless;
+
+    // Statistics
+    private long publishedFrames = 0;
+    private long droppedFrames = 0;
+    private long takenFrames = 0;
+    private long lastFrameAge = 0; // Nanoseconds
+    private long totalFrameAge = 0; // Nanoseconds
+
+    public FrameBuffer() {
+        this(false);
+    }
+
+    /**
+     * @param lossless if true, the producer waits for the consumer instead of dropping frames.
+     */
+    public FrameBuffer(boolean lossless) {
+        this.lossless = lossless;
+        for (int i = 0; i < POOL_SIZE; i++)
+            this.pool[i] = new Mat();
+    }
+
+    /**
+     * The Mat the producer should decode the next frame into. Only the producer thread may touch it.
+     *
+     * @return the Mat reserved for writing.
+     */
+    public synchronized Mat getWriteFrame() {
+        return this.pool[this.writeIndex];
+    }
+
+    /**
+     * Publishes the frame in the write Mat as the newest frame. An unread frame is dropped, unless lossless.
+     *
+     * @param captureTimestamp the System.nanoTime() at which the frame was captured.
+     * @throws InterruptedException if interrupted while waiting for the consumer in lossless mode.
+     */
+    public synchronized void publish(long captureTimestamp) throws InterruptedException {
+        while (this.lossless && this.hasNewFrame && !this.closed)
+            wait();
+
+        this.captureTimestamps[this.writeIndex] = captureTimestamp;
+
+        if (this.hasNewFrame)
+            this.droppedFrames++;
+
+        // Swap the written frame with the waiting one
+        int temp = this.latestIndex;
+        this.latestIndex = this.writeIndex;
+        this.writeIndex = temp;
+
+        this.hasNewFrame = true;
+        this.publishedFrames++;
+        notifyAll();
+    }
+
+    /**
+     * Marks the end of the frames. Once the last published frame is taken, takeLatest() returns null.
+     * A producer waiting in lossless mode is released.
+     */
+    public synchronized void close() {
+        this.closed = true;
+        notifyAll();
+    }
+
+    /**
+     * Blocks until a frame newer than the last taken one is available and returns it.
+     * The returned Mat belongs to the consumer until the next call to this method.
+     *
+     * @return the newest published frame, or null if the buffer is closed and all frames are taken.
+     * @throws InterruptedException if interrupted while waiting for a frame.
+     */
+    public synchronized Mat takeLatest() throws InterruptedException {
+        while (!this.hasNewFrame) {
+            if (this.closed)
+                return null;
+            wait();
+        }
+
+        // Swap the frame previously read with the waiting one
+        int temp = this.readIndex;
+        this.readIndex = this.latestIndex;
+        this.latestIndex = temp;
+
+        this.hasNewFrame = false;
+
+        // Measure how long the frame waited before detection got to it
+        this.lastFrameAge = System.nanoTime() - this.captureTimestamps[this.readIndex];
+        this.totalFrameAge += this.lastFrameAge;
+        this.takenFrames++;
+        notifyAll();
+
+        return this.pool[this.readIndex];
+    }
+
+    /**
+     * @return the System.nanoTime() at which the last taken frame was captured.
+     */
+    public synchronized long getReadTimestamp() {
+        return this.captureTimestamps[this.readIndex];
+    }
+
+    public synchronized long getPublishedFrames() {
+        return this.publishedFrames;
+    }
+
+    public synchronized long getDroppedFrames() {
+        return this.droppedFrames;
+    }
+
+    public synchronized long getTakenFrames() {
+        return this.takenFrames;
+    }
+
+    /**
+     * @return the time in milliseconds between capture and hand-off of the last taken frame.
+     */
+    public synchronized double getLastFrameAgeMillis() {
+        return this.lastFrameAge / 1e6;
+    }
+
+    /**
+     * @return the average time in milliseconds between capture and hand-off of all taken frames.
+     */
+    public synchronized double getAverageFrameAgeMillis() {
+        if (this.takenFrames == 0) return 0;
+        return this.totalFrameAge / 1e6 / this.takenFrames;
+    }
+}
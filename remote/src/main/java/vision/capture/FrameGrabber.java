@@ -0,0 +1,108 @@
+package vision.capture;
+
+import org.opencv.core.Mat;
+
+/**
+ * Owns the FrameSource and reads frames on its own thread, so capturing never waits on detection or display.
+ * Frames are decoded into the reusable Mats of a FrameBuffer, which always hands the newest frame to the consumer.
+ * Sources that are not realtime are handed over without dropping frames, so replays are deterministic.
+ */
+public class FrameGrabber {
+    static final long READ_RETRY_DELAY = 10; // Milliseconds to wait after a camera fails to deliver a frame
+    static final int MAX_READ_FAILURES = 200; // Failed reads in a row after which the camera is taken to be gone
+
+    private final FrameSource source;
+    private final FrameBuffer frameBuffer;
+    private volatile boolean running = false;
+
+    /**
+     * @param source an opened frame source. The grabber takes ownership and releases it when stopped.
+     */
+    public FrameGrabber(FrameSource source) {
+        this.source = source;
+        this.frameBuffer = new FrameBuffer(!source.isRealtime());
+    }
+
+    /**
+     * Spawns the capture thread.
+     */
+    public void start() {
+        if (this.running) return;
+        this.running = true;
+
+        Thread thread = new Thread(() -> {
+            try {
+                int failures = 0;
+                while (this.running) {
+                    Mat writeFrame = this.frameBuffer.getWriteFrame();
+                    if (!this.source.read(writeFrame)) {
+                        // A camera may skip a frame, but recorded footage has ended
+                        if (!this.source.isLive()) break;
+
+                        // An unplugged camera fails at once on every read
+                        if (++failures >= MAX_READ_FAILURES) {
+                            System.err.println("Camera failed to deliver " + failures + " frames in a row. Stopping capture");
+                            break;
+                        }
+                        Thread.sleep(READ_RETRY_DELAY);
+                        continue;
+                    }
+
+                    failures = 0;
+                    this.frameBuffer.publish(this.source.getTimestamp());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.running = false;
+            this.frameBuffer.close();
+            this.source.release();
+        }, "FrameGrabber");
+        thread.start();
+    }
+
+    /**
+     * Stops the capture thread and releases the source once the current read is done.
+     * Frames already published can still be grabbed, after which grab() returns null.
+     */
+    public void stop() {
+        this.running = false;
+        this.frameBuffer.close();
+    }
+
+    /**
+     * Blocks until a new frame is captured.
+     *
+     * @return the newest frame. It stays valid until the next call. Null if the source has ended.
+     */
+    public Mat grab() {
+        try {
+            return this.frameBuffer.takeLatest();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the System.nanoTime() at which the last grabbed frame was captured.
+     */
+    public long getCaptureTimestamp() {
+        return this.frameBuffer.getReadTimestamp();
+    }
+
+    public FrameBuffer getFrameBuffer() {
+        return this.frameBuffer;
+    }
+
+    /**
+     * Prints the dropped-frame and frame age counters. Useful to see how far detection falls behind the camera.
+     */
+    public void printStatistics() {
+        System.out.printf("Frames captured: %d, dropped: %d, processed: %d. Frame age: last %.1f ms, average %.1f ms%n",
+                this.frameBuffer.getPublishedFrames(),
+                this.frameBuffer.getDroppedFrames(),
+                this.frameBuffer.getTakenFrames(),
+                this.frameBuffer.getLastFrameAgeMillis(),
+                this.frameBuffer.getAverageFrameAgeMillis());
+    }
+}
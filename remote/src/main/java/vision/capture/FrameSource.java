@@ -0,0 +1,37 @@
+package vision.capture;
+
+import org.opencv.core.Mat;
+
+/**
+ * Produces the frames detection runs on. Either a live camera or recorded footage that is replayed.
+ */
+public interface FrameSource {
+    /**
+     * Reads the next frame. Recorded sources running in realtime block until the frame is due.
+     *
+     * @param frame the Mat to decode the frame into. It is reused between calls.
+     * @return false if no frame could be read. For recorded sources this means the footage has ended.
+     */
+    boolean read(Mat frame);
+
+    /**
+     * @return the System.nanoTime() based time at which the last read frame was captured. Recorded sources place
+     * their frames at the recorded offsets from the first read, so replays give the same time steps every run.
+     */
+    long getTimestamp();
+
+    /**
+     * @return true if the source is a camera, whose frames keep coming whether or not they are read.
+     */
+    boolean isLive();
+
+    /**
+     * @return true if frames arrive at the rate they were captured, false if they are read as fast as possible.
+     */
+    boolean isRealtime();
+
+    /**
+     * Releases the underlying capture or files.
+     */
+    void release();
+}
@@ -0,0 +1,87 @@
+package vision.capture;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Replays still images as frames at a fixed frame rate. The images are decoded once when the source is created,
+ * or given as Mats already in memory.
+ */
+public class ImageSequenceFrameSource extends RecordedFrameSource {
+    private final List<Mat> images;
+    private final long frameInterval; // Nanoseconds
+    private final boolean loop;
+    private long frameIndex = 0;
+
+    /**
+     * Loads the images. OpenCV must be loaded.
+     *
+     * @param path      An image, or a directory of images that are played in name order.
+     * @param frameRate Frames per second the images were captured at.
+     * @param realtime  If true, frames are read at the frame rate. Otherwise as fast as possible.
+     * @param loop      If true, the sequence starts over when it ends. Otherwise the source ends.
+     */
+    public ImageSequenceFrameSource(String path, double frameRate, boolean realtime, boolean loop) {
+        this(loadImages(path), frameRate, realtime, loop);
+    }
+
+    /**
+     * @param images    The frames to play. The source takes ownership of the Mats and releases them.
+     * @param frameRate Frames per second the images were captured at.
+     * @param realtime  If true, frames are read at the frame rate. Otherwise as fast as possible.
+     * @param loop      If true, the sequence starts over when it ends. Otherwise the source ends.
+     */
+    public ImageSequenceFrameSource(List<Mat> images, double frameRate, boolean realtime, boolean loop) {
+        super(realtime);
+        this.images = new ArrayList<>(images);
+        this.frameInterval = (long) (1e9 / frameRate);
+        this.loop = loop;
+
+        if (this.images.isEmpty()) throw new RuntimeException("No images to play");
+    }
+
+    /**
+     * Decodes an image, or all images in a directory in name order.
+     */
+    private static List<Mat> loadImages(String path) {
+        List<Mat> images = new ArrayList<>();
+
+        File file = new File(path);
+        File[] files = file.isDirectory() ? file.listFiles(File::isFile) : new File[]{file};
+        if (files == null) throw new RuntimeException("Could not list images in " + path);
+        Arrays.sort(files);
+
+        for (File imageFile : files) {
+            Mat image = Imgcodecs.imread(imageFile.getPath());
+            if (image.empty()) {
+                System.out.println("Skipping unreadable image " + imageFile);
+                continue;
+            }
+            images.add(image);
+        }
+
+        if (images.isEmpty()) throw new RuntimeException("No images found at " + path);
+        return images;
+    }
+
+    @Override
+    protected long readRecorded(Mat frame) {
+        if (!this.loop && this.frameIndex >= this.images.size())
+            return -1;
+
+        this.images.get((int) (this.frameIndex % this.images.size())).copyTo(frame);
+        return this.frameIndex++ * this.frameInterval;
+    }
+
+    @Override
+    public void release() {
+        for (Mat image : this.images)
+            image.release();
+        this.images.clear();
+    }
+}
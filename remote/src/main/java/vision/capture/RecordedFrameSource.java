@@ -0,0 +1,67 @@
+package vision.capture;
+
+import org.opencv.core.Mat;
+
+/**
+ * Base for sources replaying recorded footage. Frames are placed on a timeline starting at the first read, at the
+ * offsets they were recorded with. In realtime mode reading blocks until a frame is due, otherwise frames are read as
+ * fast as possible while keeping their recorded time steps.
+ */
+public abstract class RecordedFrameSource implements FrameSource {
+    private final boolean realtime;
+    private long startTime = -1; // System.nanoTime() of the first read
+    private long timestamp;
+
+    protected RecordedFrameSource(boolean realtime) {
+        this.realtime = realtime;
+    }
+
+    /**
+     * Reads the next recorded frame.
+     *
+     * @param frame the Mat to decode the frame into.
+     * @return the offset of the frame from the start of the recording in nanoseconds, or -1 if there are no more frames.
+     */
+    protected abstract long readRecorded(Mat frame);
+
+    @Override
+    public boolean read(Mat frame) {
+        long offset = readRecorded(frame);
+        if (offset < 0)
+            return false;
+
+        if (this.startTime < 0)
+            this.startTime = System.nanoTime() - offset;
+        this.timestamp = this.startTime + offset;
+
+        // Wait until the frame would have been captured
+        if (this.realtime) {
+            long wait = this.timestamp - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    @Override
+    public boolean isLive() {
+        return false;
+    }
+
+    @Override
+    public boolean isRealtime() {
+        return this.realtime;
+    }
+}
@@ -0,0 +1,39 @@
+package vision.capture;
+
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+/**
+ * Replays a recorded video file, using the timestamps stored in the file.
+ */
+public class VideoFileFrameSource extends RecordedFrameSource {
+    private final VideoCapture capture;
+
+    /**
+     * Opens the video file. OpenCV must be loaded.
+     *
+     * @param path     Path to the video file.
+     * @param realtime If true, frames are read at the rate they were recorded. Otherwise as fast as possible.
+     */
+    public VideoFileFrameSource(String path, boolean realtime) {
+        super(realtime);
+        this.capture = new VideoCapture(path);
+
+        if (!this.capture.isOpened()) throw new RuntimeException("Could not open video file " + path);
+    }
+
+    @Override
+    protected long readRecorded(Mat frame) {
+        if (!this.capture.read(frame) || frame.empty())
+            return -1;
+
+        // Position of the frame just read
+        return (long) (this.capture.get(Videoio.CAP_PROP_POS_MSEC) * 1_000_000);
+    }
+
+    @Override
+    public void release() {
+        this.capture.release();
+    }
+}
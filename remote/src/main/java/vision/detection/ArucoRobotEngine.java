@@ -0,0 +1,144 @@
+package vision.detection;
+
+import nu.pattern.OpenCV;
+import org.opencv.core.*;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.ArucoDetector;
+import org.opencv.objdetect.DetectorParameters;
+import org.opencv.objdetect.Dictionary;
+import org.opencv.objdetect.Objdetect;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the robot from a square ArUco marker printed on top of it, with OpenCV's marker detector.
+ * <br/><br/>
+ * The marker replaces the big blue marker. It is centered where the big marker was, with its top edge facing the
+ * front of the robot. The four corners of the marker give the center and heading in one pass, refined to sub-pixel
+ * accuracy, and the id tells the marker apart from any other square on the course.
+ * The marker is from the 4x4 dictionary, as its large cells are read from the furthest away.
+ * <br/><br/>
+ * Run it to write the marker to print: ArucoRobotEngine &lt;marker id&gt; &lt;output file&gt;
+ */
+public class ArucoRobotEngine {
+    public static final int DICTIONARY = Objdetect.DICT_4X4_50;
+    private static final Size BLUR = new Size(3, 3); // Camera noise otherwise gives a candidate contour for each speck
+    // The Java bindings of OpenCV 4.7 cannot set the corner refinement of the detector, so it is done here
+    private static final Size CORNER_WINDOW = new Size(5, 5);
+    private static final TermCriteria CORNER_CRITERIA = new TermCriteria(TermCriteria.EPS + TermCriteria.COUNT, 30, 0.01);
+    // Pixels. A 4x4 marker and its border are 6 cells a side, and a cell needs 3 pixels to be read
+    private static final int MIN_MARKER_PERIMETER = 4 * 6 * 3;
+
+    private final ArucoDetector detector;
+    private final DetectorParameters parameters = new DetectorParameters();
+    private int parametersRegionSize; // Largest side of the region the parameters were set for
+    private final int markerId;
+    private final double markerDistanceInSides; // Distance from the center to the front marker, in marker sides
+
+    private final Mat gray = new Mat(), ids = new Mat();
+    private final List<Mat> corners = new ArrayList<>();
+    private final MatOfPoint2f markerCorners = new MatOfPoint2f();
+    private final float[] cornerBuffer = new float[8];
+
+    private final DetectionConfiguration config = DetectionConfiguration.DetectionConfiguration();
+
+    public ArucoRobotEngine() {
+        Dictionary dictionary = Objdetect.getPredefinedDictionary(DICTIONARY);
+        this.detector = new ArucoDetector(dictionary, this.parameters);
+        this.markerId = config.getRobotMarkerId();
+        this.markerDistanceInSides = config.getRobotLength() / config.getRobotMarkerSize();
+    }
+
+    /**
+     * Finds the robot marker in a region of the frame.
+     *
+     * @param frame  The frame
+     * @param region Region of the frame to search, e.g. around where the robot was last found
+     * @return the center of the robot and a point a robot length in front of it, as from the blue markers. Null if
+     * the marker is not found
+     */
+    public Point[] findRobot(Mat frame, Rect region) {
+        Mat part = frame.submat(region);
+        Imgproc.cvtColor(part, this.gray, Imgproc.COLOR_BGR2GRAY);
+        part.release();
+        Imgproc.GaussianBlur(this.gray, this.gray, BLUR, 0);
+
+        // The detector sizes candidates relative to the image, and it is only given the region
+        int regionSize = Math.max(region.width, region.height);
+        if (regionSize != this.parametersRegionSize) {
+            this.parameters.set_minMarkerPerimeterRate(Math.min(1, (double) MIN_MARKER_PERIMETER / regionSize));
+            this.detector.setDetectorParameters(this.parameters);
+            this.parametersRegionSize = regionSize;
+        }
+
+        for (Mat corner : this.corners)
+            corner.release();
+        this.corners.clear();
+        this.detector.detectMarkers(this.gray, this.corners, this.ids);
+
+        for (int i = 0; i < this.corners.size(); i++) {
+            if ((int) this.ids.get(i, 0)[0] != this.markerId) continue;
+
+            // Corners as found are on the pixels of the marker's outline
+            this.corners.get(i).reshape(2, 4).copyTo(this.markerCorners);
+            Imgproc.cornerSubPix(this.gray, this.markerCorners, CORNER_WINDOW, new Size(-1, -1), CORNER_CRITERIA);
+
+            this.markerCorners.get(0, 0, this.cornerBuffer);
+            return getPose(this.cornerBuffer, region.x, region.y, this.markerDistanceInSides);
+        }
+
+        return null;
+    }
+
+    /**
+     * Calculates the pose of the robot from the corners of its marker.
+     *
+     * @param corners               x and y of the corners, clockwise from the top left corner of the marker
+     * @param offsetX               Position of the corners in the frame
+     * @param offsetY               Position of the corners in the frame
+     * @param markerDistanceInSides Distance from the center to the front point, in marker sides
+     * @return the center, where the diagonals cross, and the front point
+     */
+    static Point[] getPose(float[] corners, double offsetX, double offsetY, double markerDistanceInSides) {
+        double x0 = corners[0], y0 = corners[1], x1 = corners[2], y1 = corners[3];
+        double x2 = corners[4], y2 = corners[5], x3 = corners[6], y3 = corners[7];
+
+        // The diagonals cross at the center, also when the marker is seen at an angle
+        double dx02 = x2 - x0, dy02 = y2 - y0, dx13 = x3 - x1, dy13 = y3 - y1;
+        double denominator = dx02 * dy13 - dy02 * dx13;
+        double t = denominator != 0 ? ((x1 - x0) * dy13 - (y1 - y0) * dx13) / denominator : 0.5;
+        double centerX = x0 + t * dx02, centerY = y0 + t * dy02;
+
+        // From the middle of the bottom edge to the middle of the top edge
+        double headingX = (x0 + x1 - x2 - x3) / 2, headingY = (y0 + y1 - y2 - y3) / 2;
+        double side = (Math.hypot(x1 - x0, y1 - y0) + Math.hypot(x2 - x1, y2 - y1)
+                + Math.hypot(x3 - x2, y3 - y2) + Math.hypot(x0 - x3, y0 - y3)) / 4;
+        double scale = side * markerDistanceInSides / Math.hypot(headingX, headingY);
+
+        return new Point[]{
+                new Point(centerX + offsetX, centerY + offsetY),
+                new Point(centerX + headingX * scale + offsetX, centerY + headingY * scale + offsetY)
+        };
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: ArucoRobotEngine <marker id> <output file>");
+            System.exit(1);
+        }
+        OpenCV.loadLocally();
+
+        // 100 pixels per cell, and a white margin of a cell that the black border is found against
+        Mat marker = new Mat(), image = new Mat(800, 800, CvType.CV_8UC1, new Scalar(255));
+        Objdetect.generateImageMarker(Objdetect.getPredefinedDictionary(DICTIONARY), Integer.parseInt(args[0]), 600, marker);
+        marker.copyTo(image.submat(100, 700, 100, 700));
+
+        if (!Imgcodecs.imwrite(args[1], image)) {
+            System.err.println("Could not write " + args[1]);
+            System.exit(1);
+        }
+        System.out.println("Wrote marker " + args[0] + " to " + args[1] + ". Print it so the black square has a side of robotMarkerSize cm");
+    }
+}
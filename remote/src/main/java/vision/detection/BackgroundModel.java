@@ -0,0 +1,368 @@
+package vision.detection;
+
+import org.opencv.core.*;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The empty course as the camera sees it: the walls, the cross, the floor and whatever lies around the course. Balls
+ * and the robot are then only searched for where a frame differs from it, the foreground.
+ * <br/><br/>
+ * The background is the running average of the frames it learns from. The first setupFrames are averaged evenly, and
+ * each later frame is blended in at the learning rate, so the model follows slow changes in the light. Blobs of ball or
+ * robot colour up to the size of a ball or robot marker are never learned, so a ball lying still does not become
+ * background. Larger blobs of those colours are part of the course, e.g. a light floor. Pixels that have never been
+ * learned are always foreground.
+ * <br/><br/>
+ * Learning writes to its own Mats. Frames read a Snapshot, which is replaced after learning and never changed while it
+ * is held, so the model can learn from one frame while others are being detected. A replaced snapshot that is no
+ * longer held has its Mats written by a later learning, instead of new ones being allocated.
+ */
+public class BackgroundModel {
+    private static final int GROWTH_RADIUS = 5; // Takes in the blurred edge of the ball masks
+    private static final int RETIRED_SNAPSHOTS = 4; // Kept for reuse. Those never given back are left to the GC
+
+    private final int setupFrames; // Frames averaged before the model is ready
+    private final double learningRate; // Weight of each frame learned after setup
+    private final int threshold; // Difference from the background at which a pixel is foreground
+    private final double maxObjectArea; // Largest blob of ball or robot colour that is not learned
+
+    private Mat accumulator; // CV_32FC3 running average. Null until the first frame is learned
+    private Mat learned; // White where at least one frame has been learned
+    private Mat learnable; // Scratch, white where the frame being learned shows no ball or robot marker
+    private Mat blobLabels, blobStats, blobCentroids, blobPixels; // Scratch, for finding the objects
+    private final Rect blobBox = new Rect();
+    private final Scalar blobLabel = new Scalar(0); // Label of the blob being left out
+    private Mat firstLearned, frameFloat; // Scratch, for blending in the frame
+    private int[] blobStatsBuffer = new int[0];
+    private int learnedFrames = 0;
+
+    private volatile Snapshot snapshot; // Null until setupFrames are learned
+    private final List<Snapshot> retired = new ArrayList<>(); // Replaced snapshots, oldest first
+
+    public BackgroundModel() {
+        this(DetectionConfiguration.DetectionConfiguration().getBackgroundSetupFrames(),
+                DetectionConfiguration.DetectionConfiguration().getBackgroundLearningRate(),
+                DetectionConfiguration.DetectionConfiguration().getBackgroundThreshold(),
+                Math.max(Math.PI * DetectionConfiguration.DetectionConfiguration().getUpperBallSize()
+                                * DetectionConfiguration.DetectionConfiguration().getUpperBallSize(),
+                        DetectionConfiguration.DetectionConfiguration().getUpperRobotSize()));
+    }
+
+    /**
+     * @param setupFrames   Frames averaged before the model is ready.
+     * @param learningRate  Weight of each frame learned after setup, from 0 to 1.
+     * @param threshold     Difference in any colour channel from the background above which a pixel is foreground.
+     * @param maxObjectArea Pixels of the largest blob of ball or robot colour that is an object, and not learned.
+     */
+    public BackgroundModel(int setupFrames, double learningRate, int threshold, double maxObjectArea) {
+        this.setupFrames = Math.max(1, setupFrames);
+        this.learningRate = learningRate;
+        this.threshold = threshold;
+        this.maxObjectArea = maxObjectArea;
+    }
+
+    /**
+     * Learns the background from a frame. A frame of another size than the model starts learning over.
+     *
+     * @param frame   BGR frame. It is not modified.
+     * @param colours Mask of the pixels of ball or robot colour. The blobs of it small enough to be objects are not
+     *                learned.
+     */
+    public synchronized void learn(Mat frame, Mat colours) {
+        if (this.accumulator == null || this.accumulator.width() != frame.width() || this.accumulator.height() != frame.height()) {
+            this.accumulator = Mat.zeros(frame.size(), CvType.CV_32FC3);
+            this.learned = Mat.zeros(frame.size(), CvType.CV_8UC1);
+            this.learnedFrames = 0;
+            retire();
+            this.snapshot = null;
+        }
+
+        findLearnable(colours);
+
+        // Pixels learned for the first time take the frame as it is, instead of fading in from black
+        Core.bitwise_not(this.learned, this.firstLearned);
+        Core.bitwise_and(this.firstLearned, this.learnable, this.firstLearned);
+        frame.convertTo(this.frameFloat, CvType.CV_32FC3);
+        this.frameFloat.copyTo(this.accumulator, this.firstLearned);
+        Core.bitwise_or(this.learned, this.learnable, this.learned);
+
+        // Evenly averaged during setup, then blended in at the learning rate
+        this.learnedFrames++;
+        double rate = this.learnedFrames <= this.setupFrames ? 1.0 / this.learnedFrames : this.learningRate;
+        Imgproc.accumulateWeighted(this.frameFloat, this.accumulator, rate, this.learnable);
+
+        if (this.learnedFrames >= this.setupFrames)
+            publish();
+    }
+
+    /**
+     * Replaces the snapshot with the accumulator, written to a retired snapshot that is no longer held if there is one.
+     */
+    private void publish() {
+        Snapshot snapshot = null;
+        for (Iterator<Snapshot> iterator = this.retired.iterator(); iterator.hasNext(); ) {
+            Snapshot retired = iterator.next();
+            if (retired.holders == 0) {
+                iterator.remove();
+                snapshot = retired;
+                break;
+            }
+        }
+        if (snapshot == null)
+            snapshot = new Snapshot(this, this.threshold);
+
+        snapshot.update(this.accumulator, this.learned);
+        retire();
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Keeps the current snapshot for reuse once it is no longer held.
+     */
+    private void retire() {
+        if (this.snapshot == null)
+            return;
+
+        this.retired.add(this.snapshot);
+        if (this.retired.size() > RETIRED_SNAPSHOTS)
+            this.retired.remove(0);
+    }
+
+    /**
+     * Marks the pixels of the frame that may be learned: all but the blobs of ball or robot colour the size of an
+     * object.
+     */
+    private void findLearnable(Mat colours) {
+        if (this.blobLabels == null) {
+            this.learnable = new Mat();
+            this.blobLabels = new Mat();
+            this.blobStats = new Mat();
+            this.blobCentroids = new Mat();
+            this.blobPixels = new Mat();
+            this.firstLearned = new Mat();
+            this.frameFloat = new Mat();
+        }
+
+        this.learnable.create(colours.size(), CvType.CV_8UC1);
+        this.learnable.setTo(Scalar.all(255));
+
+        int count = Imgproc.connectedComponentsWithStats(colours, this.blobLabels, this.blobStats, this.blobCentroids, 8, CvType.CV_32S);
+        int columns = this.blobStats.cols();
+        if (this.blobStatsBuffer.length < count * columns)
+            this.blobStatsBuffer = new int[count * columns];
+        this.blobStats.get(0, 0, this.blobStatsBuffer);
+
+        // Label 0 is everything else
+        Rect box = this.blobBox;
+        for (int i = 1; i < count; i++) {
+            int offset = i * columns;
+            if (this.blobStatsBuffer[offset + Imgproc.CC_STAT_AREA] > this.maxObjectArea)
+                continue;
+
+            box.x = this.blobStatsBuffer[offset + Imgproc.CC_STAT_LEFT];
+            box.y = this.blobStatsBuffer[offset + Imgproc.CC_STAT_TOP];
+            box.width = this.blobStatsBuffer[offset + Imgproc.CC_STAT_WIDTH];
+            box.height = this.blobStatsBuffer[offset + Imgproc.CC_STAT_HEIGHT];
+
+            // Only the pixels of this blob, as the box can overlap others
+            Mat labels = this.blobLabels.submat(box), learnable = this.learnable.submat(box);
+            this.blobLabel.val[0] = i;
+            Core.compare(labels, this.blobLabel, this.blobPixels, Core.CMP_EQ);
+            learnable.setTo(Scalar.all(0), this.blobPixels);
+            labels.release();
+            learnable.release();
+        }
+    }
+
+    /**
+     * @return true once the model has learned enough frames to tell foreground from background.
+     */
+    public boolean isReady() {
+        return this.snapshot != null;
+    }
+
+    /**
+     * Gets the current background, and holds it until it is given back with Snapshot.release(). A held snapshot is
+     * never changed.
+     *
+     * @param width  Columns of the frame.
+     * @param height Rows of the frame.
+     * @return the current background, or null if it is not ready or was learned from frames of another size.
+     */
+    public synchronized Snapshot getSnapshot(int width, int height) {
+        Snapshot snapshot = this.snapshot;
+        if (snapshot == null || snapshot.background.width() != width || snapshot.background.height() != height)
+            return null;
+
+        snapshot.holders++;
+        return snapshot;
+    }
+
+    /**
+     * Saves the background to an image file, with the pixels never learned transparent.
+     *
+     * @param path Path of the file. The format follows the extension and must keep an alpha channel, e.g. .png.
+     * @throws IOException if the model is not ready or the file could not be written.
+     */
+    public void save(String path) throws IOException {
+        Snapshot snapshot = this.snapshot;
+        if (snapshot == null)
+            throw new IOException("The background has not been learned yet");
+
+        Mat learned = new Mat();
+        Core.bitwise_not(snapshot.unlearned, learned);
+        List<Mat> channels = new ArrayList<>();
+        Core.split(snapshot.background, channels);
+        channels.add(learned);
+        Mat image = new Mat();
+        Core.merge(channels, image);
+
+        boolean written = Imgcodecs.imwrite(path, image);
+        image.release();
+        learned.release();
+        for (Mat channel : channels)
+            channel.release();
+
+        if (!written)
+            throw new IOException("Could not write the background to " + path);
+    }
+
+    /**
+     * Loads a background saved by save(). The model is ready at once, and is blended with the frames it learns from.
+     *
+     * @param path Path of the file.
+     * @throws IOException if the file does not exist or is not a saved background.
+     */
+    public synchronized void load(String path) throws IOException {
+        if (!new File(path).isFile())
+            throw new IOException("No background saved at " + path);
+
+        Mat image = Imgcodecs.imread(path, Imgcodecs.IMREAD_UNCHANGED);
+        if (image.empty() || image.channels() != 4)
+            throw new IOException("Not a saved background: " + path);
+
+        List<Mat> channels = new ArrayList<>();
+        Core.split(image, channels);
+        image.release();
+
+        this.learned = channels.remove(3);
+        Imgproc.threshold(this.learned, this.learned, 127, 255, Imgproc.THRESH_BINARY);
+        Mat background = new Mat();
+        Core.merge(channels, background);
+        for (Mat channel : channels)
+            channel.release();
+
+        this.accumulator = new Mat();
+        background.convertTo(this.accumulator, CvType.CV_32FC3);
+        background.release();
+        this.learnedFrames = this.setupFrames;
+        publish();
+    }
+
+    /**
+     * The background at one point in time. Never changed while it is held, so any number of frames can read it.
+     */
+    public static class Snapshot {
+        private final BackgroundModel model; // Guards the holders
+        private final Mat background = new Mat(); // BGR
+        private final Mat unlearned = new Mat(); // White where no frame has been learned
+        private final int threshold;
+        private int holders = 0; // Frames reading it
+
+        // Scratch of each thread computing a foreground
+        private final ThreadLocal<Mat[]> scratch = ThreadLocal.withInitial(() -> new Mat[]{new Mat(), new Mat(), new Mat()});
+        private static Mat kernel;
+
+        private Snapshot(BackgroundModel model, int threshold) {
+            this.model = model;
+            this.threshold = threshold;
+        }
+
+        /**
+         * Writes the background to the Mats, which are only reallocated if the frame size changed.
+         */
+        private void update(Mat accumulator, Mat learned) {
+            accumulator.convertTo(this.background, CvType.CV_8UC3);
+            Core.bitwise_not(learned, this.unlearned);
+        }
+
+        /**
+         * Gives back a snapshot held by BackgroundModel.getSnapshot(). It must not be read afterwards, as a later
+         * learning may write to it.
+         */
+        public void release() {
+            synchronized (this.model) {
+                this.holders--;
+            }
+        }
+
+        /**
+         * Computes where a frame, or a region of it, differs from the background. The foreground is grown by a few
+         * pixels, so it covers the blurred colour masks of the objects it contains. A region is computed from the
+         * pixels around it as well, so it is the same as when cut from the whole mask.
+         *
+         * @param frame  BGR frame of the size of the background.
+         * @param bounds The part of the frame that can be foreground, e.g. the course. The mask is black outside it.
+         * @param region The region of the frame to compute, or null for the whole frame.
+         * @param dst    Receives the mask of the region, white in the foreground.
+         */
+        public void foreground(Mat frame, Rect bounds, Rect region, Mat dst) {
+            Rect area = region != null ? region : new Rect(0, 0, frame.width(), frame.height());
+            Rect inside = intersect(area, bounds, 0);
+            Rect computed = intersect(inside, bounds, GROWTH_RADIUS); // The pixels the growth reaches the region from
+
+            dst.create(area.height, area.width, CvType.CV_8UC1);
+            if (!inside.equals(area))
+                dst.setTo(Scalar.all(0));
+            if (inside.width <= 0 || inside.height <= 0)
+                return;
+
+            Mat[] scratch = this.scratch.get();
+            Mat frameComputed = frame.submat(computed), background = this.background.submat(computed);
+            Mat unlearned = this.unlearned.submat(computed);
+
+            // A change in one channel is enough, e.g. a blue marker on a floor of the same brightness
+            Core.absdiff(frameComputed, background, scratch[0]);
+            Core.inRange(scratch[0], Scalar.all(0), Scalar.all(this.threshold), scratch[1]);
+            Core.bitwise_not(scratch[1], scratch[1]);
+            Core.bitwise_or(scratch[1], unlearned, scratch[1]);
+            Imgproc.dilate(scratch[1], scratch[2], kernel());
+
+            Mat grown = scratch[2].submat(inside.y - computed.y, inside.y - computed.y + inside.height,
+                    inside.x - computed.x, inside.x - computed.x + inside.width);
+            Mat dstInside = dst.submat(inside.y - area.y, inside.y - area.y + inside.height,
+                    inside.x - area.x, inside.x - area.x + inside.width);
+            grown.copyTo(dstInside);
+
+            frameComputed.release();
+            background.release();
+            unlearned.release();
+            grown.release();
+            dstInside.release();
+        }
+
+        /**
+         * @return the rectangle widened by a margin on every side, and cut to the bounds.
+         */
+        private static Rect intersect(Rect rect, Rect bounds, int margin) {
+            int left = Math.max(bounds.x, rect.x - margin), top = Math.max(bounds.y, rect.y - margin);
+            int right = Math.min(bounds.x + bounds.width, rect.x + rect.width + margin);
+            int bottom = Math.min(bounds.y + bounds.height, rect.y + rect.height + margin);
+            return new Rect(left, top, Math.max(0, right - left), Math.max(0, bottom - top));
+        }
+
+        private static synchronized Mat kernel() {
+            if (kernel == null)
+                kernel = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, // Separable, so fast
+                        new Size(GROWTH_RADIUS * 2 + 1, GROWTH_RADIUS * 2 + 1));
+            return kernel;
+        }
+    }
+}
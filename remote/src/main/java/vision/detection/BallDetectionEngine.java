@@ -0,0 +1,42 @@
+package vision.detection;
+
+import courseObjects.BallColor;
+import org.opencv.core.Rect;
+
+/**
+ * Finds the balls of one color on a frame. BallDetector uses the engine chosen by the ballEngine setting.
+ */
+public interface BallDetectionEngine {
+    /**
+     * Receives the center of each ball found, in frame pixels.
+     */
+    interface BallCenters {
+        void add(double x, double y);
+    }
+
+    /**
+     * @param color Color of the balls
+     * @return the mask the engine searches for balls of the color. Published for debugging.
+     */
+    FrameVariant getMask(BallColor color);
+
+    /**
+     * Finds the balls of one color on the current frame of the preprocessor.
+     *
+     * @param preprocessor Holds the frame and its masks
+     * @param color        Color of the balls to find
+     * @param centers      Receives the center of each ball
+     */
+    void findBalls(FramePreprocessor preprocessor, BallColor color, BallCenters centers);
+
+    /**
+     * Finds the balls of one color in a region of the current frame. Only the region of the mask is computed, and it
+     * is searched at full resolution.
+     *
+     * @param preprocessor Holds the frame and its masks
+     * @param color        Color of the balls to find
+     * @param region       Region of the frame to search
+     * @param centers      Receives the center of each ball, in frame pixels
+     */
+    void findBalls(FramePreprocessor preprocessor, BallColor color, Rect region, BallCenters centers);
+}
@@ -2,118 +2,453 @@ package vision.detection;
 
 import courseObjects.Ball;
 import courseObjects.BallColor;
-import org.opencv.core.*;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
 import org.opencv.core.Point;
+import org.opencv.core.Rect;
 import org.opencv.imgproc.Imgproc;
 import vision.BallPickupStrategy;
-import vision.helperClasses.MaskSet;
+import vision.helperClasses.MaskPublisher;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+/**
+ * Finds the white and orange balls on the frame, using the BallDetectionEngine chosen by the ballEngine setting.
+ * <br/><br/>
+ * All buffers are kept between frames, so once the detector has seen its largest number of balls no more Mats,
+ * arrays or Ball objects are allocated. The list returned by getBalls() and the balls in it are therefore reused,
+ * and only valid until the next detection.
+ * <br/><br/>
+ * With ballIncremental only the tiles that changed since the last frame are searched, see TileChangeDetector. The balls
+ * in unchanged tiles are kept from the last frame. The whole frame is searched every ballRefreshInterval frames, and
+ * whenever so much has changed that one search of the frame is cheaper.
+ * <br/><br/>
+ * With tiledDetection the whole frame is searched in horizontal strips in parallel, see FrameStrips. Like the tiles,
+ * the strips are searched at full resolution.
+ * <br/><br/>
+ * Once the BackgroundModel has learned the course, the whole frame is not searched at all. Only the blobs of foreground,
+ * where the frame differs from the empty course, are searched for balls.
+ */
 public class BallDetector implements SubDetector {
-    private List<Ball> balls = new ArrayList<>();
-    List<MaskSet> maskSets = new ArrayList<>();
+    private static final double MAX_CHANGED_FRACTION = 0.5; // Changed tiles above which the whole frame is searched
+
+    private final List<Ball> balls = new ArrayList<>();
+    private final List<Ball> ballPool = new ArrayList<>(); // Every Ball ever handed out, reused by later frames
+    private final MaskPublisher maskPublisher = new MaskPublisher();
 
     private final DetectionConfiguration config = DetectionConfiguration.DetectionConfiguration();
+    private final BallDetectionEngine engine;
+    private final TileChangeDetector tileChanges;
+    private int framesSinceRefresh = 0;
+    private boolean fullScanRequested; // Cleared by the next detection
+
+    // Created once, so reporting a ball allocates nothing
+    private final BallDetectionEngine.BallCenters whiteCenters = (x, y) -> addBall(x, y, BallColor.WHITE);
+    private final BallDetectionEngine.BallCenters orangeCenters = (x, y) -> addBall(x, y, BallColor.ORANGE);
+
+    // Searched regions overlap, so a ball is only added by the region of the tiles its center is in
+    private final BallDetectionEngine.BallCenters whiteTileCenters = (x, y) -> {
+        if (isInTiles(x, y)) addBall(x, y, BallColor.WHITE);
+    };
+    private final BallDetectionEngine.BallCenters orangeTileCenters = (x, y) -> {
+        if (isInTiles(x, y)) addBall(x, y, BallColor.ORANGE);
+    };
+    private final Rect tiles = new Rect(); // The changed tiles being searched
+    private final Rect region = new Rect(); // The tiles with a margin
+
+    private final FrameStrips frameStrips; // Null when the whole frame is searched in one piece
+    private final List<BallStrip> ballStrips = new ArrayList<>();
+
+    // Foreground blobs. Searched regions are merged where they overlap, but a ball can still touch two of them
+    private final BallDetectionEngine.BallCenters whiteBlobCenters = (x, y) -> {
+        if (!isFound(x, y, BallColor.WHITE, balls.size())) addBall(x, y, BallColor.WHITE);
+    };
+    private final BallDetectionEngine.BallCenters orangeBlobCenters = (x, y) -> {
+        if (!isFound(x, y, BallColor.ORANGE, balls.size())) addBall(x, y, BallColor.ORANGE);
+    };
+    private Mat blobLabels, blobStats, blobCentroids;
+    private int[] blobStatsBuffer = new int[0];
+    private final List<Rect> blobRegions = new ArrayList<>(); // Reused between frames, the first blobCount are in use
+    private int blobCount;
+
+    public BallDetector() {
+        this.engine = createEngine();
+        this.tileChanges = new TileChangeDetector(config.getBallTileSize(), config.getBallChangeThreshold());
+        this.frameStrips = config.isTiledDetection() ? new FrameStrips(config.getTileStrips()) : null;
+    }
 
-    Mat maskWhite, maskOrange;
-    boolean init = true;
+    private BallDetectionEngine createEngine() {
+        return switch (config.getBallEngine()) {
+            case "hough" -> new HoughBallEngine();
+            case "components" -> new ComponentsBallEngine();
+            default -> throw new IllegalArgumentException("Unknown ballEngine: " + config.getBallEngine());
+        };
+    }
 
     /**
      * Detects the balls on the frame
      *
-     * @param frame The frame to evaluated
+     * @param preprocessor Holds the frame to evaluated and its blurred masks
      */
-    public void detectBalls(Mat frame) {
-        if (this.init) {
-            this.maskWhite = new Mat();
-            this.maskOrange = new Mat();
-            this.init = false;
+    public void detectBalls(FramePreprocessor preprocessor) {
+        boolean fullScan = this.fullScanRequested;
+        this.fullScanRequested = false;
+
+        if (config.isBallIncremental()) {
+            // A requested full scan also takes the whole frame as the new reference of the tiles
+            boolean refresh = ++framesSinceRefresh >= config.getBallRefreshInterval() || fullScan;
+            int changed = tileChanges.update(preprocessor.getFrame(), refresh);
+
+            // Searching many regions costs more than one search of the frame
+            if (changed < tileChanges.getTileCount() * MAX_CHANGED_FRACTION) {
+                detectBallsInChangedTiles(preprocessor);
+                return;
+            }
         }
+        framesSinceRefresh = 0;
 
-        // Initialize all OpenCV objects once to not have memory leaks
-        Mat frameBlur = new Mat();
+        balls.clear();
 
-        balls = new ArrayList<>();
+        if (preprocessor.isForegroundMasked() && detectBallsInForeground(preprocessor))
+            return;
 
-        // Apply blur for better noise reduction
-        Imgproc.GaussianBlur(frame, frameBlur, new Size(11, 11), 0);
+        if (frameStrips != null) {
+            detectBallsInStrips(preprocessor);
+            return;
+        }
 
-        findWhiteBalls(frameBlur, balls);
-        findOrangeBalls(frameBlur, balls);
+        engine.findBalls(preprocessor, BallColor.WHITE, whiteCenters);
+        maskPublisher.publish("White Ball Mask", preprocessor.get(engine.getMask(BallColor.WHITE)));
 
-        frameBlur.release();
+        engine.findBalls(preprocessor, BallColor.ORANGE, orangeCenters);
+        maskPublisher.publish("Orange Ball Mask", preprocessor.get(engine.getMask(BallColor.ORANGE)));
     }
 
     /**
-     * Updates the balls argument with the white balls found on the frame.
+     * Keeps the balls of the last frame in unchanged tiles, and searches the changed tiles for balls.
+     * Each horizontal run of changed tiles is searched as one region, with a margin that fits the balls centered in it.
      *
-     * @param balls List that gets updated with newly added balls
+     * @param preprocessor Holds the frame to evaluated and its blurred masks
      */
-    private void findWhiteBalls(Mat frameBlur, List<Ball> balls) {
-        Mat maskWhite = new Mat();
-        Mat ballsMatW = new Mat();
+    private void detectBallsInChangedTiles(FramePreprocessor preprocessor) {
+        // The balls list is the start of the pool, so the kept balls can be moved down in place
+        int kept = 0;
+        for (Ball ball : balls) {
+            if (tileChanges.isChangedAt(ball.getCenter().x, ball.getCenter().y))
+                continue;
 
-        // Create mask
-        Core.inRange(frameBlur, config.getLowerWhiteBallThreshold(), config.getUpperWhiteBallThreshold(), maskWhite);
+            Ball keep = ballPool.get(kept++);
+            keep.getCenter().x = ball.getCenter().x;
+            keep.getCenter().y = ball.getCenter().y;
+            keep.setColor(ball.getColor());
+            keep.setStrategy(BallPickupStrategy.FREE);
+        }
+        while (balls.size() > kept)
+            balls.remove(balls.size() - 1);
+
+        Rect bounds = preprocessor.getSearchBounds(FrameVariant.WHITE_BALL_MASK); // Tiles outside the course are skipped
+        int tileSize = tileChanges.getTileSize();
+        int margin = config.getUpperBallSize() + 2;
+
+        for (int row = 0; row < tileChanges.getRows(); row++) {
+            int column = 0;
+            while (column < tileChanges.getColumns()) {
+                if (!tileChanges.isChanged(column, row)) {
+                    column++;
+                    continue;
+                }
 
-        maskSets.add(new MaskSet("White Ball Mask", maskWhite));
+                int first = column;
+                while (column < tileChanges.getColumns() && tileChanges.isChanged(column, row))
+                    column++;
 
-        //Get white balls from frame
-        Imgproc.HoughCircles(maskWhite, ballsMatW, Imgproc.HOUGH_GRADIENT,
-                config.getBallDp(), config.getBallMinDist(), config.getBallParam1(), config.getBallParam2(),
-                config.getLowerBallSize(), config.getUpperBallSize());
+                tiles.x = first * tileSize;
+                tiles.y = row * tileSize;
+                tiles.width = (column - first) * tileSize;
+                tiles.height = tileSize;
 
-        // Add balls to array
-        if (!ballsMatW.empty()) {
-            for (int i = 0; i < ballsMatW.width(); i++) {
-                double[] center = ballsMatW.get(0, i);
+                int left = Math.max(bounds.x, tiles.x - margin), top = Math.max(bounds.y, tiles.y - margin);
+                int right = Math.min(bounds.x + bounds.width, tiles.x + tiles.width + margin);
+                int bottom = Math.min(bounds.y + bounds.height, tiles.y + tiles.height + margin);
+                if (right <= left || bottom <= top)
+                    continue;
 
-                // Make balls FREE by default. Will be changed later
-                balls.add(new Ball(new Point(center[0], center[1]), BallColor.WHITE, BallPickupStrategy.FREE));
+                region.x = left;
+                region.y = top;
+                region.width = right - left;
+                region.height = bottom - top;
+                engine.findBalls(preprocessor, BallColor.WHITE, region, whiteTileCenters);
+                engine.findBalls(preprocessor, BallColor.ORANGE, region, orangeTileCenters);
             }
         }
 
-        ballsMatW.release();
+        // Computing the whole masks is what the tiles avoid, so only do it for a viewer
+        if (maskPublisher.isSubscribed()) {
+            maskPublisher.publish("White Ball Mask", preprocessor.get(engine.getMask(BallColor.WHITE)));
+            maskPublisher.publish("Orange Ball Mask", preprocessor.get(engine.getMask(BallColor.ORANGE)));
+        }
     }
 
     /**
-     * Updates the balls argument with the white balls found on the frame.
+     * Searches the whole frame for balls, in horizontal strips in parallel. Each strip is searched with a margin of a
+     * ball diameter, so the balls centered in it, and pairs of touching balls, lie within the searched region. A ball is
+     * only kept by the strip its center is in, and a ball found by the strips on both sides of a boundary is kept once.
      *
-     * @param balls list that gets updated with newly added balls
+     * @param preprocessor Holds the frame to evaluated and its blurred masks
      */
-    private void findOrangeBalls(Mat frameBlur, List<Ball> balls) {
-        Mat ballsMatO = new Mat();
+    private void detectBallsInStrips(FramePreprocessor preprocessor) {
+        Rect bounds = preprocessor.getSearchBounds(FrameVariant.WHITE_BALL_MASK); // Only the course is split up
+        int margin = config.getUpperBallSize() * 2 + 2;
+
+        int count = frameStrips.getCount(bounds.height);
+        while (ballStrips.size() < count)
+            ballStrips.add(new BallStrip(createEngine()));
+
+        // The masks are computed whole, in strips as well, so the strips share the blur and labels they are made from
+        maskPublisher.publish("White Ball Mask", preprocessor.get(FrameVariant.WHITE_BALL_MASK));
+        maskPublisher.publish("Orange Ball Mask", preprocessor.get(FrameVariant.ORANGE_BALL_MASK));
 
-        // Create mask
-        Core.inRange(frameBlur, config.getLowerOrangeBallThreshold(), config.getUpperOrangeBallThreshold(), maskOrange);
-        maskSets.add(new MaskSet("Orange Ball Mask", maskOrange));
+        frameStrips.forEach(count, index -> {
+            BallStrip strip = ballStrips.get(index);
+            frameStrips.getStrip(index, bounds, strip.core);
+            FrameStrips.widen(strip.core, margin, bounds, strip.region);
 
-        //Get white balls from frame
-        Imgproc.HoughCircles(maskOrange, ballsMatO, Imgproc.HOUGH_GRADIENT,
-                config.getBallDp(), config.getBallMinDist(), config.getBallParam1(), config.getBallParam2(),
-                config.getLowerBallSize(), config.getUpperBallSize());
+            strip.found = 0;
+            strip.engine.findBalls(preprocessor, BallColor.WHITE, strip.region, strip.whiteCenters);
+            strip.engine.findBalls(preprocessor, BallColor.ORANGE, strip.region, strip.orangeCenters);
+        });
 
-        // Add orange ball to list
-        if (!ballsMatO.empty()) {
-            for (int i = 0; i < ballsMatO.width(); i++) {
-                double[] center = ballsMatO.get(0, i);
+        // Merged in the order of the strips, so the balls are in the same order on every run
+        for (int i = 0; i < count; i++) {
+            BallStrip strip = ballStrips.get(i);
+            int fromOtherStrips = balls.size();
 
-                // Make balls FREE by default. Will be changed later
-                balls.add(new Ball(new Point(center[0], center[1]), BallColor.ORANGE, BallPickupStrategy.FREE));
+            for (int j = 0; j < strip.found; j++) {
+                double x = strip.centers[j * 2], y = strip.centers[j * 2 + 1];
+                if (!isFound(x, y, strip.colors[j], fromOtherStrips))
+                    addBall(x, y, strip.colors[j]);
             }
         }
+    }
+
+    /**
+     * Searches the blobs of foreground in the course for balls. Each blob is searched with a margin of a ball radius, and
+     * blobs whose regions overlap are searched as one region. Blobs smaller than a ball are noise, and skipped.
+     *
+     * @param preprocessor Holds the frame to evaluated and its blurred masks
+     * @return false without searching, if the blobs cover so much of the course that one search of it is cheaper.
+     */
+    private boolean detectBallsInForeground(FramePreprocessor preprocessor) {
+        if (blobLabels == null) {
+            blobLabels = new Mat();
+            blobStats = new Mat();
+            blobCentroids = new Mat();
+        }
+
+        Rect bounds = preprocessor.getSearchBounds(FrameVariant.WHITE_BALL_MASK);
+        Mat foreground = preprocessor.get(FrameVariant.FOREGROUND_MASK).submat(bounds);
+        int count = Imgproc.connectedComponentsWithStats(foreground, blobLabels, blobStats, blobCentroids, 8, CvType.CV_32S);
+        foreground.release();
+
+        int columns = blobStats.cols();
+        if (blobStatsBuffer.length < count * columns)
+            blobStatsBuffer = new int[count * columns];
+        blobStats.get(0, 0, blobStatsBuffer);
+
+        double minArea = Math.PI * config.getLowerBallSize() * config.getLowerBallSize();
+        int margin = config.getUpperBallSize() + 2;
+        blobCount = 0;
+
+        // Label 0 is the background
+        for (int i = 1; i < count; i++) {
+            int[] stats = blobStatsBuffer;
+            int offset = i * columns;
+            if (stats[offset + Imgproc.CC_STAT_AREA] < minArea)
+                continue;
+
+            if (blobCount == blobRegions.size())
+                blobRegions.add(new Rect());
+            Rect region = blobRegions.get(blobCount++);
+
+            int left = Math.max(0, stats[offset + Imgproc.CC_STAT_LEFT] - margin);
+            int top = Math.max(0, stats[offset + Imgproc.CC_STAT_TOP] - margin);
+            int right = Math.min(bounds.width, stats[offset + Imgproc.CC_STAT_LEFT] + stats[offset + Imgproc.CC_STAT_WIDTH] + margin);
+            int bottom = Math.min(bounds.height, stats[offset + Imgproc.CC_STAT_TOP] + stats[offset + Imgproc.CC_STAT_HEIGHT] + margin);
+            region.x = bounds.x + left;
+            region.y = bounds.y + top;
+            region.width = right - left;
+            region.height = bottom - top;
+        }
+
+        mergeBlobRegions();
+
+        long searched = 0;
+        for (int i = 0; i < blobCount; i++)
+            searched += (long) blobRegions.get(i).width * blobRegions.get(i).height;
+        if (searched > bounds.area() * MAX_CHANGED_FRACTION)
+            return false;
+
+        for (int i = 0; i < blobCount; i++) {
+            engine.findBalls(preprocessor, BallColor.WHITE, blobRegions.get(i), whiteBlobCenters);
+            engine.findBalls(preprocessor, BallColor.ORANGE, blobRegions.get(i), orangeBlobCenters);
+        }
 
-        ballsMatO.release();
+        // As with the tiles, the whole masks are only computed for a viewer
+        if (maskPublisher.isSubscribed()) {
+            maskPublisher.publish("White Ball Mask", preprocessor.get(engine.getMask(BallColor.WHITE)));
+            maskPublisher.publish("Orange Ball Mask", preprocessor.get(engine.getMask(BallColor.ORANGE)));
+        }
+        return true;
     }
 
+    /**
+     * Replaces the blob regions that overlap by their bounding box, until none overlap.
+     */
+    private void mergeBlobRegions() {
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            for (int i = 0; i < blobCount; i++) {
+                Rect a = blobRegions.get(i);
+                for (int j = i + 1; j < blobCount; j++) {
+                    Rect b = blobRegions.get(j);
+                    if (a.x >= b.x + b.width || b.x >= a.x + a.width || a.y >= b.y + b.height || b.y >= a.y + a.height)
+                        continue;
+
+                    int right = Math.max(a.x + a.width, b.x + b.width), bottom = Math.max(a.y + a.height, b.y + b.height);
+                    a.x = Math.min(a.x, b.x);
+                    a.y = Math.min(a.y, b.y);
+                    a.width = right - a.x;
+                    a.height = bottom - a.y;
+
+                    // The last region in use takes the place of the merged one, and the merged Rect is kept for reuse
+                    blobRegions.set(j, blobRegions.get(blobCount - 1));
+                    blobRegions.set(blobCount - 1, b);
+                    blobCount--;
+                    j--;
+                    merged = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param count Number of balls from the start of the results to compare with
+     * @return true if one of the balls has the color and is closer than the minimum distance between balls.
+     */
+    private boolean isFound(double x, double y, BallColor color, int count) {
+        for (int i = 0; i < count; i++) {
+            Point center = balls.get(i).getCenter();
+            if (balls.get(i).getColor() == color && Math.hypot(center.x - x, center.y - y) < config.getBallMinDist())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the point lies in the changed tiles being searched.
+     */
+    private boolean isInTiles(double x, double y) {
+        return x >= tiles.x && x < tiles.x + tiles.width && y >= tiles.y && y < tiles.y + tiles.height;
+    }
+
+    /**
+     * Adds a ball at the position to the result list.
+     */
+    private void addBall(double x, double y, BallColor color) {
+        Ball ball = nextBall();
+        ball.getCenter().x = x;
+        ball.getCenter().y = y;
+        ball.setColor(color);
+
+        // Make balls FREE by default. Will be changed later
+        ball.setStrategy(BallPickupStrategy.FREE);
+    }
+
+    /**
+     * Takes the next unused Ball from the pool, creating one if the pool is exhausted, and adds it to the results.
+     *
+     * @return a Ball whose fields must all be overwritten by the caller.
+     */
+    private Ball nextBall() {
+        Ball ball;
+        if (balls.size() < ballPool.size()) {
+            ball = ballPool.get(balls.size());
+        } else {
+            ball = new Ball(new Point(), BallColor.WHITE, BallPickupStrategy.FREE);
+            ballPool.add(ball);
+        }
+
+        balls.add(ball);
+        return ball;
+    }
+
+    /**
+     * A strip of the frame searched on its own thread, with the engine and results of that strip.
+     */
+    private static class BallStrip {
+        final BallDetectionEngine engine; // Engines keep buffers between calls, so each strip has its own
+        final Rect core = new Rect(); // The strip. Only the balls centered in it are kept
+        final Rect region = new Rect(); // The strip with a margin, which is searched
+        double[] centers = new double[16]; // x and y of each ball found
+        BallColor[] colors = new BallColor[8];
+        int found;
+
+        final BallDetectionEngine.BallCenters whiteCenters = (x, y) -> add(x, y, BallColor.WHITE);
+        final BallDetectionEngine.BallCenters orangeCenters = (x, y) -> add(x, y, BallColor.ORANGE);
+
+        BallStrip(BallDetectionEngine engine) {
+            this.engine = engine;
+        }
+
+        private void add(double x, double y, BallColor color) {
+            if (y < core.y || y >= core.y + core.height)
+                return;
+
+            if (found == colors.length) {
+                centers = Arrays.copyOf(centers, centers.length * 2);
+                colors = Arrays.copyOf(colors, colors.length * 2);
+            }
+            centers[found * 2] = x;
+            centers[found * 2 + 1] = y;
+            colors[found++] = color;
+        }
+    }
+
+    @Override
+    public boolean detect(FramePreprocessor preprocessor) {
+        detectBalls(preprocessor);
+        return !this.balls.isEmpty();
+    }
+
+    /**
+     * Makes the next detection search the whole frame, also with ballIncremental.
+     */
+    public void requestFullScan() {
+        this.fullScanRequested = true;
+    }
+
+    /**
+     * @return the balls of the last detection. The list and its balls are reused by the next detection.
+     */
     public List<Ball> getBalls() {
         return balls;
     }
 
     @Override
-    public List<MaskSet> getMaskSets() {
-        return maskSets;
+    public double getTargetRate() {
+        return DetectionConfiguration.DetectionConfiguration().getBallDetectionRate();
+    }
+
+    @Override
+    public int getPriority() {
+        return 1;
+    }
+
+    @Override
+    public MaskPublisher getMaskPublisher() {
+        return maskPublisher;
     }
 }
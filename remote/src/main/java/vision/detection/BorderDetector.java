@@ -4,54 +4,228 @@ import courseObjects.Border;
 import courseObjects.Cross;
 import org.opencv.core.*;
 import org.opencv.imgproc.Imgproc;
-import vision.helperClasses.MaskSet;
+import vision.helperClasses.MaskPublisher;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 
 public class BorderDetector implements SubDetector {
     private Border border;
     private Point cameraOffset;
-    private final List<MaskSet> maskSets = new ArrayList<>();;
+    private final MaskPublisher maskPublisher = new MaskPublisher();
     private final Cross cross = new Cross();
 
     // Initialize all OpenCV objects once to not have memory leaks (so they don't get reinitialized every time the function gets called)
-    Mat mask, frameBlur, frameDummy;
-    MatOfPoint2f innerBorderEndPoints;
+    Mat frameDummy, cornerMask;
     MatOfPoint2f approx;
     private boolean initial = true;
 
+    // Cross end points found by the last full detection, or null if the cross was not found
+    private List<Point> crossEndPoints;
+
+    // Locking. The border and cross don't move during a run, so they are locked once stable
+    private boolean locked = false;
+    private int framesSinceValidation = 0;
+    private final List<Border> stableBorders = new ArrayList<>();
+    private final List<Point> stableCrossMiddles = new ArrayList<>();
+    private final List<Point> stableCrossMeasurePoints = new ArrayList<>();
+    private static final int CORNER_CHECK_SIZE = 9; // Pixels. Side of the window checked around each locked corner
+
+    // Coarse to fine. The border is found at quarter resolution, and the corners and cross at full resolution
+    private static final int PYRAMID_SCALE = 4;
+    private static final int COARSE_CORNER_WINDOW = 2; // Pixels. Half the side of the window refining a corner at quarter resolution
+    private static final int CORNER_WINDOW = 5; // Pixels. The same at full resolution
+    private static final Size CORNER_BLUR = new Size(5, 5);
+    private static final TermCriteria CORNER_CRITERIA = new TermCriteria(TermCriteria.EPS + TermCriteria.COUNT, 30, 0.01);
+    private static final int CROSS_MARGIN = PYRAMID_SCALE * 2; // Pixels around the coarse cross searched at full resolution
+    Mat cornerImage, crossMask;
+    MatOfPoint2f cornerPoint;
+
     private final DetectionConfiguration config = DetectionConfiguration.DetectionConfiguration();
 
     /**
      * Detects the border from the frame and stores the objects in its own objects.
-     * @param frame The frame to be detected.
+     * When locking is enabled, the border and cross are locked to their average after a number of stable frames.
+     * While locked, a full detection only runs at the validation interval, or when the locked corners are no longer red.
+     * @param preprocessor Holds the frame to be detected and its obstacle mask.
      * @return a boolean symbolizing if objects were found or not.
      */
-    public boolean detectBorder(Mat frame) {
+    public boolean detectBorder(FramePreprocessor preprocessor) {
         // Initialize all OpenCV objects once to not have memory leaks
         if (initial) {
-            mask = new Mat();
-            frameBlur = new Mat();
             frameDummy = new Mat();
+            cornerMask = new Mat();
+            cornerImage = new Mat();
+            crossMask = new Mat();
+            cornerPoint = new MatOfPoint2f();
 
             initial = false;
         }
 
-        this.border = getBorderFromFrame(frame);
+        Border detectedBorder;
+        if (this.locked) {
+            // Skip detection while the locked corners still look like the border
+            if (++this.framesSinceValidation < config.getBorderValidationInterval() && cornersStillRed(preprocessor))
+                return true;
+            this.framesSinceValidation = 0;
+
+            // Keep the lock if the border has not moved
+            detectedBorder = getBorderFromFrame(preprocessor);
+            if (detectedBorder != null && isClose(detectedBorder, this.border))
+                return true;
+
+            System.out.println("Border moved, unlocking");
+            this.locked = false;
+        } else
+            detectedBorder = getBorderFromFrame(preprocessor);
+
+        // Store the newly detected border and the cross found with it
+        this.border = detectedBorder;
+        if (detectedBorder != null) {
+            this.cameraOffset = new Point(detectedBorder.getTopLeft().x, detectedBorder.getTopLeft().y);
+
+            if (this.crossEndPoints != null)
+                updateCross(this.crossEndPoints);
+        }
+
+        if (config.isBorderLock())
+            addStableFrame(detectedBorder);
 
-        return border != null;
+        return detectedBorder != null;
+    }
+
+    /**
+     * Collects stable frames and locks the border and cross when enough have been found in a row.
+     *
+     * @param detectedBorder the border found in the frame, or null if not found.
+     */
+    private void addStableFrame(Border detectedBorder) {
+        // Start over if the border was lost or moved
+        if (detectedBorder == null || (!this.stableBorders.isEmpty() && !isClose(detectedBorder, averageBorder(this.stableBorders)))) {
+            this.stableBorders.clear();
+            this.stableCrossMiddles.clear();
+            this.stableCrossMeasurePoints.clear();
+            if (detectedBorder == null) return;
+        }
+
+        this.stableBorders.add(detectedBorder);
+        if (this.crossEndPoints != null && this.cross.getMiddle() != null && this.cross.getMeasurePoint() != null) {
+            this.stableCrossMiddles.add(this.cross.getMiddle());
+            this.stableCrossMeasurePoints.add(this.cross.getMeasurePoint());
+        }
+
+        if (this.stableBorders.size() >= config.getBorderLockFrames())
+            lock();
+    }
+
+    /**
+     * Locks the border and cross to their average over the stable frames.
+     */
+    private void lock() {
+        this.border = averageBorder(this.stableBorders);
+        this.cameraOffset = new Point(this.border.getTopLeft().x, this.border.getTopLeft().y);
+
+        if (!this.stableCrossMiddles.isEmpty()) {
+            this.cross.setMiddle(averagePoint(this.stableCrossMiddles));
+            this.cross.setMeasurePoint(averagePoint(this.stableCrossMeasurePoints));
+        }
+
+        this.stableBorders.clear();
+        this.stableCrossMiddles.clear();
+        this.stableCrossMeasurePoints.clear();
+        this.framesSinceValidation = 0;
+        this.locked = true;
+
+        System.out.println("Border locked");
+    }
+
+    /**
+     * Cheap check that the locked border is still in place. Only small windows around the corners are thresholded.
+     *
+     * @param preprocessor holds the frame to check.
+     * @return true if there are red pixels around every locked corner.
+     */
+    private boolean cornersStillRed(FramePreprocessor preprocessor) {
+        Size frameSize = preprocessor.getFrame().size();
+
+        for (Point corner : this.border.getCornersAsArray()) {
+            int left = (int) Math.max(0, corner.x - CORNER_CHECK_SIZE / 2.);
+            int top = (int) Math.max(0, corner.y - CORNER_CHECK_SIZE / 2.);
+            int right = (int) Math.min(frameSize.width, left + CORNER_CHECK_SIZE);
+            int bottom = (int) Math.min(frameSize.height, top + CORNER_CHECK_SIZE);
+            if (right <= left || bottom <= top) return false;
+
+            Mat mask = preprocessor.getRegion(FrameVariant.OBSTACLE_MASK, new Rect(left, top, right - left, bottom - top), this.cornerMask);
+            if (Core.countNonZero(mask) == 0) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return true if all corners of the two borders are within the lock tolerance of each other.
+     */
+    private boolean isClose(Border border1, Border border2) {
+        Point[] corners1 = border1.getCornersAsArray(), corners2 = border2.getCornersAsArray();
+
+        for (int i = 0; i < corners1.length; i++) {
+            double distance = Math.sqrt(Math.pow(corners1[i].x - corners2[i].x, 2) + Math.pow(corners1[i].y - corners2[i].y, 2));
+            if (distance > config.getBorderLockTolerance()) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return a border with each corner averaged over the borders.
+     */
+    private Border averageBorder(List<Border> borders) {
+        List<List<Point>> corners = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+            corners.add(new ArrayList<>());
+
+        for (Border border : borders) {
+            Point[] borderCorners = border.getCornersAsArray();
+            for (int i = 0; i < 4; i++)
+                corners.get(i).add(borderCorners[i]);
+        }
+
+        return new Border(averagePoint(corners.get(0)), averagePoint(corners.get(1)),
+                averagePoint(corners.get(2)), averagePoint(corners.get(3)));
+    }
+
+    private Point averagePoint(List<Point> points) {
+        Point average = new Point(0, 0);
+        for (Point point : points) {
+            average.x += point.x;
+            average.y += point.y;
+        }
+        average.x /= points.size();
+        average.y /= points.size();
+        return average;
+    }
+
+    /**
+     * @return true if the border and cross are locked and no longer detected every frame.
+     */
+    public boolean isLocked() {
+        return this.locked;
     }
 
     /**
      * Finds the border and calculates the corners from an approximation of line intersections.
+     * With borderPyramid the contours are found at quarter resolution. The corners are then refined to sub-pixel
+     * accuracy at full resolution, and the cross is found at full resolution around its blob.
      * Note: The mask is displayed in black and white. White equals true
-     * @param frame to be evaluated
+     * @param preprocessor holds the frame to be evaluated
      * @return A BorderSet with the border corners and the offset from the camera.
      */
-    private Border getBorderFromFrame(Mat frame) {
-        List<MatOfPoint> contours = getRedContours(frame);
+    private Border getBorderFromFrame(FramePreprocessor preprocessor) {
+        boolean pyramid = config.isBorderPyramid();
+        int areaScale = pyramid ? PYRAMID_SCALE * PYRAMID_SCALE : 1; // Pixels of the frame per pixel of the mask
+        List<MatOfPoint> contours = getRedContours(preprocessor, pyramid);
         /* Each contour is a boundary of one of the components (e.g. to boundary of the cross)
          *  - The outer boundary of the border has 28 straight lines in the physical world (not used)
          *  - The inner boundary of the border has 4 straight lines in the physical world
@@ -60,6 +234,7 @@ public class BorderDetector implements SubDetector {
          * NB! The lines from the physical world might differ a bit from what is found in contours */
         List<MatOfPoint2f> endPointList = new ArrayList<>();
         boolean crossFound = false;
+        MatOfPoint2f innerBorderEndPoints = null; // Never from an earlier frame, or a frame without the border finds it
 
         int innerBorderIndex = contours.size() - 2;
         for (int i = innerBorderIndex; i >= 0; i--) { // The last element would be the outer boundary of the border
@@ -78,13 +253,23 @@ public class BorderDetector implements SubDetector {
             int numOfEndPoints = approx.toArray().length;
 
             // Calculate Contour Size
-            double contourSize = Imgproc.contourArea(contours.get(i));
+            double contourSize = Imgproc.contourArea(contours.get(i)) * areaScale;
 
             if (i == innerBorderIndex && numOfEndPoints == 4) { // The border
                 // Only proceed if border is of correct size
                 if (contourSize >= config.getLowerBorderSize())
                     innerBorderEndPoints = approx;
 
+            } else if (pyramid) {
+                // The arms of the cross are only a few pixels wide at quarter resolution, so only its size is trusted
+                if (contourSize >= config.getLowerCrossSize() / 2 && contourSize <= config.getUpperCrossSize() * 2) {
+                    MatOfPoint2f crossEndPoints = findCross(preprocessor, contours.get(i));
+                    if (crossEndPoints != null) {
+                        crossFound = true;
+                        endPointList.add(crossEndPoints);
+                    }
+                }
+
             } else if (numOfEndPoints == 12) { // The cross
                 // Only proceed if cross is of correct size
                 if (contourSize >= config.getLowerCrossSize() && contourSize <= config.getUpperCrossSize()) {
@@ -95,8 +280,13 @@ public class BorderDetector implements SubDetector {
         }
         if (innerBorderEndPoints == null || innerBorderEndPoints.empty()) return null;
 
-        if (crossFound)
-            updateCross(endPointList);
+        // The cross is stored by the caller, as it should not change while locked
+        this.crossEndPoints = null;
+        if (crossFound) {
+            this.crossEndPoints = new ArrayList<>();
+            for (MatOfPoint2f endPoints : endPointList)
+                this.crossEndPoints.addAll(endPoints.toList());
+        }
 
         // Add inner boundary end points of border to BorderSet object
         Point[] linePoints = innerBorderEndPoints.toArray().clone();
@@ -108,52 +298,125 @@ public class BorderDetector implements SubDetector {
             Point point = linePoints[i];
             corners[i] = new Point(point.x, point.y);
         }
+        if (pyramid)
+            refineCorners(preprocessor, corners);
 
         // Sort corners in order: {TopLeft, TopRight, BottomLeft, BottomRight}
-        List<Point> sortedCorners = new ArrayList<>(Arrays.stream(corners).sorted((p1, p2) -> (int) ((p1.x + p1.y) - (p2.x + p2.y))).toList());
+        List<Point> sortedCorners = new ArrayList<>(Arrays.stream(corners).sorted(Comparator.comparingDouble(p -> p.x + p.y)).toList());
         if (sortedCorners.get(1).x < sortedCorners.get(2).x) {
             Point temp = sortedCorners.get(1);
             sortedCorners.set(1, sortedCorners.get(2));
             sortedCorners.set(2, temp);
         }
 
-        // Get offset
-        double offsetX = sortedCorners.get(0).x;
-        double offsetY = sortedCorners.get(0).y;
-        this.cameraOffset = new Point(offsetX, offsetY);
-
         return new Border(sortedCorners.get(0), sortedCorners.get(1), sortedCorners.get(2), sortedCorners.get(3));
     }
 
     /**
-     * The red color filtered from the frame using a mask with a color threshold. The frame is then scaled grey to blur
-     * it and find contours. The frame is blurred to smooth out color inconsistencies, and
+     * Refines corners found at quarter resolution to sub-pixel accuracy, first on the quarter resolution mask and then
+     * on the full resolution mask. A corner that cannot be refined keeps its last position.
+     *
+     * @param preprocessor Holds the frame and its obstacle masks
+     * @param corners      The corners at quarter resolution. Replaced by the corners in the frame
+     */
+    private void refineCorners(FramePreprocessor preprocessor, Point[] corners) {
+        for (Point corner : corners) {
+            // The vertices of the polygon can be a pixel or two off, too far for the small window at full resolution
+            refineCorner(preprocessor, FrameVariant.OBSTACLE_MASK_QUARTER, corner, COARSE_CORNER_WINDOW);
+
+            // A pixel after a pyramid step down is centered on every second pixel of the step above
+            corner.x *= PYRAMID_SCALE;
+            corner.y *= PYRAMID_SCALE;
+            refineCorner(preprocessor, FrameVariant.OBSTACLE_MASK, corner, CORNER_WINDOW);
+        }
+    }
+
+    /**
+     * Moves a corner of a mask to sub-pixel accuracy, by cornerSubPix in a window around it.
+     *
+     * @param variant The mask, with its edges as steps. They are smoothed for the corner to fall between pixels
+     * @param corner  The corner in the mask. Left as it is if it wanders off further than the side of the window, e.g.
+     *                where the corner is hidden
+     * @param window  Pixels. Half the side of the window
+     */
+    private void refineCorner(FramePreprocessor preprocessor, FrameVariant variant, Point corner, int window) {
+        Rect bounds = preprocessor.getSearchBounds(variant);
+        int reach = window * 2 + 1; // The window, how far the corner may move and the gradient around it
+        int left = (int) Math.max(0, Math.round(corner.x) - reach);
+        int top = (int) Math.max(0, Math.round(corner.y) - reach);
+        int right = (int) Math.min(bounds.width, Math.round(corner.x) + reach + 1);
+        int bottom = (int) Math.min(bounds.height, Math.round(corner.y) + reach + 1);
+        if (right <= left || bottom <= top) return;
+
+        Mat mask = preprocessor.getRegion(variant, new Rect(left, top, right - left, bottom - top), this.cornerMask);
+        Imgproc.GaussianBlur(mask, this.cornerImage, CORNER_BLUR, 0);
+
+        this.cornerPoint.fromArray(new Point(corner.x - left, corner.y - top));
+        Imgproc.cornerSubPix(this.cornerImage, this.cornerPoint, new Size(window, window), new Size(-1, -1), CORNER_CRITERIA);
+        Point refined = this.cornerPoint.toArray()[0];
+
+        if (Math.hypot(refined.x + left - corner.x, refined.y + top - corner.y) > window * 2) return;
+
+        corner.x = refined.x + left;
+        corner.y = refined.y + top;
+    }
+
+    /**
+     * Finds the cross at full resolution, in a window around a blob found at quarter resolution.
+     *
+     * @param preprocessor Holds the frame and its obstacle mask
+     * @param blob         Contour of the blob at quarter resolution
+     * @return the 12 end points of the cross in the frame, or null if the blob is not the cross.
+     */
+    private MatOfPoint2f findCross(FramePreprocessor preprocessor, MatOfPoint blob) {
+        Size frameSize = preprocessor.getFrame().size();
+        Rect bounds = Imgproc.boundingRect(blob);
+        int left = Math.max(0, bounds.x * PYRAMID_SCALE - CROSS_MARGIN);
+        int top = Math.max(0, bounds.y * PYRAMID_SCALE - CROSS_MARGIN);
+        int right = (int) Math.min(frameSize.width, (bounds.x + bounds.width) * PYRAMID_SCALE + CROSS_MARGIN);
+        int bottom = (int) Math.min(frameSize.height, (bounds.y + bounds.height) * PYRAMID_SCALE + CROSS_MARGIN);
+        if (right <= left || bottom <= top) return null;
+
+        Mat mask = preprocessor.getRegion(FrameVariant.OBSTACLE_MASK, new Rect(left, top, right - left, bottom - top), this.crossMask);
+        List<MatOfPoint> contours = new ArrayList<>();
+        Imgproc.findContours(mask, contours, frameDummy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE, new Point(left, top));
+
+        // The same tests as for a cross found at full resolution
+        for (MatOfPoint contour : contours) {
+            MatOfPoint2f contourConverted = new MatOfPoint2f(contour.toArray());
+            MatOfPoint2f endPoints = new MatOfPoint2f();
+            Imgproc.approxPolyDP(contourConverted, endPoints, 0.014 * Imgproc.arcLength(contourConverted, true), true);
+
+            double contourSize = Imgproc.contourArea(contour);
+            if (endPoints.rows() == 12 && contourSize >= config.getLowerCrossSize() && contourSize <= config.getUpperCrossSize())
+                return endPoints;
+        }
+        return null;
+    }
+
+    /**
+     * The red color filtered from the frame using a mask with a color threshold, to find contours.
+     * The mask is made from a blurred frame to smooth out color inconsistencies.
      *
-     * @param frame Frame to get contours from
+     * @param preprocessor Holds the frame to get contours from
+     * @param pyramid      True to find the contours at quarter resolution
      * @return The red contours of the frame, one for each red 'object'.
      */
-    private List<MatOfPoint> getRedContours(Mat frame) {
-        // Blur frame to smooth out color inconsistencies
-        Imgproc.GaussianBlur(
-                frame,
-                this.frameBlur,
-                /* Both width and height should be uneven numbers.
-                 *  - Should be at least (3, 3) to detect borders.
-                 *  - Points of the cross becomes shaky if larger than (3, 3) */
-                new Size(3, 3),
-                0
-        );
-
-        // Create a mask to filter in next step
-        Core.inRange(this.frameBlur, config.getLowerObstacleThreshold(), config.getUpperObstacleThreshold(), this.mask); // Filter all red colors from frame to mask
+    private List<MatOfPoint> getRedContours(FramePreprocessor preprocessor, boolean pyramid) {
+        /* Filter all red colors from a frame blurred with a (3, 3) kernel.
+         *  - Should be at least (3, 3) to detect borders.
+         *  - Points of the cross becomes shaky if larger than (3, 3)
+         * Also with lutSegmentation, as only the ball masks are read from the labels of the (11, 11) ball blur.
+         * At quarter resolution the pyramid steps have blurred the frame instead */
+        Mat mask = preprocessor.get(pyramid ? FrameVariant.OBSTACLE_MASK_QUARTER : FrameVariant.OBSTACLE_MASK);
 
         // Add mask for debugging
-        this.maskSets.add(new MaskSet("border", this.mask));
+        this.maskPublisher.publish("border", mask);
 
         // Find contours (color patches of the border)
         List<MatOfPoint> contours = new ArrayList<>();
         int method = Imgproc.CHAIN_APPROX_SIMPLE; // Only leaves the end points of the components, e.g. a rectangular contour would be encoded with 4 points.
-        Imgproc.findContours(this.mask, contours, frameDummy, Imgproc.RETR_LIST, method);
+        Imgproc.findContours(mask, contours, frameDummy, Imgproc.RETR_LIST, method);
 
         return contours;
     }
@@ -161,15 +424,11 @@ public class BorderDetector implements SubDetector {
     /**
      * Update the variables in the Cross object with the newly detected endpoints
      *
-     * @param endPointList List of 12 endpoints on the cross
+     * @param endPoints List of 12 endpoints on the cross
      */
-    private void updateCross(List<MatOfPoint2f> endPointList) {
+    private void updateCross(List<Point> endPoints) {
         // Add end points of cross to Cross object. Used for debugging
-        List<Point> endPoints = new ArrayList<>();
-        for (MatOfPoint2f endPoint : endPointList) {
-            endPoints.addAll(endPoint.toList());
-            this.cross.setEndPoints(endPoints);
-        }
+        this.cross.setEndPoints(endPoints);
 
         Point firstPoint = endPoints.get(0);
         Point rightFromFirst = endPoints.get(endPoints.size() - 1);
@@ -190,6 +449,11 @@ public class BorderDetector implements SubDetector {
         cross.setMiddle(new Point((firstPoint.x + middlePoint.x) / 2, (firstPoint.y + middlePoint.y) / 2));
     }
 
+    @Override
+    public boolean detect(FramePreprocessor preprocessor) {
+        return detectBorder(preprocessor);
+    }
+
     public Border getBorder() {
         return this.border;
     }
@@ -203,7 +467,17 @@ public class BorderDetector implements SubDetector {
     }
 
     @Override
-    public List<MaskSet> getMaskSets() {
-        return this.maskSets;
+    public double getTargetRate() {
+        return DetectionConfiguration.DetectionConfiguration().getBorderDetectionRate();
+    }
+
+    @Override
+    public int getPriority() {
+        return 0; // Lowest, as the border and cross do not move
+    }
+
+    @Override
+    public MaskPublisher getMaskPublisher() {
+        return this.maskPublisher;
     }
 }
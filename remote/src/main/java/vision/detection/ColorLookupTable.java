@@ -0,0 +1,103 @@
+package vision.detection;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+
+/**
+ * Classifies BGR pixels into colour classes, using one lookup table per channel.
+ * <br/><br/>
+ * Every class is a box of BGR thresholds, as used by Core.inRange. A pixel is in a class if each of its channels is
+ * within the class's range, so the table of each channel holds a bit per class and a pixel's label is the AND of the
+ * three entries. Classes may overlap, in which case the label has several bits set.
+ * <br/><br/>
+ * The pixels never leave OpenCV: each channel is extracted and looked up in its table with Core.LUT, and the label is
+ * the AND of the three. A single Core.LUT with a 3 channel table would be one pass, but is slower than the three.
+ */
+public class ColorLookupTable {
+    private final byte[] blue = new byte[256];
+    private final byte[] green = new byte[256];
+    private final byte[] red = new byte[256];
+
+    // The tables as Mats for Core.LUT, in channel order. Created on first use, as OpenCV must be loaded
+    private volatile Mat[] channelTables;
+    // A channel of the pixels, and the channel looked up, of each thread
+    private final ThreadLocal<Mat[]> scratch = ThreadLocal.withInitial(() -> new Mat[]{new Mat(), new Mat()});
+
+    /**
+     * Adds a class to the table.
+     *
+     * @param bit   the label bit of the class. One of the 8 bits of a byte.
+     * @param lower lower BGR threshold, inclusive.
+     * @param upper upper BGR threshold, inclusive.
+     */
+    public void addClass(int bit, Scalar lower, Scalar upper) {
+        if (Integer.bitCount(bit) != 1 || bit > 0x80) throw new IllegalArgumentException("Not a single bit: " + bit);
+
+        addRange(this.blue, bit, lower.val[0], upper.val[0]);
+        addRange(this.green, bit, lower.val[1], upper.val[1]);
+        addRange(this.red, bit, lower.val[2], upper.val[2]);
+        this.channelTables = null;
+    }
+
+    private static void addRange(byte[] table, int bit, double lower, double upper) {
+        for (int value = (int) Math.max(0, Math.ceil(lower)); value <= Math.min(255, upper); value++)
+            table[value] |= (byte) bit;
+    }
+
+    /**
+     * @return the label of a single pixel.
+     */
+    public int classify(int blue, int green, int red) {
+        return this.blue[blue] & this.green[green] & this.red[red] & 0xFF;
+    }
+
+    /**
+     * Labels every pixel of a BGR image.
+     *
+     * @param bgr    8 bit, 3 channel image.
+     * @param labels stores the 8 bit, 1 channel label image of the same size.
+     */
+    public void apply(Mat bgr, Mat labels) {
+        Mat[] scratch = this.scratch.get();
+        Mat channel = scratch[0], lookedUp = scratch[1];
+        Mat[] tables = getChannelTables();
+
+        Core.extractChannel(bgr, channel, 0);
+        Core.LUT(channel, tables[0], labels);
+        for (int i = 1; i < 3; i++) {
+            Core.extractChannel(bgr, channel, i);
+            Core.LUT(channel, tables[i], lookedUp);
+            Core.bitwise_and(labels, lookedUp, labels);
+        }
+    }
+
+    private Mat[] getChannelTables() {
+        Mat[] tables = this.channelTables;
+        if (tables == null) {
+            tables = new Mat[]{toMat(this.blue), toMat(this.green), toMat(this.red)};
+            this.channelTables = tables;
+        }
+        return tables;
+    }
+
+    private static Mat toMat(byte[] table) {
+        Mat mat = new Mat(1, 256, CvType.CV_8UC1);
+        mat.put(0, 0, table);
+        return mat;
+    }
+
+    /**
+     * Builds a table for Core.LUT that turns a label image into the mask of one class, or of several classes together.
+     *
+     * @param bit the label bit of the class, or the bits of the classes.
+     * @return a 1x256 table mapping labels with any of the bits set to 255, and all others to 0.
+     */
+    public static Mat maskTable(int bit) {
+        byte[] table = new byte[256];
+        for (int label = 0; label < 256; label++)
+            table[label] = (byte) ((label & bit) != 0 ? 255 : 0);
+        return toMat(table);
+    }
+}
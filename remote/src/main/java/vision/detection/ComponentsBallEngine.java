@@ -0,0 +1,185 @@
+package vision.detection;
+
+import courseObjects.BallColor;
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.Arrays;
+
+/**
+ * Finds balls as blobs on the mask with connected components, filtered by area and shape.
+ * <br/><br/>
+ * A blob shaped like a single ball gives its centroid. A larger blob is taken to be touching balls. Its area divided by
+ * the area of a single ball gives the number of balls, and k-means on its pixels places them.
+ * Unlike the Hough transform this needs no tuning beyond the ball sizes, but balls must be separate blobs on the mask.
+ * <br/><br/>
+ * With ballPyramid the half resolution masks are searched, and the centroids are scaled up to the frame.
+ */
+public class ComponentsBallEngine implements BallDetectionEngine {
+    private static final double MAX_ASPECT = 1.5; // Longest over shortest side of a single ball's bounding box
+    private static final double MIN_FILL = 0.6; // Area over bounding box area of a single ball. A disk fills 0.79
+    private static final double MIN_CLUSTER_FILL = 0.35; // Two touching balls on a diagonal fill 0.39
+    private static final int MAX_CLUSTER = 4; // Most touching balls that are split up
+    private static final int PYRAMID_SCALE = 2; // Half resolution variants are downscaled by two
+    private static final TermCriteria KMEANS_CRITERIA = new TermCriteria(TermCriteria.EPS + TermCriteria.COUNT, 10, 0.5);
+
+    private Mat labels, stats, centroids; // Connected components output
+    private Mat componentMask, points, samples, clusterLabels, clusterCenters; // For splitting touching balls
+    private Mat regionMask; // Mask of a searched region
+    private final RegionViews views = new RegionViews(16); // The searched part of each mask, and the labels of clusters
+    private final Rect bounds = new Rect(), box = new Rect();
+    private final Scalar component = new Scalar(0); // Label of the cluster being split
+    private int[] statsBuffer = new int[0];
+    private double[] centroidBuffer = new double[0];
+    private double[] areaBuffer = new double[0]; // Areas of the single balls, for their median
+    private final float[] clusterBuffer = new float[MAX_CLUSTER * 2];
+    private boolean initial = true;
+
+    private final DetectionConfiguration config = DetectionConfiguration.DetectionConfiguration();
+
+    @Override
+    public FrameVariant getMask(BallColor color) {
+        if (config.isBallPyramid())
+            return color == BallColor.WHITE ? FrameVariant.WHITE_BALL_MASK_HALF : FrameVariant.ORANGE_BALL_MASK_HALF;
+        return fullMask(color);
+    }
+
+    private static FrameVariant fullMask(BallColor color) {
+        return color == BallColor.WHITE ? FrameVariant.WHITE_BALL_MASK : FrameVariant.ORANGE_BALL_MASK;
+    }
+
+    @Override
+    public void findBalls(FramePreprocessor preprocessor, BallColor color, BallCenters centers) {
+        initialize();
+
+        // Half resolution pixel i is frame pixel 2i, as pyrDown centers its kernel there. The Hough engine and the
+        // border corners map it the same way
+        double scale = config.isBallPyramid() ? PYRAMID_SCALE : 1;
+
+        // Only the course is searched
+        Rect bounds = preprocessor.getSearchBounds(getMask(color), this.bounds);
+        Mat mask = this.views.of(preprocessor.get(getMask(color)), bounds);
+        findBalls(mask, scale, bounds.x * scale, bounds.y * scale, centers);
+    }
+
+    @Override
+    public void findBalls(FramePreprocessor preprocessor, BallColor color, Rect region, BallCenters centers) {
+        initialize();
+
+        findBalls(preprocessor.getRegion(fullMask(color), region, regionMask), 1, region.x, region.y, centers);
+    }
+
+    private void initialize() {
+        if (initial) {
+            labels = new Mat();
+            stats = new Mat();
+            centroids = new Mat();
+            componentMask = new Mat();
+            points = new Mat();
+            samples = new Mat();
+            clusterLabels = new Mat();
+            clusterCenters = new Mat();
+            regionMask = new Mat();
+            initial = false;
+        }
+    }
+
+    /**
+     * Finds the balls on a mask.
+     *
+     * @param mask    Mask of one color
+     * @param scale   Frame pixels per mask pixel
+     * @param offsetX Frame x of the center of the first mask pixel
+     * @param offsetY Frame y of the center of the first mask pixel
+     * @param centers Receives the center of each ball
+     */
+    private void findBalls(Mat mask, double scale, double offsetX, double offsetY, BallCenters centers) {
+        int count = Imgproc.connectedComponentsWithStats(mask, labels, stats, centroids, 8, CvType.CV_32S);
+
+        // Read all components in one call. The buffers only grow, so they stop allocating once warmed up
+        if (statsBuffer.length < count * Imgproc.CC_STAT_MAX) {
+            statsBuffer = new int[count * Imgproc.CC_STAT_MAX];
+            centroidBuffer = new double[count * 2];
+            areaBuffer = new double[count];
+        }
+        stats.get(0, 0, statsBuffer);
+        centroids.get(0, 0, centroidBuffer);
+
+        double minArea = Math.PI * config.getLowerBallSize() * config.getLowerBallSize() / (scale * scale);
+        double maxArea = Math.PI * config.getUpperBallSize() * config.getUpperBallSize() / (scale * scale);
+
+        // Component 0 is the background
+        int singles = 0;
+        for (int i = 1; i < count; i++) {
+            int area = stat(i, Imgproc.CC_STAT_AREA);
+            if (area < minArea)
+                continue;
+
+            if (area <= maxArea && isBallShaped(i, area)) {
+                areaBuffer[singles++] = area;
+                centers.add(offsetX + centroidBuffer[i * 2] * scale, offsetY + centroidBuffer[i * 2 + 1] * scale);
+            }
+        }
+
+        // The balls on this frame give the area of one ball, as it depends on the camera height
+        double ballArea;
+        if (singles > 0) {
+            Arrays.sort(areaBuffer, 0, singles);
+            ballArea = areaBuffer[singles / 2];
+        } else {
+            double radius = (config.getLowerBallSize() + config.getUpperBallSize()) / 2.0 / scale;
+            ballArea = Math.PI * radius * radius;
+        }
+
+        // Split blobs of touching balls
+        for (int i = 1; i < count; i++) {
+            int area = stat(i, Imgproc.CC_STAT_AREA);
+            if (area < minArea || (area <= maxArea && isBallShaped(i, area)))
+                continue;
+
+            int balls = (int) Math.round(area / ballArea);
+            double fill = (double) area / (stat(i, Imgproc.CC_STAT_WIDTH) * stat(i, Imgproc.CC_STAT_HEIGHT));
+            if (balls < 2 || balls > MAX_CLUSTER || fill < MIN_CLUSTER_FILL)
+                continue;
+
+            splitCluster(i, balls, centers, scale, offsetX, offsetY);
+        }
+    }
+
+    /**
+     * @return true if the bounding box of the component is filled like a single ball.
+     */
+    private boolean isBallShaped(int component, int area) {
+        int width = stat(component, Imgproc.CC_STAT_WIDTH), height = stat(component, Imgproc.CC_STAT_HEIGHT);
+        double aspect = (double) Math.max(width, height) / Math.min(width, height);
+        double fill = (double) area / (width * height);
+        return aspect <= MAX_ASPECT && fill >= MIN_FILL;
+    }
+
+    /**
+     * Places the given number of balls in the component by clustering its pixels with k-means.
+     */
+    private void splitCluster(int component, int balls, BallCenters centers, double scale, double offsetX, double offsetY) {
+        Rect box = this.box;
+        box.x = stat(component, Imgproc.CC_STAT_LEFT);
+        box.y = stat(component, Imgproc.CC_STAT_TOP);
+        box.width = stat(component, Imgproc.CC_STAT_WIDTH);
+        box.height = stat(component, Imgproc.CC_STAT_HEIGHT);
+        this.component.val[0] = component;
+
+        // Pixel coordinates of the component, as points of x and y
+        Core.compare(this.views.of(labels, box), this.component, componentMask, Core.CMP_EQ);
+        Core.findNonZero(componentMask, points);
+        points.convertTo(samples, CvType.CV_32F);
+
+        Core.kmeans(samples, balls, clusterLabels, KMEANS_CRITERIA, 3, Core.KMEANS_PP_CENTERS, clusterCenters);
+
+        clusterCenters.get(0, 0, clusterBuffer);
+        for (int i = 0; i < balls; i++)
+            centers.add(offsetX + (box.x + clusterBuffer[i * 2]) * scale, offsetY + (box.y + clusterBuffer[i * 2 + 1]) * scale);
+    }
+
+    private int stat(int component, int stat) {
+        return statsBuffer[component * Imgproc.CC_STAT_MAX + stat];
+    }
+}
@@ -0,0 +1,215 @@
+package vision.detection;
+
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * The part of the frame the course covers: the polygon of the border corners, widened by a margin. Balls and robot
+ * markers are only searched for inside it, so the floor, tables and people around the course cost nothing and give no
+ * false positives.
+ * <br/><br/>
+ * The robot markers are higher than the border, so near the walls they are seen outside it. Seen from the camera a
+ * point at the height of the markers lies further from the point below the camera than the point of the border plane
+ * below it, by (cameraHeight - borderHeight) / (cameraHeight - robotHeight). The markers get their own area: the
+ * border corners moved away from the point below the camera by that scale. As the camera is above the center of the
+ * course, that point is where the diagonals of the corners cross.
+ * <br/><br/>
+ * The mask is built when it is first asked for after the border has moved, and shared by all frames until it moves
+ * again. A built Area is never changed, so frames being detected keep the one they started with.
+ */
+public class CourseMask {
+    private final int margin; // Pixels around the border corners
+    private final double markerScale; // Of the marker area about the point below the camera. At least 1
+
+    private Point[] corners; // Border corners in pixels. Null until the border is found
+    private Area area; // Built from the corners, for one frame size
+
+    /**
+     * Reads the margin from the configuration, and the marker scale from the heights of the camera, border and robot.
+     */
+    public CourseMask() {
+        Properties configProp = configs.GlobalConfig.getConfigProperties();
+        double cameraHeight = Double.parseDouble(configProp.getProperty("camHeight"));
+        double borderHeight = Double.parseDouble(configProp.getProperty("borderHeight"));
+        double robotHeight = Double.parseDouble(configProp.getProperty("robotHeight"));
+
+        this.margin = DetectionConfiguration.DetectionConfiguration().getCourseMaskMargin();
+        this.markerScale = Math.max(1, (cameraHeight - borderHeight) / (cameraHeight - robotHeight));
+    }
+
+    /**
+     * @param margin Pixels the polygon of the border corners is widened by.
+     */
+    public CourseMask(int margin) {
+        this(margin, 1);
+    }
+
+    /**
+     * @param margin      Pixels the polygons of the border corners are widened by.
+     * @param markerScale How far the robot markers are seen from the point below the camera, relative to the border
+     *                    plane below them. The marker area is not smaller than the course area.
+     */
+    public CourseMask(int margin, double markerScale) {
+        this.margin = margin;
+        this.markerScale = Math.max(1, markerScale);
+    }
+
+    /**
+     * Sets the border the course lies within. The mask is rebuilt if the corners differ from the last border.
+     *
+     * @param corners The border corners in pixels: top left, top right, bottom left and bottom right.
+     */
+    public synchronized void setBorder(Point[] corners) {
+        if (Arrays.equals(corners, this.corners))
+            return;
+
+        this.corners = new Point[corners.length];
+        for (int i = 0; i < corners.length; i++)
+            this.corners[i] = corners[i].clone();
+    }
+
+    /**
+     * @param width  Columns of the frame.
+     * @param height Rows of the frame.
+     * @return the course area of a frame of the size, or null if the border has not been found yet.
+     */
+    public synchronized Area getArea(int width, int height) {
+        if (this.corners == null)
+            return null;
+
+        if (this.area == null || this.area.corners != this.corners || this.area.mask.width() != width
+                || this.area.mask.height() != height)
+            this.area = new Area(this.corners, this.margin, this.markerScale, width, height);
+
+        return this.area;
+    }
+
+    /**
+     * The course area of frames of one size, at full and half resolution, and the area the robot markers are seen in.
+     * Never changed once built.
+     */
+    public static class Area {
+        private final Point[] corners; // The corners it was built from
+        private final Mat mask, halfMask, markerMask; // White inside the course
+        private final Rect bounds, halfBounds, markerBounds; // Bounding boxes of the masks
+
+        private Area(Point[] corners, int margin, double markerScale, int width, int height) {
+            this.corners = corners;
+
+            this.mask = polygonMask(corners, null, 1, margin, width, height);
+            this.markerMask = markerScale > 1
+                    ? polygonMask(corners, diagonalCrossing(corners), markerScale, margin, width, height) : this.mask;
+
+            // The same size as a pyramid step down of the frame
+            this.halfMask = new Mat();
+            Imgproc.resize(this.mask, this.halfMask, new Size((width + 1) / 2, (height + 1) / 2), 0, 0, Imgproc.INTER_NEAREST);
+
+            this.bounds = boundingRect(this.mask);
+            this.halfBounds = boundingRect(this.halfMask);
+            this.markerBounds = boundingRect(this.markerMask);
+        }
+
+        /**
+         * Fills the polygon of the corners, moved away from a center by a scale, and widens it by the margin.
+         *
+         * @param center The point the corners are scaled about. Not used with a scale of 1.
+         */
+        private static Mat polygonMask(Point[] corners, Point center, double scale, int margin, int width, int height) {
+            // The corners are ordered top left, top right, bottom left and bottom right. The polygon goes around
+            Point[] around = {corners[0], corners[1], corners[3], corners[2]};
+            Point[] scaled = new Point[around.length];
+            for (int i = 0; i < around.length; i++) {
+                double x = scale == 1 ? around[i].x : center.x + (around[i].x - center.x) * scale;
+                double y = scale == 1 ? around[i].y : center.y + (around[i].y - center.y) * scale;
+                scaled[i] = new Point(Math.round(x), Math.round(y));
+            }
+            MatOfPoint polygon = new MatOfPoint(scaled);
+
+            Mat mask = Mat.zeros(height, width, CvType.CV_8UC1);
+            Imgproc.fillConvexPoly(mask, polygon, new Scalar(255));
+            if (margin > 0) {
+                Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(margin * 2 + 1, margin * 2 + 1));
+                Imgproc.dilate(mask, mask, kernel);
+                kernel.release();
+            }
+            polygon.release();
+            return mask;
+        }
+
+        /**
+         * @return where the diagonals of the corners cross. The perspective keeps it the image of the course center.
+         */
+        private static Point diagonalCrossing(Point[] corners) {
+            // Top left to bottom right, and top right to bottom left
+            Point a = corners[0], b = corners[3], c = corners[1], d = corners[2];
+            double denominator = (b.x - a.x) * (d.y - c.y) - (b.y - a.y) * (d.x - c.x);
+            if (denominator == 0)
+                return new Point((a.x + b.x) / 2, (a.y + b.y) / 2);
+
+            double t = ((c.x - a.x) * (d.y - c.y) - (c.y - a.y) * (d.x - c.x)) / denominator;
+            return new Point(a.x + (b.x - a.x) * t, a.y + (b.y - a.y) * t);
+        }
+
+        /**
+         * @return the bounding box of the white pixels. At least one pixel, so it can always be cut from the mask.
+         */
+        private static Rect boundingRect(Mat mask) {
+            Rect rect = Imgproc.boundingRect(mask);
+            if (rect.width == 0 || rect.height == 0)
+                return new Rect(0, 0, 1, 1);
+            return rect;
+        }
+
+        /**
+         * @param halfResolution True for half resolution variants.
+         * @return the mask of the course, white inside it. Must not be modified.
+         */
+        public Mat getMask(boolean halfResolution) {
+            return halfResolution ? this.halfMask : this.mask;
+        }
+
+        /**
+         * @return the mask of the area the robot markers are seen in, white inside it. Must not be modified.
+         */
+        public Mat getMarkerMask() {
+            return this.markerMask;
+        }
+
+        /**
+         * @param dst Receives the bounding box of the area the robot markers are seen in.
+         * @return dst.
+         */
+        public Rect getMarkerBounds(Rect dst) {
+            dst.x = this.markerBounds.x;
+            dst.y = this.markerBounds.y;
+            dst.width = this.markerBounds.width;
+            dst.height = this.markerBounds.height;
+            return dst;
+        }
+
+        /**
+         * @param halfResolution True for half resolution variants.
+         * @return a copy of the bounding box of the course.
+         */
+        public Rect getBounds(boolean halfResolution) {
+            return (halfResolution ? this.halfBounds : this.bounds).clone();
+        }
+
+        /**
+         * @param halfResolution True for half resolution variants.
+         * @param dst            Receives the bounding box of the course.
+         * @return dst.
+         */
+        public Rect getBounds(boolean halfResolution, Rect dst) {
+            Rect bounds = halfResolution ? this.halfBounds : this.bounds;
+            dst.x = bounds.x;
+            dst.y = bounds.y;
+            dst.width = bounds.width;
+            dst.height = bounds.height;
+            return dst;
+        }
+    }
+}
@@ -17,20 +17,59 @@ public class DetectionConfiguration {
     private final int ballMinDist;
     private final int ballParam1;
     private final int ballParam2;
+    private final boolean ballPyramid;
+    private final String ballEngine;
+    private final boolean ballIncremental;
+    private final int ballTileSize;
+    private final int ballChangeThreshold;
+    private final int ballRefreshInterval;
 
     // Robot (Blue)
     private final Scalar lowerRobotThreshold;
     private final Scalar upperRobotThreshold;
     private final int lowerRobotSize;
     private final int upperRobotSize;
+    private final double robotLength;
+    private final boolean robotTracking;
+    private final double robotMaxSpeed;
+    private final String robotEngine;
+    private final int robotMarkerId;
+    private final double robotMarkerSize;
 
     // Obstacles (Red)
     private final Scalar lowerObstacleThreshold;
     private final Scalar upperObstacleThreshold;
     private final double lowerBorderSize;
+    private final boolean borderLock;
+    private final int borderLockFrames;
+    private final double borderLockTolerance;
+    private final int borderValidationInterval;
+    private final boolean borderPyramid;
     private final double lowerCrossSize;
     private final double upperCrossSize;
 
+    // Scheduling
+    private final boolean lutSegmentation;
+    private final boolean parallelDetection;
+    private final boolean pipelinedDetection;
+    private final boolean tiledDetection;
+    private final int tileStrips;
+    private final boolean courseMask;
+    private final int courseMaskMargin;
+    private final boolean backgroundModel;
+    private final String backgroundModelFile;
+    private final int backgroundSetupFrames;
+    private final int backgroundLearnInterval;
+    private final double backgroundLearningRate;
+    private final int backgroundThreshold;
+    private final double robotDetectionRate;
+    private final double ballDetectionRate;
+    private final double borderDetectionRate;
+    private final boolean headless;
+    private final String lensCalibration;
+    private final boolean lensUndistortFrames;
+    private final int overlayRefreshRate;
+
     private DetectionConfiguration() {
         // Balls
         this.lowerWhiteBallThreshold = new Scalar(105, 105, 105);
@@ -44,19 +83,58 @@ public class DetectionConfiguration {
         this.ballMinDist = Integer.parseInt(configs.GlobalConfig.getConfigProperties().getProperty("ballMinDist"));
         this.ballParam1 = Integer.parseInt(configs.GlobalConfig.getConfigProperties().getProperty("ballParam1"));
         this.ballParam2 = Integer.parseInt(configs.GlobalConfig.getConfigProperties().getProperty("ballParam2"));
+        this.ballPyramid = Boolean.parseBoolean(configs.GlobalConfig.getConfigProperties().getProperty("ballPyramid"));
+        this.ballEngine = configs.GlobalConfig.getConfigProperties().getProperty("ballEngine");
+        this.ballIncremental = Boolean.parseBoolean(configs.GlobalConfig.getConfigProperties().getProperty("ballIncremental"));
+        this.ballTileSize = Integer.parseInt(configs.GlobalConfig.getConfigProperties().getProperty("ballTileSize"));
+        this.ballChangeThreshold = Integer.parseInt(configs.GlobalConfig.getConfigProperties().getProperty("ballChangeThreshold"));
+        this.ballRefreshInterval = Integer.parseInt(configs.GlobalConfig.getConfigProperties().getProperty("ballRefreshInterval"));
 
         // Robot
         this.lowerRobotThreshold = new Scalar(130, 80, 0);
         this.upperRobotThreshold = new Scalar(250, 120, 60);
         this.lowerRobotSize = Integer.parseInt(configs.GlobalConfig.getConfigProperties().getProperty("robotSizeLower"));
         this.upperRobotSize = Integer.parseInt(configs.GlobalConfig.getConfigProperties().getProperty("robotSizeUpper"));
+        this.robotLength = Double.parseDouble(configs.GlobalConfig.getConfigProperties().getProperty("robotLength"));
+        this.robotTracking = Boolean.parseBoolean(configs.GlobalConfig.getConfigProperties().getProperty("robotTracking"));
+        this.robotMaxSpeed = Double.parseDouble(configs.GlobalConfig.getConfigProperties().getProperty("robotMaxSpeed"));
+        this.robotEngine = configs.GlobalConfig.getConfigProperties().getProperty("robotEngine");
+        this.robotMarkerId = Integer.parseInt(configs.GlobalConfig.getConfigProperties().getProperty("robotMarkerId"));
+        this.robotMarkerSize = Double.parseDouble(configs.GlobalConfig.getConfigProperties().getProperty("robotMarkerSize"));
 
         // Obstacle
         this.lowerObstacleThreshold = new Scalar(0, 0, 100);
         this.upperObstacleThreshold = new Scalar(60, 60, 255);
         this.lowerBorderSize = Integer.parseInt(configs.GlobalConfig.getConfigProperties().getProperty("borderSizeLower"));
+        this.borderLock = Boolean.parseBoolean(configs.GlobalConfig.getConfigProperties().getProperty("borderLock"));
+        this.borderLockFrames = Integer.parseInt(configs.GlobalConfig.getConfigProperties().getProperty("borderLockFrames"));
+        this.borderLockTolerance = Double.parseDouble(configs.GlobalConfig.getConfigProperties().getProperty("borderLockTolerance"));
+        this.borderValidationInterval = Integer.parseInt(configs.GlobalConfig.getConfigProperties().getProperty("borderValidationInterval"));
+        this.borderPyramid = Boolean.parseBoolean(configs.GlobalConfig.getConfigProperties().getProperty("borderPyramid"));
         this.lowerCrossSize = Integer.parseInt(configs.GlobalConfig.getConfigProperties().getProperty("crossSizeLower"));
         this.upperCrossSize = Integer.parseInt(configs.GlobalConfig.getConfigProperties().getProperty("crossSizeUpper"));
+
+        // Scheduling
+        this.lutSegmentation = Boolean.parseBoolean(configs.GlobalConfig.getConfigProperties().getProperty("lutSegmentation"));
+        this.parallelDetection = Boolean.parseBoolean(configs.GlobalConfig.getConfigProperties().getProperty("parallelDetection"));
+        this.pipelinedDetection = Boolean.parseBoolean(configs.GlobalConfig.getConfigProperties().getProperty("pipelinedDetection"));
+        this.tiledDetection = Boolean.parseBoolean(configs.GlobalConfig.getConfigProperties().getProperty("tiledDetection"));
+        this.tileStrips = Integer.parseInt(configs.GlobalConfig.getConfigProperties().getProperty("tileStrips"));
+        this.courseMask = Boolean.parseBoolean(configs.GlobalConfig.getConfigProperties().getProperty("courseMask"));
+        this.courseMaskMargin = Integer.parseInt(configs.GlobalConfig.getConfigProperties().getProperty("courseMaskMargin"));
+        this.backgroundModel = Boolean.parseBoolean(configs.GlobalConfig.getConfigProperties().getProperty("backgroundModel"));
+        this.backgroundModelFile = configs.GlobalConfig.getConfigProperties().getProperty("backgroundModelFile", "");
+        this.backgroundSetupFrames = Integer.parseInt(configs.GlobalConfig.getConfigProperties().getProperty("backgroundSetupFrames"));
+        this.backgroundLearnInterval = Integer.parseInt(configs.GlobalConfig.getConfigProperties().getProperty("backgroundLearnInterval"));
+        this.backgroundLearningRate = Double.parseDouble(configs.GlobalConfig.getConfigProperties().getProperty("backgroundLearningRate"));
+        this.backgroundThreshold = Integer.parseInt(configs.GlobalConfig.getConfigProperties().getProperty("backgroundThreshold"));
+        this.robotDetectionRate = Double.parseDouble(configs.GlobalConfig.getConfigProperties().getProperty("robotDetectionRate"));
+        this.ballDetectionRate = Double.parseDouble(configs.GlobalConfig.getConfigProperties().getProperty("ballDetectionRate"));
+        this.borderDetectionRate = Double.parseDouble(configs.GlobalConfig.getConfigProperties().getProperty("borderDetectionRate"));
+        this.headless = Boolean.parseBoolean(configs.GlobalConfig.getConfigProperties().getProperty("headless"));
+        this.lensCalibration = configs.GlobalConfig.getConfigProperties().getProperty("lensCalibration", "");
+        this.lensUndistortFrames = Boolean.parseBoolean(configs.GlobalConfig.getConfigProperties().getProperty("lensUndistortFrames"));
+        this.overlayRefreshRate = Integer.parseInt(configs.GlobalConfig.getConfigProperties().getProperty("overlayRefreshRate"));
     }
 
     public static DetectionConfiguration DetectionConfiguration() {
@@ -83,6 +161,45 @@ public class DetectionConfiguration {
         return upperRobotSize;
     }
 
+    /**
+     * @return the distance between the robot markers in cm.
+     */
+    public double getRobotLength() {
+        return robotLength;
+    }
+
+    public boolean isRobotTracking() {
+        return robotTracking;
+    }
+
+    /**
+     * @return the fastest the robot moves in cm/s.
+     */
+    public double getRobotMaxSpeed() {
+        return robotMaxSpeed;
+    }
+
+    /**
+     * @return "markers" to find the robot from its two blue markers, or "aruco" to find it from an ArUco marker.
+     */
+    public String getRobotEngine() {
+        return robotEngine;
+    }
+
+    /**
+     * @return the id of the ArUco marker on the robot.
+     */
+    public int getRobotMarkerId() {
+        return robotMarkerId;
+    }
+
+    /**
+     * @return the side of the ArUco marker on the robot in cm.
+     */
+    public double getRobotMarkerSize() {
+        return robotMarkerSize;
+    }
+
 
     //                  Balls                   //
     public Scalar getLowerWhiteBallThreshold() {
@@ -125,6 +242,42 @@ public class DetectionConfiguration {
         return ballParam2;
     }
 
+    /**
+     * @return true if ball candidates are found at half resolution and refined at full resolution.
+     */
+    public boolean isBallPyramid() {
+        return ballPyramid;
+    }
+
+    /**
+     * @return "hough" to find balls as circles, or "components" to find them as blobs of the right size.
+     */
+    public String getBallEngine() {
+        return ballEngine;
+    }
+
+    /**
+     * @return true if balls are only searched for in the tiles that changed since the last frame.
+     */
+    public boolean isBallIncremental() {
+        return ballIncremental;
+    }
+
+    public int getBallTileSize() {
+        return ballTileSize;
+    }
+
+    public int getBallChangeThreshold() {
+        return ballChangeThreshold;
+    }
+
+    /**
+     * @return the number of frames after which the whole frame is searched for balls again.
+     */
+    public int getBallRefreshInterval() {
+        return ballRefreshInterval;
+    }
+
     //                  Border & Cross          //
     public Scalar getLowerObstacleThreshold() {
         return lowerObstacleThreshold;
@@ -138,6 +291,30 @@ public class DetectionConfiguration {
         return lowerBorderSize;
     }
 
+    public boolean isBorderLock() {
+        return borderLock;
+    }
+
+    public int getBorderLockFrames() {
+        return borderLockFrames;
+    }
+
+    public double getBorderLockTolerance() {
+        return borderLockTolerance;
+    }
+
+    public int getBorderValidationInterval() {
+        return borderValidationInterval;
+    }
+
+    /**
+     * @return true if the border is found at quarter resolution, and its corners refined to sub-pixel accuracy at full
+     * resolution.
+     */
+    public boolean isBorderPyramid() {
+        return borderPyramid;
+    }
+
     public double getLowerCrossSize() {
         return lowerCrossSize;
     }
@@ -145,4 +322,141 @@ public class DetectionConfiguration {
     public double getUpperCrossSize() {
         return upperCrossSize;
     }
+
+    //                  Scheduling              //
+
+    /**
+     * @return true if the ball masks are read from a single lookup table pass over the ball blur.
+     */
+    public boolean isLutSegmentation() {
+        return lutSegmentation;
+    }
+
+    public boolean isParallelDetection() {
+        return parallelDetection;
+    }
+
+    /**
+     * @return true if consecutive frames are preprocessed, detected and published at the same time on separate threads.
+     */
+    public boolean isPipelinedDetection() {
+        return pipelinedDetection;
+    }
+
+    /**
+     * @return true if full frames are thresholded and searched in horizontal strips in parallel.
+     */
+    public boolean isTiledDetection() {
+        return tiledDetection;
+    }
+
+    /**
+     * @return strips per frame when tiled. 0 gives one strip per core.
+     */
+    public int getTileStrips() {
+        return tileStrips;
+    }
+
+    /**
+     * @return true if balls and robot markers are only searched for inside the border, once it is found.
+     */
+    public boolean isCourseMask() {
+        return courseMask;
+    }
+
+    /**
+     * @return pixels around the border corners that still count as inside the course.
+     */
+    public int getCourseMaskMargin() {
+        return courseMaskMargin;
+    }
+
+    /**
+     * @return true if the empty course is learned during setup, and balls and robot markers are only searched for
+     * where the frame differs from it.
+     */
+    public boolean isBackgroundModel() {
+        return backgroundModel;
+    }
+
+    /**
+     * @return path of the image the learned background is kept in between runs. Empty means it is learned every run.
+     */
+    public String getBackgroundModelFile() {
+        return backgroundModelFile;
+    }
+
+    /**
+     * @return frames the background is learned from during setup.
+     */
+    public int getBackgroundSetupFrames() {
+        return backgroundSetupFrames;
+    }
+
+    /**
+     * @return frames between updates of the background after setup.
+     */
+    public int getBackgroundLearnInterval() {
+        return backgroundLearnInterval;
+    }
+
+    /**
+     * @return weight of each update of the background after setup, from 0 to 1.
+     */
+    public double getBackgroundLearningRate() {
+        return backgroundLearningRate;
+    }
+
+    /**
+     * @return difference in any colour channel from the background above which a pixel is foreground.
+     */
+    public int getBackgroundThreshold() {
+        return backgroundThreshold;
+    }
+
+    /**
+     * @return detections of the robot per second. 0 detects it on every frame.
+     */
+    public double getRobotDetectionRate() {
+        return robotDetectionRate;
+    }
+
+    /**
+     * @return detections of the balls per second. 0 detects them on every frame.
+     */
+    public double getBallDetectionRate() {
+        return ballDetectionRate;
+    }
+
+    /**
+     * @return detections of the border and cross per second. 0 detects them on every frame.
+     */
+    public double getBorderDetectionRate() {
+        return borderDetectionRate;
+    }
+
+    public boolean isHeadless() {
+        return headless;
+    }
+
+    /**
+     * @return the file with the lens intrinsics, or an empty string if the lens is not corrected.
+     */
+    public String getLensCalibration() {
+        return lensCalibration;
+    }
+
+    /**
+     * @return true if whole frames are undistorted, false if only the detected points are.
+     */
+    public boolean isLensUndistortFrames() {
+        return lensUndistortFrames;
+    }
+
+    /**
+     * @return milliseconds between overlay frames when headless. 0 if the overlay should not be displayed.
+     */
+    public int getOverlayRefreshRate() {
+        return overlayRefreshRate;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,460 @@
+package vision.detection;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Computes the blurred frames and colour masks the sub detectors need, once per frame.
+ * Variants are computed lazily when first requested and cached until the next frame is set, so a variant no detector
+ * asks for is never computed. All Mats are allocated once and reused between frames.
+ * <br/><br/>
+ * Sub detectors may request variants concurrently. Each variant is guarded by its own lock, so independent variants
+ * are computed in parallel.
+ * <br/><br/>
+ * With lutSegmentation the ball masks are not thresholded one by one. Every pixel of the ball blur is instead
+ * classified once through a ColorLookupTable, and each ball mask is read from the resulting labels. The robot and
+ * obstacle masks are still thresholded from their own blurs, as the ball blur is too coarse for them.
+ * <br/><br/>
+ * With tiledDetection the full resolution variants are computed in horizontal strips in parallel, see FrameStrips.
+ * Filters read the rows around a strip, so the variant is the same as when computed in one piece.
+ * <br/><br/>
+ * With a CourseMask the ball and robot masks are black outside the course, and only computed inside its bounds. The
+ * robot mask has the wider area the markers are seen in, as they are higher than the border.
+ * The blurs and labels are not masked, as the border detection needs the whole frame.
+ * <br/><br/>
+ * With a BackgroundModel that has learned the course, the ball and robot masks are also black where the frame does not
+ * differ from the background.
+ */
+public class FramePreprocessor {
+    private static final Size SMALL_KERNEL = new Size(3, 3);
+    private static final Size MEDIUM_KERNEL = new Size(7, 7);
+    private static final Size LARGE_KERNEL = new Size(11, 11);
+    private static final Size HALF_KERNEL = new Size(5, 5); // pyrDown has already blurred some
+
+    private static final int REGION_VIEWS = 256; // Per thread. Covers the patches of the noisy ball candidates of a frame
+
+    // Label bits of the colour classes
+    private static final int WHITE_BALL = 1, ORANGE_BALL = 2, ROBOT = 4; // Robot only for the object mask
+    private static final int[] CLASSES = {WHITE_BALL, ORANGE_BALL, ROBOT};
+    private static final int OBJECTS = WHITE_BALL | ORANGE_BALL | ROBOT;
+
+    private final DetectionConfiguration config = DetectionConfiguration.DetectionConfiguration();
+
+    private final Mat[] variants = new Mat[FrameVariant.values().length];
+    private final AtomicLongArray computedForFrame = new AtomicLongArray(FrameVariant.values().length); // Read without the locks
+    private final Object[] locks = new Object[FrameVariant.values().length];
+    private final ThreadLocal<Mat[]> regionScratch = // Intermediate region results, one per variant
+            ThreadLocal.withInitial(() -> new Mat[FrameVariant.values().length]);
+    private final ThreadLocal<RegionViews> regionViews = // Regions cut from the frame and the cached variants
+            ThreadLocal.withInitial(() -> new RegionViews(REGION_VIEWS));
+
+    private final FrameStrips strips; // Null when variants are computed in one piece
+    private volatile CourseMask courseMask; // Null if the whole frame is searched
+    private volatile CourseMask.Area courseArea; // Of the current frame. Null until the border is found
+    private volatile BackgroundModel backgroundModel; // Null if the whole course is searched
+    private volatile BackgroundModel.Snapshot background; // Of the current frame. Null until the model is ready
+
+    private final ColorLookupTable lookupTable = new ColorLookupTable();
+    private volatile Mat[] maskTables; // Label to mask tables for Core.LUT, by label bits
+
+    private volatile Mat frame;
+    private volatile long frameNumber = 0;
+    private volatile long timestamp; // System.nanoTime() at which the frame was captured
+
+    public FramePreprocessor() {
+        // The Mats are allocated on first use, as OpenCV might not be loaded yet
+        for (int i = 0; i < this.locks.length; i++)
+            this.locks[i] = new Object();
+
+        this.lookupTable.addClass(WHITE_BALL, config.getLowerWhiteBallThreshold(), config.getUpperWhiteBallThreshold());
+        this.lookupTable.addClass(ORANGE_BALL, config.getLowerOrangeBallThreshold(), config.getUpperOrangeBallThreshold());
+        this.lookupTable.addClass(ROBOT, config.getLowerRobotThreshold(), config.getUpperRobotThreshold());
+
+        this.strips = config.isTiledDetection() ? new FrameStrips(config.getTileStrips()) : null;
+    }
+
+    /**
+     * Sets the frame to derive variants from and invalidates the variants of the previous frame.
+     * Must not be called while sub detectors are reading from the preprocessor.
+     *
+     * @param frame     the new frame. It is not modified.
+     * @param timestamp the System.nanoTime() at which the frame was captured.
+     */
+    public void setFrame(Mat frame, long timestamp) {
+        CourseMask courseMask = this.courseMask;
+        this.courseArea = courseMask != null ? courseMask.getArea(frame.width(), frame.height()) : null;
+        BackgroundModel backgroundModel = this.backgroundModel;
+        BackgroundModel.Snapshot previous = this.background; // Only read by the previous frame
+        this.background = backgroundModel != null ? backgroundModel.getSnapshot(frame.width(), frame.height()) : null;
+        if (previous != null)
+            previous.release();
+        this.frame = frame;
+        this.timestamp = timestamp;
+        this.frameNumber++;
+    }
+
+    /**
+     * Sets a frame captured now.
+     *
+     * @param frame the new frame. It is not modified.
+     */
+    public void setFrame(Mat frame) {
+        setFrame(frame, System.nanoTime());
+    }
+
+    /**
+     * Limits the ball and robot masks to the course, from the next frame on.
+     *
+     * @param courseMask the area of the course, or null to search the whole frame.
+     */
+    public void setCourseMask(CourseMask courseMask) {
+        this.courseMask = courseMask;
+    }
+
+    /**
+     * Limits the ball and robot masks to the foreground, from the next frame on. Until the model is ready they are not
+     * limited.
+     *
+     * @param backgroundModel the background of the course, or null to search the whole course.
+     */
+    public void setBackgroundModel(BackgroundModel backgroundModel) {
+        this.backgroundModel = backgroundModel;
+    }
+
+    /**
+     * @return true if the ball and robot masks of the current frame are black outside the foreground.
+     */
+    public boolean isForegroundMasked() {
+        return this.background != null;
+    }
+
+    /**
+     * Gets the part of a variant that needs to be searched. Outside it a course masked variant is black.
+     *
+     * @param variant the variant to search.
+     * @return the bounds of the course in the variant, or the whole variant if it is not masked or the border has not
+     * been found.
+     */
+    public Rect getSearchBounds(FrameVariant variant) {
+        return getSearchBounds(variant, new Rect());
+    }
+
+    /**
+     * Same as getSearchBounds(variant), without allocating.
+     *
+     * @param variant the variant to search.
+     * @param dst     receives the bounds.
+     * @return dst.
+     */
+    public Rect getSearchBounds(FrameVariant variant, Rect dst) {
+        CourseMask.Area area = this.courseArea;
+        if (area != null && variant == FrameVariant.ROBOT_MASK)
+            return area.getMarkerBounds(dst);
+        if (area != null && isCourseMasked(variant))
+            return area.getBounds(!isFullResolution(variant), dst);
+
+        Mat frame = this.frame;
+        int width = frame.width(), height = frame.height();
+        if (!isFullResolution(variant)) {
+            width = (width + 1) / 2;
+            height = (height + 1) / 2;
+        }
+        if (variant == FrameVariant.FRAME_QUARTER || variant == FrameVariant.OBSTACLE_MASK_QUARTER) {
+            width = (width + 1) / 2;
+            height = (height + 1) / 2;
+        }
+
+        dst.x = 0;
+        dst.y = 0;
+        dst.width = width;
+        dst.height = height;
+        return dst;
+    }
+
+    /**
+     * @return the System.nanoTime() at which the current frame was captured.
+     */
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    /**
+     * @return the unprocessed frame.
+     */
+    public Mat getFrame() {
+        return this.frame;
+    }
+
+    /**
+     * Returns the variant of the current frame, computing it if no one has requested it yet.
+     * The returned Mat is owned by the preprocessor and must not be modified.
+     *
+     * @param variant the derived image to get.
+     * @return the derived image.
+     */
+    public Mat get(FrameVariant variant) {
+        int index = variant.ordinal();
+
+        synchronized (this.locks[index]) {
+            if (this.computedForFrame.get(index) != this.frameNumber) {
+                if (this.variants[index] == null)
+                    this.variants[index] = new Mat();
+
+                boolean masked = this.courseArea != null && isCourseMasked(variant);
+                if (isFullResolution(variant) && (this.strips != null || masked))
+                    computeWithin(variant, getSearchBounds(variant), this.variants[index]);
+                else
+                    compute(variant, null, this.variants[index]);
+                this.computedForFrame.set(index, this.frameNumber);
+            }
+            return this.variants[index];
+        }
+    }
+
+    /**
+     * Returns a region of the variant. If the whole variant is already computed for this frame the region is cut from
+     * it, otherwise only the region is computed. Filters read the pixels around the region, so the result is the same
+     * as cutting it from the whole variant. Reduced resolution variants are always computed whole, and cut from.
+     *
+     * @param variant the derived image to get.
+     * @param region  the region to get, in pixels of the variant: of the frame at full resolution, and of the half or
+     *                quarter frame otherwise. Must lie within the variant.
+     * @param dst     the Mat to store the region in, if it has to be computed.
+     * @return the region of the derived image. Either dst or a view into the cached variant, which is owned by the
+     * preprocessor.
+     */
+    public Mat getRegion(FrameVariant variant, Rect region, Mat dst) {
+        // A region of the reduced frame would otherwise be cut from the full resolution inputs
+        if (!isFullResolution(variant))
+            return this.regionViews.get().of(get(variant), region);
+
+        // Not locked, as strips on the pool must not wait for a variant that is being computed in strips
+        int index = variant.ordinal();
+        if (this.computedForFrame.get(index) == this.frameNumber)
+            return this.regionViews.get().of(this.variants[index], region);
+
+        compute(variant, region, dst);
+
+        return dst;
+    }
+
+    /**
+     * Computes a full resolution variant within bounds, and black outside them. When tiled, the bounds are computed
+     * strip by strip in parallel. The variant it is computed from is computed first, so its regions are cut from it
+     * instead of computing it again for every strip.
+     *
+     * @param variant the variant to compute.
+     * @param bounds  the part of the frame to compute.
+     * @param dst     the Mat to store the variant in.
+     */
+    private void computeWithin(FrameVariant variant, Rect bounds, Mat dst) {
+        FrameVariant input = inputOf(variant);
+        if (input != null)
+            get(input);
+        if (this.background != null && isCourseMasked(variant))
+            get(FrameVariant.FOREGROUND_MASK);
+
+        // Allocated whole, so every region writes into its part of it
+        Mat frame = this.frame;
+        dst.create(frame.height(), frame.width(), isBlur(variant) ? frame.type() : CvType.CV_8UC1);
+        if (bounds.width < frame.width() || bounds.height < frame.height())
+            dst.setTo(Scalar.all(0));
+
+        if (this.strips == null) {
+            Mat dstBounds = dst.submat(bounds);
+            compute(variant, bounds, dstBounds);
+            dstBounds.release();
+            return;
+        }
+
+        this.strips.forEach(this.strips.getCount(bounds.height), index -> {
+            Rect strip = this.strips.getStrip(index, bounds, new Rect());
+            Mat dstStrip = dst.submat(strip);
+            compute(variant, strip, dstStrip);
+            dstStrip.release();
+        });
+    }
+
+    /**
+     * Computes a variant from the frame or a region of it.
+     *
+     * @param variant the variant to compute.
+     * @param region  the region of the frame to compute, or null for the whole frame. The variants it is computed
+     *                from are then cut from the cached variants, or computed for the region only.
+     * @param dst     the Mat to store the variant in.
+     */
+    private void compute(FrameVariant variant, Rect region, Mat dst) {
+        Mat src = region == null ? this.frame : this.regionViews.get().of(this.frame, region);
+
+        switch (variant) {
+            case BLUR_SMALL -> Imgproc.GaussianBlur(src, dst, SMALL_KERNEL, 0);
+            case BLUR_MEDIUM -> Imgproc.GaussianBlur(src, dst, MEDIUM_KERNEL, 7, 0);
+            case BLUR_LARGE -> Imgproc.GaussianBlur(src, dst, LARGE_KERNEL, 0);
+
+            case WHITE_BALL_MASK -> mask(FrameVariant.BLUR_LARGE, FrameVariant.LABELS, WHITE_BALL,
+                    config.getLowerWhiteBallThreshold(), config.getUpperWhiteBallThreshold(), dst, region);
+            case ORANGE_BALL_MASK -> mask(FrameVariant.BLUR_LARGE, FrameVariant.LABELS, ORANGE_BALL,
+                    config.getLowerOrangeBallThreshold(), config.getUpperOrangeBallThreshold(), dst, region);
+            case ROBOT_MASK -> Core.inRange(input(FrameVariant.BLUR_MEDIUM, region),
+                    config.getLowerRobotThreshold(), config.getUpperRobotThreshold(), dst);
+            case OBSTACLE_MASK -> Core.inRange(input(FrameVariant.BLUR_SMALL, region),
+                    config.getLowerObstacleThreshold(), config.getUpperObstacleThreshold(), dst);
+
+            case FRAME_HALF -> Imgproc.pyrDown(src, dst);
+            case BLUR_HALF -> Imgproc.GaussianBlur(input(FrameVariant.FRAME_HALF, region), dst, HALF_KERNEL, 0);
+            case WHITE_BALL_MASK_HALF -> mask(FrameVariant.BLUR_HALF, FrameVariant.LABELS_HALF, WHITE_BALL,
+                    config.getLowerWhiteBallThreshold(), config.getUpperWhiteBallThreshold(), dst, region);
+            case ORANGE_BALL_MASK_HALF -> mask(FrameVariant.BLUR_HALF, FrameVariant.LABELS_HALF, ORANGE_BALL,
+                    config.getLowerOrangeBallThreshold(), config.getUpperOrangeBallThreshold(), dst, region);
+
+            // The ball blur, as only the ball masks and the object mask are read from the labels
+            case LABELS -> this.lookupTable.apply(input(FrameVariant.BLUR_LARGE, region), dst);
+            case LABELS_HALF -> this.lookupTable.apply(input(FrameVariant.BLUR_HALF, region), dst);
+
+            case OBJECT_MASK -> Core.LUT(input(FrameVariant.LABELS, region), maskTable(OBJECTS), dst);
+            // The marker area holds the course, so the foreground covers every masked variant
+            case FOREGROUND_MASK -> this.background.foreground(this.frame, getSearchBounds(FrameVariant.ROBOT_MASK),
+                    region, dst);
+            case FOREGROUND_MASK_HALF -> Imgproc.resize(get(FrameVariant.FOREGROUND_MASK), dst,
+                    new Size((this.frame.width() + 1) / 2, (this.frame.height() + 1) / 2), 0, 0, Imgproc.INTER_NEAREST);
+
+            // The pyramid steps have blurred enough. Thresholded directly, as no other mask is read at this size
+            case FRAME_QUARTER -> Imgproc.pyrDown(input(FrameVariant.FRAME_HALF, region), dst);
+            case OBSTACLE_MASK_QUARTER -> Core.inRange(input(FrameVariant.FRAME_QUARTER, region),
+                    config.getLowerObstacleThreshold(), config.getUpperObstacleThreshold(), dst);
+        }
+
+        // Black outside the course
+        CourseMask.Area area = this.courseArea;
+        if (area != null && isCourseMasked(variant)) {
+            Mat courseMask = variant == FrameVariant.ROBOT_MASK ? area.getMarkerMask()
+                    : area.getMask(!isFullResolution(variant));
+            if (region == null)
+                Core.bitwise_and(dst, courseMask, dst);
+            else {
+                Core.bitwise_and(dst, this.regionViews.get().of(courseMask, region), dst);
+            }
+        }
+
+        // Black where the frame does not differ from the background
+        if (this.background != null && isCourseMasked(variant))
+            Core.bitwise_and(dst, input(isFullResolution(variant) ? FrameVariant.FOREGROUND_MASK
+                    : FrameVariant.FOREGROUND_MASK_HALF, region), dst);
+    }
+
+    /**
+     * @return true if the variant is black outside the course, as only balls and robot markers are searched for in it.
+     */
+    private static boolean isCourseMasked(FrameVariant variant) {
+        return switch (variant) {
+            case WHITE_BALL_MASK, ORANGE_BALL_MASK, ROBOT_MASK, WHITE_BALL_MASK_HALF, ORANGE_BALL_MASK_HALF -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * @return the variant the variant is computed from, or null if it is computed from the frame.
+     */
+    private FrameVariant inputOf(FrameVariant variant) {
+        boolean lut = config.isLutSegmentation();
+        return switch (variant) {
+            case WHITE_BALL_MASK, ORANGE_BALL_MASK -> lut ? FrameVariant.LABELS : FrameVariant.BLUR_LARGE;
+            case ROBOT_MASK -> FrameVariant.BLUR_MEDIUM;
+            case OBSTACLE_MASK -> FrameVariant.BLUR_SMALL;
+            case LABELS -> FrameVariant.BLUR_LARGE;
+            case BLUR_HALF -> FrameVariant.FRAME_HALF;
+            case WHITE_BALL_MASK_HALF, ORANGE_BALL_MASK_HALF -> lut ? FrameVariant.LABELS_HALF : FrameVariant.BLUR_HALF;
+            case LABELS_HALF -> FrameVariant.BLUR_HALF;
+            case OBJECT_MASK -> FrameVariant.LABELS;
+            case FOREGROUND_MASK_HALF -> FrameVariant.FOREGROUND_MASK;
+            case FRAME_QUARTER -> FrameVariant.FRAME_HALF;
+            case OBSTACLE_MASK_QUARTER -> FrameVariant.FRAME_QUARTER;
+            case BLUR_SMALL, BLUR_MEDIUM, BLUR_LARGE, FRAME_HALF, FOREGROUND_MASK -> null;
+        };
+    }
+
+    /**
+     * @return true if the variant has the size of the frame, so a region of the frame can be cut from it.
+     */
+    private static boolean isFullResolution(FrameVariant variant) {
+        return switch (variant) {
+            case FRAME_HALF, BLUR_HALF, WHITE_BALL_MASK_HALF, ORANGE_BALL_MASK_HALF, LABELS_HALF, FOREGROUND_MASK_HALF,
+                 FRAME_QUARTER, OBSTACLE_MASK_QUARTER -> false;
+            default -> true;
+        };
+    }
+
+    private static boolean isBlur(FrameVariant variant) {
+        return variant == FrameVariant.BLUR_SMALL || variant == FrameVariant.BLUR_MEDIUM || variant == FrameVariant.BLUR_LARGE;
+    }
+
+    /**
+     * Computes a colour mask, either by thresholding the blurred frame or by reading the class from the labels.
+     *
+     * @param blur   the blurred frame to threshold.
+     * @param labels the labels to read the class from.
+     * @param bit    the label bit of the class.
+     * @param lower  lower threshold of the class.
+     * @param upper  upper threshold of the class.
+     * @param dst    the Mat to store the mask in.
+     * @param region the region of the frame to compute the mask for, or null for the whole frame.
+     */
+    private void mask(FrameVariant blur, FrameVariant labels, int bit, Scalar lower, Scalar upper, Mat dst, Rect region) {
+        if (config.isLutSegmentation())
+            Core.LUT(input(labels, region), maskTable(bit), dst);
+        else
+            Core.inRange(input(blur, region), lower, upper, dst);
+    }
+
+    /**
+     * @param bits the label bits of a class, or of several classes.
+     * @return the table turning labels into the mask of the classes. Created on first use, as OpenCV must be loaded.
+     */
+    private Mat maskTable(int bits) {
+        Mat[] tables = this.maskTables;
+        if (tables == null) {
+            synchronized (this.lookupTable) {
+                if (this.maskTables == null) {
+                    tables = new Mat[OBJECTS + 1];
+                    for (int bit : CLASSES)
+                        tables[bit] = ColorLookupTable.maskTable(bit);
+                    tables[OBJECTS] = ColorLookupTable.maskTable(OBJECTS);
+                    this.maskTables = tables;
+                }
+                tables = this.maskTables;
+            }
+        }
+        return tables[bits];
+    }
+
+    /**
+     * Gets the variant another variant is computed from.
+     *
+     * @param variant the variant to get.
+     * @param region  the region of the frame to get, or null for the whole frame. The region is cut from the variant if
+     *                it is already computed for this frame, and otherwise computed for the region into a scratch Mat.
+     * @return the whole variant, or the region of it.
+     */
+    private Mat input(FrameVariant variant, Rect region) {
+        if (region == null)
+            return get(variant);
+
+        int index = variant.ordinal();
+        if (isFullResolution(variant) && this.computedForFrame.get(index) == this.frameNumber)
+            return this.regionViews.get().of(this.variants[index], region);
+
+        Mat[] scratch = this.regionScratch.get();
+        if (scratch[variant.ordinal()] == null)
+            scratch[variant.ordinal()] = new Mat();
+
+        compute(variant, region, scratch[variant.ordinal()]);
+        return scratch[variant.ordinal()];
+    }
+}
@@ -0,0 +1,115 @@
+package vision.detection;
+
+import org.opencv.core.Rect;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Splits frames into horizontal strips and processes the strips in parallel, so the cost of a frame is spread over the
+ * cores instead of growing with its resolution on one of them.
+ * <br/><br/>
+ * Strips are full rows of the split part of the frame, as OpenCV stores Mats row by row. A strip of the whole frame is
+ * then a continuous block of memory.
+ * All strips run on one fork-join pool shared by every detector, with one thread per core.
+ */
+public class FrameStrips {
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    private final int count;
+
+    /**
+     * @param count Strips per frame. 0 gives one strip per core.
+     */
+    public FrameStrips(int count) {
+        this.count = count > 0 ? count : POOL.getParallelism();
+    }
+
+    /**
+     * @param height Rows of the frame.
+     * @return the number of strips the frame is split into. Never more than its rows.
+     */
+    public int getCount(int height) {
+        return Math.max(1, Math.min(this.count, height));
+    }
+
+    /**
+     * Gets a strip of a part of the frame. The strips do not overlap, and together cover every row of the part.
+     *
+     * @param index Index of the strip, from the top.
+     * @param area  The part of the frame to split, e.g. the whole frame.
+     * @param dst   Receives the strip.
+     * @return dst.
+     */
+    public Rect getStrip(int index, Rect area, Rect dst) {
+        int count = getCount(area.height);
+        int top = (int) ((long) area.height * index / count), bottom = (int) ((long) area.height * (index + 1) / count);
+
+        dst.x = area.x;
+        dst.y = area.y + top;
+        dst.width = area.width;
+        dst.height = bottom - top;
+        return dst;
+    }
+
+    /**
+     * Widens a strip by a margin above and below, so the objects centered in the strip lie within the widened strip.
+     *
+     * @param strip  The strip to widen.
+     * @param margin Rows to add above and below.
+     * @param area   The part of the frame that was split. The widened strip is kept inside it.
+     * @param dst    Receives the widened strip.
+     * @return dst.
+     */
+    public static Rect widen(Rect strip, int margin, Rect area, Rect dst) {
+        int top = Math.max(area.y, strip.y - margin), bottom = Math.min(area.y + area.height, strip.y + strip.height + margin);
+
+        dst.x = strip.x;
+        dst.y = top;
+        dst.width = strip.width;
+        dst.height = bottom - top;
+        return dst;
+    }
+
+    /**
+     * Runs a task for each strip in parallel, and returns when all of them are done.
+     * A single strip runs on the calling thread.
+     *
+     * @param strips Number of strips.
+     * @param task   Called with the index of each strip.
+     */
+    public void forEach(int strips, IntConsumer task) {
+        if (strips == 1)
+            task.accept(0);
+        else
+            POOL.invoke(new StripTask(task, 0, strips));
+    }
+
+    /**
+     * Runs the task for a range of strips, by splitting the range in half until each half is one strip.
+     */
+    private static class StripTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final IntConsumer task;
+        private final int from, to;
+
+        StripTask(IntConsumer task, int from, int to) {
+            this.task = task;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from == 1) {
+                this.task.accept(this.from);
+                return;
+            }
+
+            int middle = (this.from + this.to) / 2;
+            invokeAll(new StripTask(this.task, this.from, middle), new StripTask(this.task, middle, this.to));
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package vision.detection;
+
+/**
+ * The derived images a FramePreprocessor can compute from a frame.
+ * Each variant is computed at most once per frame, and only if a detector asks for it.
+ */
+public enum FrameVariant {
+    // Blurred frames. The kernels are tuned to each detector
+    BLUR_SMALL,  // 3x3, used for the border and cross
+    BLUR_MEDIUM, // 7x7, used for the robot markers
+    BLUR_LARGE,  // 11x11, used for the balls and the labels
+
+    // Colour masks. White equals true
+    WHITE_BALL_MASK,
+    ORANGE_BALL_MASK,
+    ROBOT_MASK,
+    OBSTACLE_MASK,
+
+    // Colour class bits of each pixel of BLUR_LARGE, when the ball masks come from a ColorLookupTable
+    LABELS,
+
+    // Against the learned background, see BackgroundModel
+    OBJECT_MASK,     // Ball or robot colour. The blobs the size of an object are not learned as background
+    FOREGROUND_MASK, // Differs from the background
+
+    // Half resolution, for finding candidates before refining them at full resolution
+    FRAME_HALF,            // The frame after one pyramid step down
+    BLUR_HALF,             // 5x5, matches BLUR_LARGE at half resolution
+    WHITE_BALL_MASK_HALF,
+    ORANGE_BALL_MASK_HALF,
+    LABELS_HALF,
+    FOREGROUND_MASK_HALF,
+
+    // Quarter resolution, for finding the border before refining its corners at full resolution
+    FRAME_QUARTER,         // The frame after two pyramid steps down
+    OBSTACLE_MASK_QUARTER
+}
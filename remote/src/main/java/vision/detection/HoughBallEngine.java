@@ -0,0 +1,209 @@
+package vision.detection;
+
+import courseObjects.BallColor;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Finds balls as circles on the mask with the gradient Hough transform.
+ * <br/><br/>
+ * In pyramid mode the circles are found on half resolution masks, which costs a quarter of the full resolution Hough
+ * transform. Each candidate is then refined in a small full resolution patch, so the centers keep their accuracy.
+ */
+public class HoughBallEngine implements BallDetectionEngine {
+    private static final float[] NO_CIRCLE = {0, 0, -1}; // Hough never finds a circle with a negative radius
+    private static final int PYRAMID_SCALE = 2; // Half resolution variants are downscaled by two
+    private static final int PYRAMID_MARGIN = 6; // Pixels around a candidate's radius in its full resolution patch
+    // Pixels. Patches are snapped to this grid, so a ball that stays put gets the same patch and its views are reused
+    private static final int PATCH_GRID = 8;
+
+    private Mat circles; // Hough output, reused for both colors
+    private Mat patchMask; // Full resolution mask around a candidate, or of a searched region
+    private float[] circleBuffer = new float[0]; // x, y and radius of each circle
+    private float[] candidateBuffer = new float[0]; // Circles found at half resolution
+    private float[] foundBuffer = new float[0]; // x and y of the balls refined so far
+    private final Rect bounds = new Rect(), patch = new Rect();
+    private final RegionViews maskViews = new RegionViews(2); // The searched part of each color's mask
+    private boolean initial = true;
+
+    private final DetectionConfiguration config = DetectionConfiguration.DetectionConfiguration();
+
+    @Override
+    public FrameVariant getMask(BallColor color) {
+        if (config.isBallPyramid())
+            return color == BallColor.WHITE ? FrameVariant.WHITE_BALL_MASK_HALF : FrameVariant.ORANGE_BALL_MASK_HALF;
+        return fullMask(color);
+    }
+
+    private static FrameVariant fullMask(BallColor color) {
+        return color == BallColor.WHITE ? FrameVariant.WHITE_BALL_MASK : FrameVariant.ORANGE_BALL_MASK;
+    }
+
+    @Override
+    public void findBalls(FramePreprocessor preprocessor, BallColor color, BallCenters centers) {
+        initialize();
+
+        if (config.isBallPyramid()) {
+            findBallsCoarseToFine(preprocessor, color, centers);
+            return;
+        }
+
+        // The masks are made from a blurred frame for better noise reduction. Only the course is searched
+        Rect bounds = preprocessor.getSearchBounds(fullMask(color), this.bounds);
+        Mat mask = this.maskViews.of(preprocessor.get(fullMask(color)), bounds);
+        int count = findCircles(mask, config.getBallMinDist(), config.getBallParam2(),
+                config.getLowerBallSize(), config.getUpperBallSize());
+
+        for (int i = 0; i < count; i++)
+            centers.add(bounds.x + circleBuffer[i * 3], bounds.y + circleBuffer[i * 3 + 1]);
+    }
+
+    @Override
+    public void findBalls(FramePreprocessor preprocessor, BallColor color, Rect region, BallCenters centers) {
+        initialize();
+
+        Mat mask = preprocessor.getRegion(fullMask(color), region, this.patchMask);
+        int count = findCircles(mask, config.getBallMinDist(), config.getBallParam2(),
+                config.getLowerBallSize(), config.getUpperBallSize());
+
+        for (int i = 0; i < count; i++)
+            centers.add(region.x + circleBuffer[i * 3], region.y + circleBuffer[i * 3 + 1]);
+    }
+
+    private void initialize() {
+        if (initial) {
+            circles = new Mat();
+            patchMask = new Mat();
+            initial = false;
+        }
+    }
+
+    /**
+     * Finds candidate balls on the half resolution mask, and reports those confirmed at full resolution.
+     * Each candidate is confirmed by running the Hough transform on a small full resolution patch around it, which gives
+     * the same centers and radii as a full resolution search.
+     *
+     * @param preprocessor Holds the frame and its masks
+     * @param color        Color of the balls to find
+     * @param centers      Receives the center of each ball
+     */
+    private void findBallsCoarseToFine(FramePreprocessor preprocessor, BallColor color, BallCenters centers) {
+        Rect bounds = preprocessor.getSearchBounds(getMask(color), this.bounds); // Only the course is searched
+        Mat mask = this.maskViews.of(preprocessor.get(getMask(color)), bounds);
+
+        // The accumulator gets fewer votes from the shorter edges at half resolution
+        int count = findCircles(mask, (double) config.getBallMinDist() / PYRAMID_SCALE,
+                Math.max(1.0, (double) config.getBallParam2() / PYRAMID_SCALE),
+                config.getLowerBallSize() / PYRAMID_SCALE,
+                (config.getUpperBallSize() + PYRAMID_SCALE - 1) / PYRAMID_SCALE);
+
+        // The patches reuse the circle buffer, so keep the candidates
+        if (candidateBuffer.length < count * 3) {
+            candidateBuffer = new float[count * 3];
+            foundBuffer = new float[count * 2];
+        }
+        System.arraycopy(circleBuffer, 0, candidateBuffer, 0, count * 3);
+        int found = 0;
+
+        Mat frame = preprocessor.getFrame();
+        for (int i = 0; i < count; i++) {
+            double x = (bounds.x + candidateBuffer[i * 3]) * PYRAMID_SCALE;
+            double y = (bounds.y + candidateBuffer[i * 3 + 1]) * PYRAMID_SCALE;
+            double radius = candidateBuffer[i * 3 + 2] * PYRAMID_SCALE;
+
+            // Patch fitting the ball with a margin for the error of the coarse circle
+            int halfSize = (int) Math.ceil(radius) + PYRAMID_MARGIN;
+            int left = Math.max(0, snapDown(x - halfSize));
+            int top = Math.max(0, snapDown(y - halfSize));
+            int right = Math.min(frame.width(), snapUp(x + halfSize + 1));
+            int bottom = Math.min(frame.height(), snapUp(y + halfSize + 1));
+            if (right <= left || bottom <= top)
+                continue;
+
+            this.patch.x = left;
+            this.patch.y = top;
+            this.patch.width = right - left;
+            this.patch.height = bottom - top;
+            Mat patchMask = preprocessor.getRegion(fullMask(color), this.patch, this.patchMask);
+
+            int refinedCount = findCircles(patchMask, config.getBallMinDist(), config.getBallParam2(),
+                    config.getLowerBallSize(), config.getUpperBallSize());
+
+            // Not a ball at full resolution
+            if (refinedCount == 0)
+                continue;
+
+            // The circle closest to the candidate, as the patch may also hold a part of a neighbouring ball
+            int closest = 0;
+            double closestDistance = Double.MAX_VALUE;
+            for (int j = 0; j < refinedCount; j++) {
+                double distance = Math.hypot(left + circleBuffer[j * 3] - x, top + circleBuffer[j * 3 + 1] - y);
+                if (distance < closestDistance) {
+                    closestDistance = distance;
+                    closest = j;
+                }
+            }
+
+            float refinedX = left + circleBuffer[closest * 3], refinedY = top + circleBuffer[closest * 3 + 1];
+
+            // Two candidates can refine to the same ball
+            if (isFound(refinedX, refinedY, found))
+                continue;
+
+            foundBuffer[found * 2] = refinedX;
+            foundBuffer[found * 2 + 1] = refinedY;
+            found++;
+            centers.add(refinedX, refinedY);
+        }
+    }
+
+    private static int snapDown(double coordinate) {
+        return (int) Math.floor(coordinate / PATCH_GRID) * PATCH_GRID;
+    }
+
+    private static int snapUp(double coordinate) {
+        return (int) Math.ceil(coordinate / PATCH_GRID) * PATCH_GRID;
+    }
+
+    /**
+     * @return true if one of the balls refined so far is closer than the minimum distance between balls.
+     */
+    private boolean isFound(double x, double y, int found) {
+        for (int i = 0; i < found; i++)
+            if (Math.hypot(foundBuffer[i * 2] - x, foundBuffer[i * 2 + 1] - y) < config.getBallMinDist())
+                return true;
+        return false;
+    }
+
+    /**
+     * Runs the Hough transform on the mask and reads the circles into the circle buffer.
+     *
+     * @param mask      Mask of one color
+     * @param minDist   Minimum distance between circle centers
+     * @param param2    Accumulator threshold. Lower values find more circles
+     * @param minRadius Smallest radius to find
+     * @param maxRadius Largest radius to find
+     * @return the number of circles found. The buffer holds x, y and radius of each
+     */
+    private int findCircles(Mat mask, double minDist, double param2, int minRadius, int maxRadius) {
+        // HoughCircles leaves the output untouched when nothing is found, so mark the old result as stale
+        if (!circles.empty())
+            circles.put(0, 0, NO_CIRCLE);
+
+        Imgproc.HoughCircles(mask, circles, Imgproc.HOUGH_GRADIENT,
+                config.getBallDp(), minDist, config.getBallParam1(), param2, minRadius, maxRadius);
+
+        if (circles.empty())
+            return 0;
+
+        // Read all circles in one call. The buffer only grows, so it stops allocating once warmed up
+        int count = (int) circles.total();
+        int length = count * circles.channels();
+        if (circleBuffer.length < length)
+            circleBuffer = new float[length];
+        circles.get(0, 0, circleBuffer);
+
+        return circleBuffer[2] < 0 ? 0 : count;
+    }
+}
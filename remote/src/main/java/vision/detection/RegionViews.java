@@ -0,0 +1,62 @@
+package vision.detection;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+/**
+ * Views of regions of Mats, kept so that viewing the same region of the same Mat again allocates no Mat header.
+ * <br/><br/>
+ * A view is reused while the Mat keeps its memory and size. As a view holds on to the memory it was cut from, that
+ * memory is not handed to another Mat while the view is kept, so its address tells the Mat apart. When every view is
+ * taken, the oldest one is replaced.
+ * Not thread safe. Each thread keeps its own views.
+ */
+class RegionViews {
+    private final Mat[] views;
+    private final long[] dataAddrs;
+    private final int[] rows, cols; // Of the Mat the view was cut from
+    private final Rect[] regions;
+    private int oldest;
+
+    /**
+     * @param capacity Views kept at most. Should cover the regions viewed over a frame.
+     */
+    RegionViews(int capacity) {
+        this.views = new Mat[capacity];
+        this.dataAddrs = new long[capacity];
+        this.rows = new int[capacity];
+        this.cols = new int[capacity];
+        this.regions = new Rect[capacity];
+        for (int i = 0; i < capacity; i++)
+            this.regions[i] = new Rect();
+    }
+
+    /**
+     * @param mat    the Mat to view.
+     * @param region the region to view. Must lie within the Mat.
+     * @return a view of the region. It is owned by this and must not be released.
+     */
+    Mat of(Mat mat, Rect region) {
+        long dataAddr = mat.dataAddr();
+        int rows = mat.rows(), cols = mat.cols();
+        for (int i = 0; i < this.views.length; i++)
+            if (this.views[i] != null && this.dataAddrs[i] == dataAddr && this.rows[i] == rows && this.cols[i] == cols
+                    && this.regions[i].equals(region))
+                return this.views[i];
+
+        int i = this.oldest;
+        this.oldest = (i + 1) % this.views.length;
+        if (this.views[i] != null)
+            this.views[i].release();
+
+        this.views[i] = mat.submat(region);
+        this.dataAddrs[i] = dataAddr;
+        this.rows[i] = rows;
+        this.cols[i] = cols;
+        this.regions[i].x = region.x;
+        this.regions[i].y = region.y;
+        this.regions[i].width = region.width;
+        this.regions[i].height = region.height;
+        return this.views[i];
+    }
+}
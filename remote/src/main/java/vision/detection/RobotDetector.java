@@ -4,7 +4,7 @@ import courseObjects.Robot;
 import org.opencv.core.*;
 import org.opencv.imgproc.Imgproc;
 import vision.helperClasses.ContourSet;
-import vision.helperClasses.MaskSet;
+import vision.helperClasses.MaskPublisher;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -13,37 +13,53 @@ import java.util.List;
 
 public class RobotDetector implements SubDetector {
     private Robot robot;
-    List<MaskSet> maskSets = new ArrayList<>();
+    private final MaskPublisher maskPublisher = new MaskPublisher();
 
     private final int NUMBER_OF_MARKERS;
 
     // Initialize all OpenCV objects once to not have memory leaks
-    Mat frameBlur, mask, frameDummy;
+    Mat frameDummy, regionMask;
     private boolean initial = true;
 
+    // Tracking. Markers from the last frame the robot was found in
+    private Point[] lastMarkers;
+    private long lastMarkersTime;
+
+    // Tiled search of the full frame. Null when it is searched in one piece
+    private final FrameStrips frameStrips;
+    private final List<MarkerStrip> markerStrips = new ArrayList<>();
+
+    // Null when the robot is found from its blue markers
+    private final ArucoRobotEngine arucoEngine;
+
+    private final DetectionConfiguration config = DetectionConfiguration.DetectionConfiguration();
+
     public RobotDetector() {
         this.NUMBER_OF_MARKERS = 2;
+        this.frameStrips = config.isTiledDetection() ? new FrameStrips(config.getTileStrips()) : null;
+        this.arucoEngine = switch (config.getRobotEngine()) {
+            case "markers" -> null;
+            case "aruco" -> new ArucoRobotEngine();
+            default -> throw new IllegalArgumentException("Unknown robotEngine: " + config.getRobotEngine());
+        };
     }
 
-    private final DetectionConfiguration config = DetectionConfiguration.DetectionConfiguration();
-
     /**
      * Detects the robot from the frame and stores it in the objects
      *
-     * @param frame The frame to be evaluated.
+     * @param preprocessor Holds the frame to be evaluated and its robot mask.
      * @return a boolean symbolizing if the robot was found or not.
      */
-    public boolean detectRobot(Mat frame) {
+    public boolean detectRobot(FramePreprocessor preprocessor) {
         // Initialize all OpenCV objects once to not have memory leaks
         if (initial) {
-            frameBlur = new Mat();
-            mask = new Mat();
             frameDummy = new Mat();
+            regionMask = new Mat();
 
             initial = false;
         }
 
-        Point[] markers = getRobotMarkers(frame);
+        Point[] markers = getRobotMarkers(preprocessor);
 
         // Store robot if robot markers were found
         if (markers != null)
@@ -53,34 +69,179 @@ public class RobotDetector implements SubDetector {
     }
 
     /**
-     * Finds the coordinates of the robots marker from the frame
+     * Finds the coordinates of the robots marker from the frame.
+     * When tracking, the markers are first searched for in a window around their last position. The full frame is only
+     * searched if they are not found there.
+     * With the aruco robotEngine the markers are the center of the ArUco marker and a point a robot length in front.
      *
-     * @param frame The frame to be evaluated
+     * @param preprocessor Holds the frame to be evaluated
      * @return Return a Point array of length always 2, or null if not found
      */
-    public Point[] getRobotMarkers(Mat frame) {
-        // Blur frame to smooth out color inconsistencies
-        Imgproc.GaussianBlur(frame, frameBlur, new Size(7, 7), 7, 0);
+    public Point[] getRobotMarkers(FramePreprocessor preprocessor) {
+        long now = preprocessor.getTimestamp(); // Frame time, so replays track the same way every run
+        Point[] markers = null;
+
+        if (config.isRobotTracking() && this.lastMarkers != null) {
+            Rect window = getTrackingWindow(preprocessor.getFrame().size(), now);
 
-        // Create a mask to filter out unnecessary contours
-        Core.inRange(frameBlur, config.getLowerRobotThreshold(), config.getUpperRobotThreshold(), mask);
+            if (this.arucoEngine != null) {
+                markers = this.arucoEngine.findRobot(preprocessor.getFrame(), window);
+            } else {
+                // Mask of only the window
+                Mat mask = preprocessor.getRegion(FrameVariant.ROBOT_MASK, window, regionMask);
+                maskPublisher.publish("robotMask", mask);
 
-        // Add mask for debugging
-        maskSets.add(new MaskSet("robotMask", mask));
+                markers = findMarkers(mask, window.tl());
+            }
+        }
+
+        // Fall back to the full frame
+        if (markers == null && this.arucoEngine != null) {
+            // Only the course is searched. The marker is black and white, so no mask is needed
+            markers = this.arucoEngine.findRobot(preprocessor.getFrame(), preprocessor.getSearchBounds(FrameVariant.ROBOT_MASK));
+        } else if (markers == null && this.frameStrips != null) {
+            // The mask is computed whole, in strips as well, so it shares the blur and labels with the other detectors
+            maskPublisher.publish("robotMask", preprocessor.get(FrameVariant.ROBOT_MASK));
+
+            markers = findMarkersInStrips(preprocessor);
+        } else if (markers == null) {
+            // Mask from a blurred frame to filter out unnecessary contours
+            Mat mask = preprocessor.get(FrameVariant.ROBOT_MASK);
+
+            // Add mask for debugging
+            maskPublisher.publish("robotMask", mask);
+
+            // Only the course is searched
+            Rect bounds = preprocessor.getSearchBounds(FrameVariant.ROBOT_MASK);
+            Mat courseMask = mask.submat(bounds);
+            markers = findMarkers(courseMask, bounds.tl());
+            courseMask.release();
+        }
+
+        if (markers != null) {
+            this.lastMarkers = markers;
+            this.lastMarkersTime = now;
+        }
+
+        return markers;
+    }
+
+    /**
+     * Calculates the window the robot markers can be in, from where they were last found.
+     * The window is centered on the big marker. It fits the small marker in any rotation, plus the distance the robot
+     * can drive at max speed since it was last found.
+     *
+     * @param frameSize The size of the frame, to keep the window inside it
+     * @param now       The capture time of the current frame
+     * @return The window to search in
+     */
+    private Rect getTrackingWindow(Size frameSize, long now) {
+        Point center = this.lastMarkers[0], front = this.lastMarkers[1];
+
+        // The markers are a robot length apart, which gives the scale in pixels
+        double markerDistance = Math.sqrt(Math.pow(front.x - center.x, 2) + Math.pow(front.y - center.y, 2));
+        double pixelsPerCm = markerDistance / config.getRobotLength();
+
+        // Never negative, e.g. if the frames come from a source with a different clock
+        double secondsSinceFound = Math.max(0, (now - this.lastMarkersTime) / 1e9);
+        double maxTravel = config.getRobotMaxSpeed() * secondsSinceFound * pixelsPerCm;
+
+        // Half a robot length extra to fit the markers themselves
+        double halfSize = markerDistance * 1.5 + maxTravel;
+
+        int left = (int) Math.max(0, center.x - halfSize);
+        int top = (int) Math.max(0, center.y - halfSize);
+        int right = (int) Math.min(frameSize.width, center.x + halfSize);
+        int bottom = (int) Math.min(frameSize.height, center.y + halfSize);
+
+        return new Rect(left, top, Math.max(1, right - left), Math.max(1, bottom - top));
+    }
+
+    /**
+     * Finds the coordinates of the robots markers from a mask
+     *
+     * @param mask   The robot mask of the frame, or a region of it
+     * @param offset The position of the mask in the frame
+     * @return Return a Point array of length always 2, or null if not found
+     */
+    private Point[] findMarkers(Mat mask, Point offset) {
+        ArrayList<ContourSet> contourSets = new ArrayList<>();
+        findMarkerContours(mask, offset, frameDummy, null, contourSets);
+
+        return selectMarkers(contourSets);
+    }
 
+    /**
+     * Finds the robot markers in horizontal strips of the frame in parallel. Each strip is searched with a margin that
+     * fits the largest marker, and a contour is only kept by the strip the center of its bounding box is in.
+     *
+     * @param preprocessor Holds the frame to be evaluated
+     * @return Return a Point array of length always 2, or null if not found
+     */
+    private Point[] findMarkersInStrips(FramePreprocessor preprocessor) {
+        Rect bounds = preprocessor.getSearchBounds(FrameVariant.ROBOT_MASK); // Only the course is split up
+        int margin = (int) Math.ceil(Math.sqrt(config.getUpperRobotSize())) + 2; // Side of the largest square marker
+
+        int count = this.frameStrips.getCount(bounds.height);
+        while (this.markerStrips.size() < count)
+            this.markerStrips.add(new MarkerStrip());
+
+        this.frameStrips.forEach(count, index -> {
+            MarkerStrip strip = this.markerStrips.get(index);
+            this.frameStrips.getStrip(index, bounds, strip.core);
+            FrameStrips.widen(strip.core, margin, bounds, strip.region);
+
+            Mat mask = preprocessor.getRegion(FrameVariant.ROBOT_MASK, strip.region, strip.mask);
+            strip.contourSets.clear();
+            findMarkerContours(mask, strip.region.tl(), strip.hierarchy, strip.core, strip.contourSets);
+        });
+
+        ArrayList<ContourSet> contourSets = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            contourSets.addAll(this.markerStrips.get(i).contourSets);
+
+        return selectMarkers(contourSets);
+    }
+
+    /**
+     * Finds the contours on a mask that have the size of a robot marker.
+     *
+     * @param mask        The robot mask of the frame, or a region of it
+     * @param offset      The position of the mask in the frame
+     * @param hierarchy   Receives the hierarchy of the contours, which is not used
+     * @param core        Only contours whose bounding box is centered in this part of the frame are kept. Null keeps all
+     * @param contourSets Receives the contours and their areas
+     */
+    private void findMarkerContours(Mat mask, Point offset, Mat hierarchy, Rect core, List<ContourSet> contourSets) {
         // Get Contours
         List<MatOfPoint> contours = new ArrayList<>();
-        Imgproc.findContours(mask, contours, frameDummy, Imgproc.RETR_TREE, Imgproc.CHAIN_APPROX_SIMPLE);
+        Imgproc.findContours(mask, contours, hierarchy, Imgproc.RETR_TREE, Imgproc.CHAIN_APPROX_SIMPLE, offset);
 
         // Get useful contour areas
-        ArrayList<ContourSet> contourSets = new ArrayList<>();
         for (MatOfPoint contour : contours) {
             double area = Imgproc.contourArea(contour);
-            if (area >= config.getLowerRobotSize() && area <= config.getUpperRobotSize()) {
-                contourSets.add(new ContourSet(area, contour));
+            if (area < config.getLowerRobotSize() || area > config.getUpperRobotSize())
+                continue;
+
+            if (core != null) {
+                Rect rect = Imgproc.boundingRect(contour);
+                double centerY = rect.y + rect.height / 2.;
+                if (centerY < core.y || centerY >= core.y + core.height)
+                    continue;
             }
+
+            contourSets.add(new ContourSet(area, contour));
         }
+    }
 
+    /**
+     * Picks the robot markers from the contours of marker size. The biggest is the center marker, and the second
+     * biggest the front marker.
+     *
+     * @param contourSets The contours and their areas
+     * @return Return a Point array of length always 2, or null if not found
+     */
+    private Point[] selectMarkers(List<ContourSet> contourSets) {
         // Exit if there are less than two coordinates
         if (contourSets.size() < this.NUMBER_OF_MARKERS) return null;
 
@@ -118,12 +279,37 @@ public class RobotDetector implements SubDetector {
         return coords;
     }
 
+    /**
+     * A strip of the frame searched on its own thread, with the Mats and results of that strip.
+     */
+    private static class MarkerStrip {
+        final Rect core = new Rect(); // The strip. Only the markers centered in it are kept
+        final Rect region = new Rect(); // The strip with a margin, which is searched
+        final Mat mask = new Mat(), hierarchy = new Mat();
+        final List<ContourSet> contourSets = new ArrayList<>();
+    }
+
+    @Override
+    public boolean detect(FramePreprocessor preprocessor) {
+        return detectRobot(preprocessor);
+    }
+
     public Robot getRobot() {
         return robot;
     }
 
     @Override
-    public List<MaskSet> getMaskSets() {
-        return maskSets;
+    public double getTargetRate() {
+        return DetectionConfiguration.DetectionConfiguration().getRobotDetectionRate();
+    }
+
+    @Override
+    public int getPriority() {
+        return 2; // Highest, as the robot moves the most
+    }
+
+    @Override
+    public MaskPublisher getMaskPublisher() {
+        return maskPublisher;
     }
 }
@@ -1,10 +1,28 @@
 package vision.detection;
 
-import org.opencv.core.Mat;
-import vision.helperClasses.MaskSet;
-
-import java.util.List;
+import vision.helperClasses.MaskPublisher;
 
 public interface SubDetector {
-    List<MaskSet> getMaskSets();
+    /**
+     * Detects the sub detector's objects on the frame and stores them. The frame must not be modified.
+     *
+     * @param preprocessor Holds the frame to be evaluated and its derived images.
+     * @return a boolean symbolizing if objects were found or not.
+     */
+    boolean detect(FramePreprocessor preprocessor);
+
+    /**
+     * @return how many times per second the sub detector should run. 0 runs it on every frame.
+     */
+    double getTargetRate();
+
+    /**
+     * @return the priority of the sub detector. When several are due on the same frame, the highest runs first.
+     */
+    int getPriority();
+
+    /**
+     * @return the publisher of the sub detector's masks. Used for debugging.
+     */
+    MaskPublisher getMaskPublisher();
 }
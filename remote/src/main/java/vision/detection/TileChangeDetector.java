@@ -0,0 +1,163 @@
+package vision.detection;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.Arrays;
+
+/**
+ * Finds the tiles of the frame that changed since they were last searched, from a cheap difference of shrunk frames.
+ * <br/><br/>
+ * The frame is halved three times by area averaging, so each cell of the small frame is the mean of 8x8 pixels, which
+ * also averages out the camera noise. Halving is several times faster than one resize by eight.
+ * A tile has changed if one of its cells differs from the reference by more than the threshold in any channel. The
+ * reference of a tile is only updated when the tile is reported as changed, so slow changes add up until the tile is
+ * searched again.
+ */
+public class TileChangeDetector {
+    private static final int HALVINGS = 3;
+    public static final int CELL_SIZE = 1 << HALVINGS; // Pixels per side of a cell of the small frame
+
+    private final int tileCells; // Cells per side of a tile
+    private final int threshold;
+
+    private final Mat[] levels = new Mat[HALVINGS]; // The frame halved once, twice and three times
+    private final Size levelSize = new Size();
+    private byte[] current = new byte[0], reference = new byte[0];
+    private boolean[] changed = new boolean[0];
+    private int smallWidth, smallHeight, columns, rows, changedCount;
+    private boolean hasReference = false;
+
+    /**
+     * @param tileSize  Pixels per side of a tile. Rounded down to a multiple of the cell size.
+     * @param threshold Smallest difference of a cell's channel that marks its tile as changed.
+     */
+    public TileChangeDetector(int tileSize, int threshold) {
+        this.tileCells = Math.max(1, tileSize / CELL_SIZE);
+        this.threshold = threshold;
+    }
+
+    /**
+     * Compares the frame to the reference and marks the tiles that changed.
+     * Every tile is marked on the first frame, and when the frame size changes.
+     *
+     * @param frame BGR frame
+     * @param all   Mark every tile as changed, and take the whole frame as the new reference
+     * @return the number of changed tiles
+     */
+    public int update(Mat frame, boolean all) {
+        if (this.levels[0] == null)
+            for (int i = 0; i < HALVINGS; i++)
+                this.levels[i] = new Mat();
+
+        Mat level = frame;
+        for (int i = 0; i < HALVINGS; i++) {
+            this.levelSize.width = (level.width() + 1) / 2;
+            this.levelSize.height = (level.height() + 1) / 2;
+            Imgproc.resize(level, this.levels[i], this.levelSize, 0, 0, Imgproc.INTER_AREA);
+            level = this.levels[i];
+        }
+
+        int width = level.width(), height = level.height();
+        if (width != this.smallWidth || height != this.smallHeight) {
+            this.smallWidth = width;
+            this.smallHeight = height;
+            this.columns = (width + this.tileCells - 1) / this.tileCells;
+            this.rows = (height + this.tileCells - 1) / this.tileCells;
+            this.current = new byte[width * height * 3];
+            this.reference = new byte[width * height * 3];
+            this.changed = new boolean[this.columns * this.rows];
+            this.hasReference = false;
+        }
+
+        level.get(0, 0, this.current);
+
+        if (all || !this.hasReference) {
+            System.arraycopy(this.current, 0, this.reference, 0, this.current.length);
+            Arrays.fill(this.changed, true);
+            this.hasReference = true;
+            return this.changedCount = this.changed.length;
+        }
+
+        this.changedCount = 0;
+        for (int row = 0; row < this.rows; row++) {
+            for (int column = 0; column < this.columns; column++) {
+                boolean tileChanged = isTileChanged(column, row);
+                this.changed[row * this.columns + column] = tileChanged;
+
+                if (tileChanged) {
+                    copyTileToReference(column, row);
+                    this.changedCount++;
+                }
+            }
+        }
+        return this.changedCount;
+    }
+
+    /**
+     * @return true if any cell of the tile differs from the reference by more than the threshold.
+     */
+    private boolean isTileChanged(int column, int row) {
+        int right = Math.min(this.smallWidth, (column + 1) * this.tileCells) * 3;
+        int bottom = Math.min(this.smallHeight, (row + 1) * this.tileCells);
+
+        for (int y = row * this.tileCells; y < bottom; y++) {
+            int rowStart = y * this.smallWidth * 3;
+            for (int i = rowStart + column * this.tileCells * 3; i < rowStart + right; i++) {
+                int difference = (this.current[i] & 0xFF) - (this.reference[i] & 0xFF);
+                if (difference > this.threshold || -difference > this.threshold)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private void copyTileToReference(int column, int row) {
+        int left = column * this.tileCells * 3;
+        int length = Math.min(this.smallWidth, (column + 1) * this.tileCells) * 3 - left;
+        int bottom = Math.min(this.smallHeight, (row + 1) * this.tileCells);
+
+        for (int y = row * this.tileCells; y < bottom; y++)
+            System.arraycopy(this.current, y * this.smallWidth * 3 + left, this.reference, y * this.smallWidth * 3 + left, length);
+    }
+
+    /**
+     * @return true if the tile changed in the last update.
+     */
+    public boolean isChanged(int column, int row) {
+        return this.changed[row * this.columns + column];
+    }
+
+    /**
+     * @return true if the tile holding the frame pixel changed in the last update.
+     */
+    public boolean isChangedAt(double x, double y) {
+        int column = Math.min(this.columns - 1, Math.max(0, (int) (x / getTileSize())));
+        int row = Math.min(this.rows - 1, Math.max(0, (int) (y / getTileSize())));
+        return isChanged(column, row);
+    }
+
+    /**
+     * @return pixels per side of a tile.
+     */
+    public int getTileSize() {
+        return this.tileCells * CELL_SIZE;
+    }
+
+    public int getColumns() {
+        return this.columns;
+    }
+
+    public int getRows() {
+        return this.rows;
+    }
+
+    public int getTileCount() {
+        return this.columns * this.rows;
+    }
+
+    public int getChangedCount() {
+        return this.changedCount;
+    }
+}
@@ -0,0 +1,73 @@
+package vision.helperClasses;
+
+import org.opencv.core.Mat;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Debugging surface for the masks of a sub detector. Each mask name has one slot, so the number of stored masks is
+ * fixed by the names used.
+ * <br/><br/>
+ * Masks are only stored while a viewer is subscribed. Publishing copies the mask into a Mat owned by the slot, so the
+ * detector can keep reusing its own Mats. The slot Mats are released when the viewer unsubscribes.
+ */
+public class MaskPublisher {
+    private final Map<String, MaskSet> slots = new LinkedHashMap<>();
+    private volatile boolean subscribed = false;
+
+    /**
+     * Starts storing published masks.
+     */
+    public synchronized void subscribe() {
+        this.subscribed = true;
+    }
+
+    /**
+     * Stops storing published masks and releases the stored ones.
+     */
+    public synchronized void unsubscribe() {
+        this.subscribed = false;
+
+        for (MaskSet slot : this.slots.values())
+            slot.getMask().release();
+        this.slots.clear();
+    }
+
+    public boolean isSubscribed() {
+        return this.subscribed;
+    }
+
+    /**
+     * Copies the mask into its slot. Does nothing if no viewer is subscribed.
+     *
+     * @param maskName the name of the mask, used as its key and window title.
+     * @param mask     the mask to copy.
+     */
+    public void publish(String maskName, Mat mask) {
+        if (!this.subscribed) return; // Avoid locking when debugging is off
+
+        synchronized (this) {
+            if (!this.subscribed) return;
+
+            MaskSet slot = this.slots.get(maskName);
+            if (slot == null) {
+                slot = new MaskSet(maskName, new Mat());
+                this.slots.put(maskName, slot);
+            }
+
+            mask.copyTo(slot.getMask());
+        }
+    }
+
+    /**
+     * Runs the action on every stored mask. Masks are not written while the action runs.
+     *
+     * @param action the action to run on each mask.
+     */
+    public synchronized void forEachMask(Consumer<MaskSet> action) {
+        for (MaskSet slot : this.slots.values())
+            action.accept(slot);
+    }
+}
@@ -0,0 +1,114 @@
+package courseObjects;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Point;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class BallTrackerTest {
+
+    List<Ball> balls;
+    BallTracker tracker;
+
+    @BeforeEach
+    void setup() {
+        balls = new ArrayList<>();
+        tracker = new BallTracker(balls, 6, 3, 2);
+    }
+
+    static List<Ball> frame(Ball... balls) {
+        return List.of(balls);
+    }
+
+    static Ball white(double x, double y) {
+        return new Ball(new Point(x, y), BallColor.WHITE, null);
+    }
+
+    static Ball orange(double x, double y) {
+        return new Ball(new Point(x, y), BallColor.ORANGE, null);
+    }
+
+    @Test
+    void confirmsBallAfterEnoughFrames() {
+        tracker.update(frame(white(10, 10)));
+        tracker.update(frame(white(10, 10)));
+        Assertions.assertEquals(0, balls.size());
+
+        tracker.update(frame(white(10, 10)));
+        Assertions.assertEquals(1, balls.size());
+    }
+
+    @Test
+    void ignoresFlickeringDetection() {
+        tracker.update(frame(white(10, 10)));
+        tracker.update(frame());
+        tracker.update(frame(white(10, 10)));
+        tracker.update(frame(white(10, 10)));
+
+        Assertions.assertEquals(0, balls.size());
+    }
+
+    @Test
+    void keepsBallAndIdWhileItMoves() {
+        for (int i = 0; i < 3; i++)
+            tracker.update(frame(white(10, 10), orange(50, 50)));
+        Ball tracked = balls.get(0);
+        int id = tracked.getId();
+
+        tracker.update(frame(white(14, 12), orange(50, 50)));
+        tracker.update(frame(white(18, 14), orange(50, 50)));
+
+        Assertions.assertEquals(2, balls.size());
+        Assertions.assertSame(tracked, balls.get(0));
+        Assertions.assertEquals(id, balls.get(0).getId());
+        Assertions.assertEquals(18, balls.get(0).getCenter().x);
+        Assertions.assertNotEquals(balls.get(0).getId(), balls.get(1).getId());
+    }
+
+    @Test
+    void doesNotMatchOtherColorOrFarBall() {
+        for (int i = 0; i < 3; i++)
+            tracker.update(frame(white(10, 10)));
+        int id = balls.get(0).getId();
+
+        // An orange ball in the same place and a white ball beyond the gate are new balls
+        for (int i = 0; i < 3; i++)
+            tracker.update(frame(orange(10, 10), white(30, 10)));
+
+        Assertions.assertEquals(2, balls.size());
+        for (Ball ball : balls)
+            Assertions.assertNotEquals(id, ball.getId());
+    }
+
+    @Test
+    void retiresBallAfterMissedFrames() {
+        for (int i = 0; i < 3; i++)
+            tracker.update(frame(white(10, 10)));
+
+        tracker.update(frame());
+        tracker.update(frame());
+        Assertions.assertEquals(1, balls.size());
+
+        tracker.update(frame());
+        Assertions.assertEquals(0, balls.size());
+    }
+
+    @Test
+    void asFoundPublishesAndRetiresAtOnce() {
+        for (int i = 0; i < 3; i++)
+            tracker.update(frame(white(10, 10)));
+        int id = balls.get(0).getId();
+
+        // A requested full search is taken as it is, but a ball it finds again keeps its id
+        tracker.update(frame(white(11, 10), orange(50, 50)), true);
+        Assertions.assertEquals(2, balls.size());
+        Assertions.assertEquals(id, balls.get(0).getId());
+
+        tracker.update(frame(orange(50, 50)), true);
+        Assertions.assertEquals(1, balls.size());
+        Assertions.assertEquals(BallColor.ORANGE, balls.get(0).getColor());
+    }
+}
@@ -0,0 +1,95 @@
+package vision;
+
+import nu.pattern.OpenCV;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+
+class CoordinateMapperTest {
+    static final double WIDTH = 169, HEIGHT = 123.7, BORDER_HEIGHT = 7, CAMERA_HEIGHT = 184;
+    static final Point CAMERA = new Point(WIDTH / 2, HEIGHT / 2);
+    static final double TILT = Math.toRadians(8), FOCAL = 900;
+
+    @BeforeAll
+    static void loadOpenCV() {
+        OpenCV.loadLocally();
+    }
+
+    /**
+     * Projects a course point to a pixel of a pinhole camera above the camera point, tilted about the x-axis.
+     */
+    static Point project(double x, double y, double z) {
+        double cx = x - CAMERA.x, cy = y - CAMERA.y, cz = CAMERA_HEIGHT - z;
+        double ty = cy * Math.cos(TILT) - cz * Math.sin(TILT);
+        double tz = cy * Math.sin(TILT) + cz * Math.cos(TILT);
+        return new Point(640 + FOCAL * cx / tz, 360 + FOCAL * ty / tz);
+    }
+
+    static CoordinateMapper mapper() {
+        Point[] corners = {project(0, 0, BORDER_HEIGHT), project(WIDTH, 0, BORDER_HEIGHT),
+                project(0, HEIGHT, BORDER_HEIGHT), project(WIDTH, HEIGHT, BORDER_HEIGHT)};
+        return new CoordinateMapper(corners, WIDTH, HEIGHT, BORDER_HEIGHT, CAMERA, CAMERA_HEIGHT, null);
+    }
+
+    @Test
+    void recoversPointsSeenByTiltedCamera() {
+        CoordinateMapper mapper = mapper();
+
+        for (double height : new double[]{0, 2, 4, 7, 20})
+            for (Point point : new Point[]{new Point(10, 10), new Point(150, 20), new Point(84, 61), new Point(30, 110)}) {
+                Point actual = mapper.toCourse(project(point.x, point.y, height), height);
+
+                Assertions.assertEquals(point.x, actual.x, 1e-4); // The corners are passed as floats
+                Assertions.assertEquals(point.y, actual.y, 1e-4);
+            }
+    }
+
+    @Test
+    void bulkMatchesSinglePoints() {
+        CoordinateMapper mapper = mapper();
+        double[] points = {100, 100, 640, 360, 1000, 650};
+
+        double[] course = new double[points.length];
+        mapper.toCourse(points, course, 3, 4);
+
+        for (int i = 0; i < 3; i++) {
+            Point expected = mapper.toCourse(new Point(points[i * 2], points[i * 2 + 1]), 4);
+            Assertions.assertEquals(expected.x, course[i * 2], 1e-6);
+            Assertions.assertEquals(expected.y, course[i * 2 + 1], 1e-6);
+        }
+    }
+
+    @Test
+    void rectifiesCornersToTheirCoursePositions() {
+        CoordinateMapper mapper = mapper();
+
+        // A frame where each pixel holds its own x, so the rectified view shows where it was sampled from
+        Mat frame = new Mat(720, 1280, CvType.CV_32F);
+        float[] row = new float[1280];
+        for (int x = 0; x < row.length; x++)
+            row[x] = x;
+        for (int y = 0; y < 720; y++)
+            frame.put(y, 0, row);
+
+        Mat rectified = new Mat();
+        mapper.rectify(frame, rectified, 2, 5);
+
+        Assertions.assertEquals(Math.ceil((WIDTH + 10) * 2), rectified.cols());
+        Assertions.assertEquals(project(WIDTH, HEIGHT, BORDER_HEIGHT).x,
+                rectified.get((int) ((HEIGHT + 5) * 2), (int) ((WIDTH + 5) * 2))[0], 1);
+    }
+
+    @Test
+    void isCalibratedForSameCorners() {
+        CoordinateMapper mapper = mapper();
+        Point[] corners = {project(0, 0, BORDER_HEIGHT), project(WIDTH, 0, BORDER_HEIGHT),
+                project(0, HEIGHT, BORDER_HEIGHT), project(WIDTH, HEIGHT, BORDER_HEIGHT)};
+
+        Assertions.assertTrue(mapper.isCalibratedFor(corners));
+        corners[3].x++;
+        Assertions.assertFalse(mapper.isCalibratedFor(corners));
+    }
+}
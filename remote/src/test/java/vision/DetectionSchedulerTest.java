@@ -0,0 +1,87 @@
+package vision;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import vision.detection.FramePreprocessor;
+import vision.detection.SubDetector;
+import vision.helperClasses.MaskPublisher;
+
+import java.util.List;
+
+class DetectionSchedulerTest {
+    static final long FRAME = 33_000_000;
+
+    record FakeDetector(double rate, int priority) implements SubDetector {
+        public boolean detect(FramePreprocessor preprocessor) {
+            return true;
+        }
+
+        public double getTargetRate() {
+            return rate;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        public MaskPublisher getMaskPublisher() {
+            return null;
+        }
+    }
+
+    final SubDetector robot = new FakeDetector(0, 2);
+    final SubDetector balls = new FakeDetector(10, 1);
+    final SubDetector border = new FakeDetector(2, 0);
+
+    @Test
+    void runsEveryFrameDetectorOnEveryFrame() {
+        DetectionScheduler scheduler = new DetectionScheduler(List.of(border, balls, robot));
+
+        int robotRuns = 0, ballRuns = 0, borderRuns = 0;
+        for (int frame = 0; frame < 30; frame++) {
+            List<SubDetector> scheduled = scheduler.schedule(frame * FRAME);
+            Assertions.assertEquals(robot, scheduled.get(0));
+            Assertions.assertTrue(scheduled.size() <= 2);
+
+            if (scheduled.contains(robot)) robotRuns++;
+            if (scheduled.contains(balls)) ballRuns++;
+            if (scheduled.contains(border)) borderRuns++;
+        }
+
+        // Roughly a second of frames. The border waits a frame the first time, as the balls go first
+        Assertions.assertEquals(30, robotRuns);
+        Assertions.assertEquals(10, ballRuns);
+        Assertions.assertEquals(2, borderRuns);
+    }
+
+    @Test
+    void slowFramesDoNotStarveLowerPriority() {
+        DetectionScheduler scheduler = new DetectionScheduler(List.of(robot, balls, border));
+        long slowFrame = 100_000_000; // 10 fps, as fast as the balls want to run
+
+        int ballRuns = 0, borderRuns = 0;
+        for (int frame = 0; frame < 30; frame++) {
+            List<SubDetector> scheduled = scheduler.schedule(frame * slowFrame);
+            if (scheduled.contains(balls)) ballRuns++;
+            if (scheduled.contains(border)) borderRuns++;
+        }
+
+        // Three seconds. The border keeps its rate, and the balls get the frames left over
+        Assertions.assertEquals(6, borderRuns);
+        Assertions.assertEquals(24, ballRuns);
+    }
+
+    @Test
+    void requestedDetectorRunsOnNextFrame() {
+        DetectionScheduler scheduler = new DetectionScheduler(List.of(robot, balls, border));
+        scheduler.schedule(0);
+        scheduler.schedule(FRAME);
+
+        // Border and balls are not due, but the request goes ahead of them
+        Assertions.assertEquals(1, scheduler.request(balls));
+        Assertions.assertEquals(List.of(robot, balls), scheduler.schedule(2 * FRAME));
+        Assertions.assertTrue(scheduler.isRequestedRun(balls));
+        Assertions.assertEquals(List.of(robot), scheduler.schedule(3 * FRAME));
+        Assertions.assertFalse(scheduler.isRequestedRun(balls));
+    }
+}
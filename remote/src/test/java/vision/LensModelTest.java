@@ -0,0 +1,75 @@
+package vision;
+
+import nu.pattern.OpenCV;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.imgproc.Moments;
+
+import java.io.File;
+import java.io.IOException;
+
+class LensModelTest {
+    static final int WIDTH = 320, HEIGHT = 240;
+    static final double[] CAMERA = {300, 0, 160, 0, 300, 120, 0, 0, 1};
+    static final double[] BARREL = {-0.3, 0.1, 0, 0, 0};
+
+    @BeforeAll
+    static void loadOpenCV() {
+        OpenCV.loadLocally();
+    }
+
+    @Test
+    void loadsWhatWasSaved(@TempDir File directory) throws IOException {
+        String path = new File(directory, "lens.xml").getPath();
+        new LensModel(CAMERA, BARREL, WIDTH, HEIGHT, 0.25).save(path);
+
+        LensModel lens = LensModel.load(path);
+        Assertions.assertEquals(WIDTH, lens.getWidth());
+        Assertions.assertEquals(HEIGHT, lens.getHeight());
+        Assertions.assertEquals(0.25, lens.getError());
+
+        Point expected = new LensModel(CAMERA, BARREL, WIDTH, HEIGHT, 0.25).undistort(new Point(10, 20));
+        Point actual = lens.undistort(new Point(10, 20));
+        Assertions.assertEquals(expected.x, actual.x, 1e-9);
+        Assertions.assertEquals(expected.y, actual.y, 1e-9);
+    }
+
+    @Test
+    void undistortsPointsLikeOpenCV() {
+        LensModel lens = new LensModel(CAMERA, BARREL, WIDTH, HEIGHT, 0);
+        Mat camera = new Mat(3, 3, CvType.CV_64F), distortion = new Mat(1, BARREL.length, CvType.CV_64F);
+        camera.put(0, 0, CAMERA);
+        distortion.put(0, 0, BARREL);
+
+        for (Point pixel : new Point[]{new Point(5.5, 7.25), new Point(160, 120), new Point(300.7, 30.1)}) {
+            MatOfPoint2f expected = new MatOfPoint2f();
+            Calib3d.undistortPointsIter(new MatOfPoint2f(pixel), expected, camera, distortion, new Mat(), camera,
+                    new TermCriteria(TermCriteria.COUNT + TermCriteria.EPS, 20, 1e-4));
+
+            Point actual = lens.undistort(pixel);
+            Assertions.assertEquals(expected.toArray()[0].x, actual.x, 0.05);
+            Assertions.assertEquals(expected.toArray()[0].y, actual.y, 0.05);
+        }
+    }
+
+    @Test
+    void undistortedFrameMatchesUndistortedPoints() {
+        LensModel lens = new LensModel(CAMERA, BARREL, WIDTH, HEIGHT, 0);
+        Point pixel = new Point(40, 50);
+
+        Mat frame = Mat.zeros(HEIGHT, WIDTH, CvType.CV_8U);
+        Imgproc.circle(frame, pixel, 3, new Scalar(255), -1);
+        Mat undistorted = new Mat();
+        lens.undistort(frame, undistorted);
+
+        Moments moments = Imgproc.moments(undistorted);
+        Point expected = lens.undistort(pixel);
+        Assertions.assertEquals(expected.x, moments.m10 / moments.m00, 0.5);
+        Assertions.assertEquals(expected.y, moments.m01 / moments.m00, 0.5);
+    }
+}
@@ -0,0 +1,100 @@
+package vision.capture;
+
+import nu.pattern.OpenCV;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+
+class FrameBufferTest {
+    FrameBuffer frameBuffer;
+
+    @BeforeAll
+    static void loadOpenCV() {
+        OpenCV.loadLocally();
+    }
+
+    @BeforeEach
+    void setup() {
+        frameBuffer = new FrameBuffer();
+    }
+
+    /**
+     * Writes a 1x1 frame with the given value and publishes it.
+     */
+    private void publishFrame(int value) throws InterruptedException {
+        Mat writeFrame = frameBuffer.getWriteFrame();
+        writeFrame.create(1, 1, CvType.CV_8UC1);
+        writeFrame.setTo(new Scalar(value));
+        frameBuffer.publish(System.nanoTime());
+    }
+
+    @Test
+    void takesNewestFrame() throws InterruptedException {
+        publishFrame(1);
+        publishFrame(2);
+        publishFrame(3);
+
+        Mat frame = frameBuffer.takeLatest();
+        Assertions.assertEquals(3, frame.get(0, 0)[0]);
+
+        // Two frames were never taken
+        Assertions.assertEquals(3, frameBuffer.getPublishedFrames());
+        Assertions.assertEquals(2, frameBuffer.getDroppedFrames());
+        Assertions.assertEquals(1, frameBuffer.getTakenFrames());
+    }
+
+    @Test
+    void readFrameIsNotOverwritten() throws InterruptedException {
+        publishFrame(1);
+        Mat frame = frameBuffer.takeLatest();
+
+        // The producer keeps writing while the consumer holds the frame
+        publishFrame(2);
+        publishFrame(3);
+        Assertions.assertEquals(1, frame.get(0, 0)[0]);
+
+        Assertions.assertEquals(3, frameBuffer.takeLatest().get(0, 0)[0]);
+    }
+
+    @Test
+    void reusesPooledMats() throws InterruptedException {
+        publishFrame(1);
+        Mat first = frameBuffer.takeLatest();
+        publishFrame(2);
+        Mat second = frameBuffer.takeLatest();
+        publishFrame(3);
+        Mat third = frameBuffer.takeLatest();
+        publishFrame(4);
+        Mat fourth = frameBuffer.takeLatest();
+
+        // Only three Mats exist, so the fourth frame reuses one of them
+        Assertions.assertTrue(fourth == first || fourth == second || fourth == third);
+        Assertions.assertNotSame(third, fourth);
+    }
+
+    @Test
+    void losslessKeepsEveryFrame() throws InterruptedException {
+        frameBuffer = new FrameBuffer(true);
+
+        // The producer waits for the consumer instead of dropping frames
+        Thread producer = new Thread(() -> {
+            try {
+                for (int i = 1; i <= 5; i++)
+                    publishFrame(i);
+            } catch (InterruptedException ignored) {
+            }
+            frameBuffer.close();
+        });
+        producer.start();
+
+        for (int i = 1; i <= 5; i++)
+            Assertions.assertEquals(i, frameBuffer.takeLatest().get(0, 0)[0]);
+
+        Assertions.assertNull(frameBuffer.takeLatest());
+        Assertions.assertEquals(0, frameBuffer.getDroppedFrames());
+    }
+}
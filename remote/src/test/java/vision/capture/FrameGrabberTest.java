@@ -0,0 +1,65 @@
+package vision.capture;
+
+import nu.pattern.OpenCV;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Mat;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class FrameGrabberTest {
+    @BeforeAll
+    static void loadOpenCV() {
+        OpenCV.loadLocally();
+    }
+
+    /**
+     * A camera that is unplugged, so every read fails at once.
+     */
+    static class UnpluggedCamera implements FrameSource {
+        final AtomicInteger reads = new AtomicInteger();
+
+        @Override
+        public boolean read(Mat frame) {
+            this.reads.incrementAndGet();
+            return false;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return 0;
+        }
+
+        @Override
+        public boolean isLive() {
+            return true;
+        }
+
+        @Override
+        public boolean isRealtime() {
+            return true;
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    @Test
+    void failingCameraEndsCapture() {
+        UnpluggedCamera camera = new UnpluggedCamera();
+        FrameGrabber grabber = new FrameGrabber(camera);
+        grabber.start();
+
+        // The consumer is released instead of waiting forever, and the reads are spaced out instead of spinning
+        long start = System.nanoTime();
+        Mat frame = Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), grabber::grab);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        Assertions.assertNull(frame);
+        Assertions.assertEquals(FrameGrabber.MAX_READ_FAILURES, camera.reads.get());
+        Assertions.assertTrue(seconds >= (FrameGrabber.MAX_READ_FAILURES - 1) * FrameGrabber.READ_RETRY_DELAY / 1000. * 0.9);
+    }
+}
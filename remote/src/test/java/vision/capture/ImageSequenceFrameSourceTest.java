@@ -0,0 +1,42 @@
+package vision.capture;
+
+import nu.pattern.OpenCV;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Mat;
+
+class ImageSequenceFrameSourceTest {
+    static final String IMAGE = "src/test/java/resources/courseTest.png";
+
+    @BeforeAll
+    static void loadOpenCV() {
+        OpenCV.loadLocally();
+    }
+
+    @Test
+    void endsAfterLastImage() {
+        FrameSource source = new ImageSequenceFrameSource(IMAGE, 30, false, false);
+        Mat frame = new Mat();
+
+        Assertions.assertTrue(source.read(frame));
+        Assertions.assertEquals(1028, frame.width());
+        Assertions.assertFalse(source.read(frame));
+        source.release();
+    }
+
+    @Test
+    void loopsAtRecordedTimeSteps() {
+        FrameSource source = new ImageSequenceFrameSource(IMAGE, 20, false, true);
+        Mat frame = new Mat();
+
+        Assertions.assertTrue(source.read(frame));
+        long first = source.getTimestamp();
+        Assertions.assertTrue(source.read(frame));
+        Assertions.assertTrue(source.read(frame));
+
+        // 20 FPS gives 50 ms between frames, however fast they are read
+        Assertions.assertEquals(100_000_000, source.getTimestamp() - first);
+        source.release();
+    }
+}
@@ -0,0 +1,86 @@
+package vision.detection;
+
+import nu.pattern.OpenCV;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.Objdetect;
+
+class ArucoRobotEngineTest {
+    @BeforeAll
+    static void loadOpenCV() {
+        OpenCV.loadLocally();
+    }
+
+    /**
+     * Draws a marker with a side of 60 pixels on a grey course, centered at (200, 150) with its top edge facing the
+     * heading. The heading is in degrees, clockwise from the x-axis as on the frame.
+     */
+    static Mat frameWithMarker(int id, double heading) {
+        Mat marker = new Mat(), patch = new Mat(480, 480, CvType.CV_8UC1, new Scalar(255));
+        Objdetect.generateImageMarker(Objdetect.getPredefinedDictionary(ArucoRobotEngine.DICTIONARY), id, 240, marker);
+        marker.copyTo(patch.submat(120, 360, 120, 360));
+
+        // The top edge faces up, at -90 degrees. Scaled down by 4 to the side of 60 pixels
+        Mat transform = Imgproc.getRotationMatrix2D(new Point(239.5, 239.5), -(heading + 90), 0.25);
+        transform.put(0, 2, transform.get(0, 2)[0] + 200 - 239.5);
+        transform.put(1, 2, transform.get(1, 2)[0] + 150 - 239.5);
+
+        Mat gray = new Mat(), frame = new Mat();
+        Imgproc.GaussianBlur(patch, patch, new Size(0, 0), 2);
+        Imgproc.warpAffine(patch, gray, transform, new Size(400, 300), Imgproc.INTER_LINEAR, Core.BORDER_CONSTANT, new Scalar(128));
+        Imgproc.cvtColor(gray, frame, Imgproc.COLOR_GRAY2BGR);
+        return frame;
+    }
+
+    @Test
+    void poseOfSquareMarker() {
+        // Top left, top right, bottom right, bottom left of a marker facing right, with a side of 10
+        float[] corners = {15, 5, 15, 15, 5, 15, 5, 5};
+        Point[] pose = ArucoRobotEngine.getPose(corners, 100, 200, 2);
+
+        Assertions.assertEquals(110, pose[0].x, 1e-9);
+        Assertions.assertEquals(210, pose[0].y, 1e-9);
+        Assertions.assertEquals(130, pose[1].x, 1e-9); // Two sides in front
+        Assertions.assertEquals(210, pose[1].y, 1e-9);
+    }
+
+    @Test
+    void centerIsWhereDiagonalsCross() {
+        // Seen at an angle the far edge is shorter, and the corners no longer average to the center
+        float[] corners = {2, 0, 8, 0, 10, 10, 0, 10};
+        Point[] pose = ArucoRobotEngine.getPose(corners, 0, 0, 1);
+
+        Assertions.assertEquals(5, pose[0].x, 1e-9);
+        Assertions.assertEquals(3.75, pose[0].y, 1e-9); // Nearer the short edge, the mean of the corners is 5
+        Assertions.assertTrue(pose[1].y < pose[0].y); // Facing up
+    }
+
+    @Test
+    void findsMarkerWithSubDegreeHeading() {
+        ArucoRobotEngine engine = new ArucoRobotEngine();
+        DetectionConfiguration config = DetectionConfiguration.DetectionConfiguration();
+        double markerDistance = 60 * config.getRobotLength() / config.getRobotMarkerSize();
+
+        for (double heading : new double[]{0, 23.7, 137, -70}) {
+            Point[] pose = engine.findRobot(frameWithMarker(config.getRobotMarkerId(), heading), new Rect(100, 50, 200, 200));
+            Assertions.assertNotNull(pose, "Marker not found at " + heading);
+
+            Assertions.assertEquals(200, pose[0].x, 0.5);
+            Assertions.assertEquals(150, pose[0].y, 0.5);
+            double found = Math.toDegrees(Math.atan2(pose[1].y - pose[0].y, pose[1].x - pose[0].x));
+            Assertions.assertEquals(heading, found, 0.5);
+            Assertions.assertEquals(markerDistance, Math.hypot(pose[1].x - pose[0].x, pose[1].y - pose[0].y), 1.5);
+        }
+    }
+
+    @Test
+    void otherMarkersAreIgnored() {
+        ArucoRobotEngine engine = new ArucoRobotEngine();
+        int otherId = DetectionConfiguration.DetectionConfiguration().getRobotMarkerId() + 1;
+
+        Assertions.assertNull(engine.findRobot(frameWithMarker(otherId, 0), new Rect(0, 0, 400, 300)));
+    }
+}
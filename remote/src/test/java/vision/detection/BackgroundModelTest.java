@@ -0,0 +1,157 @@
+package vision.detection;
+
+import nu.pattern.OpenCV;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+class BackgroundModelTest {
+    @BeforeAll
+    static void loadOpenCV() {
+        OpenCV.loadLocally();
+    }
+
+    static Mat course() {
+        return new Mat(120, 160, CvType.CV_8UC3, new Scalar(40, 90, 40));
+    }
+
+    static Mat noObjects() {
+        return Mat.zeros(120, 160, CvType.CV_8UC1);
+    }
+
+    static Mat foreground(BackgroundModel model, Mat frame) {
+        Mat foreground = new Mat();
+        model.getSnapshot(frame.width(), frame.height()).foreground(frame, new Rect(0, 0, frame.width(), frame.height()), null, foreground);
+        return foreground;
+    }
+
+    @Test
+    void readyAfterSetupFrames() {
+        BackgroundModel model = new BackgroundModel(3, 0.05, 30, 400);
+        model.learn(course(), noObjects());
+        model.learn(course(), noObjects());
+        Assertions.assertFalse(model.isReady());
+        Assertions.assertNull(model.getSnapshot(160, 120));
+
+        model.learn(course(), noObjects());
+        Assertions.assertTrue(model.isReady());
+        Assertions.assertNull(model.getSnapshot(320, 240)); // Learned at another size
+    }
+
+    @Test
+    void foregroundIsWhereFrameDiffers() {
+        BackgroundModel model = new BackgroundModel(1, 0.05, 30, 400);
+        model.learn(course(), noObjects());
+        Assertions.assertEquals(0, Core.countNonZero(foreground(model, course())));
+
+        Mat frame = course();
+        Imgproc.rectangle(frame, new Point(50, 50), new Point(59, 59), new Scalar(255, 255, 255), -1);
+        Mat foreground = foreground(model, frame);
+        Assertions.assertEquals(255, foreground.get(55, 55)[0]);
+        Assertions.assertEquals(255, foreground.get(55, 62)[0]); // Grown around the change
+        Assertions.assertEquals(0, foreground.get(20, 20)[0]);
+    }
+
+    @Test
+    void regionIsCutFromWholeMask() {
+        BackgroundModel model = new BackgroundModel(1, 0.05, 30, 400);
+        model.learn(course(), noObjects());
+        Mat frame = course();
+        Imgproc.rectangle(frame, new Point(50, 50), new Point(59, 59), new Scalar(255, 255, 255), -1);
+
+        Rect bounds = new Rect(10, 10, 140, 100), region = new Rect(0, 40, 62, 30);
+        Mat whole = new Mat(), part = new Mat();
+        model.getSnapshot(160, 120).foreground(frame, bounds, null, whole);
+        model.getSnapshot(160, 120).foreground(frame, bounds, region, part);
+
+        Mat difference = new Mat();
+        Core.absdiff(whole.submat(region), part, difference);
+        Assertions.assertEquals(0, Core.countNonZero(difference));
+        Assertions.assertEquals(255, part.get(15, 55)[0]);
+        Assertions.assertEquals(0, whole.get(5, 5)[0]); // Outside the bounds
+    }
+
+    @Test
+    void objectsAreNotLearned() {
+        // A ball lying still through the setup stays foreground
+        Mat frame = course();
+        Imgproc.rectangle(frame, new Point(50, 50), new Point(59, 59), new Scalar(255, 255, 255), -1);
+        Mat objects = noObjects();
+        Imgproc.rectangle(objects, new Point(50, 50), new Point(59, 59), new Scalar(255), -1);
+
+        BackgroundModel model = new BackgroundModel(2, 0.05, 30, 400);
+        model.learn(frame, objects);
+        model.learn(frame, objects);
+
+        Mat foreground = foreground(model, frame);
+        Assertions.assertEquals(255, foreground.get(55, 55)[0]);
+        Assertions.assertEquals(0, foreground.get(20, 20)[0]);
+    }
+
+    @Test
+    void largeAreasOfObjectColourAreLearned() {
+        // E.g. a floor of the colour of the white balls
+        Mat frame = course();
+        Imgproc.rectangle(frame, new Point(20, 20), new Point(99, 99), new Scalar(255, 255, 255), -1);
+        Mat colours = noObjects();
+        Imgproc.rectangle(colours, new Point(20, 20), new Point(99, 99), new Scalar(255), -1);
+
+        BackgroundModel model = new BackgroundModel(1, 0.05, 30, 400);
+        model.learn(frame, colours);
+
+        Assertions.assertEquals(0, Core.countNonZero(foreground(model, frame)));
+    }
+
+    @Test
+    void savedBackgroundIsLoadedReady(@TempDir Path directory) throws IOException {
+        Mat objects = noObjects();
+        Imgproc.rectangle(objects, new Point(50, 50), new Point(59, 59), new Scalar(255), -1);
+        BackgroundModel model = new BackgroundModel(1, 0.05, 30, 400);
+        model.learn(course(), objects);
+
+        String path = directory.resolve("background.png").toString();
+        model.save(path);
+        BackgroundModel loaded = new BackgroundModel(1, 0.05, 30, 400);
+        loaded.load(path);
+
+        Assertions.assertTrue(loaded.isReady());
+        Mat foreground = foreground(loaded, course());
+        Assertions.assertEquals(255, foreground.get(55, 55)[0]); // Still never learned
+        Assertions.assertEquals(0, foreground.get(20, 20)[0]);
+    }
+
+    @Test
+    void loadingMissingFileFails(@TempDir Path directory) {
+        Assertions.assertThrows(IOException.class,
+                () -> new BackgroundModel(1, 0.05, 30, 400).load(directory.resolve("missing.png").toString()));
+    }
+
+    @Test
+    void releasedSnapshotIsReusedAndHeldOneIsKept() {
+        BackgroundModel model = new BackgroundModel(1, 1, 30, 400);
+        model.learn(course(), noObjects());
+        BackgroundModel.Snapshot held = model.getSnapshot(160, 120);
+        BackgroundModel.Snapshot released = model.getSnapshot(160, 120);
+        released.release();
+
+        // The held snapshot still shows the course after the model has learned other frames
+        Mat white = new Mat(120, 160, CvType.CV_8UC3, new Scalar(255, 255, 255));
+        model.learn(white, noObjects());
+        model.learn(white, noObjects());
+        Mat foreground = new Mat();
+        held.foreground(course(), new Rect(0, 0, 160, 120), null, foreground);
+        Assertions.assertEquals(0, Core.countNonZero(foreground));
+
+        // Once given back, its Mats take the next background
+        held.release();
+        model.learn(white, noObjects());
+        Assertions.assertSame(held, model.getSnapshot(160, 120));
+        Assertions.assertEquals(0, Core.countNonZero(foreground(model, white)));
+    }
+}
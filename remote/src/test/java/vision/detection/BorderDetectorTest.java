@@ -0,0 +1,121 @@
+package vision.detection;
+
+import nu.pattern.OpenCV;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.List;
+
+class BorderDetectorTest {
+    static final Scalar RED = new Scalar(30, 30, 200), FLOOR = new Scalar(120, 120, 110);
+    final DetectionConfiguration config = DetectionConfiguration.DetectionConfiguration();
+    final int moved = (int) Math.ceil(config.getBorderLockTolerance() * 2); // Pixels. Further than the lock tolerance
+
+    BorderDetector borderDetector;
+    FramePreprocessor preprocessor;
+
+    @BeforeAll
+    static void loadOpenCV() {
+        OpenCV.loadLocally();
+    }
+
+    @BeforeEach
+    void setup() {
+        borderDetector = new BorderDetector();
+        preprocessor = new FramePreprocessor();
+    }
+
+    /**
+     * Draws the border and cross. The inner corners of the border are at (160, 90) and (870, 670).
+     *
+     * @param inset Pixels the border is widened inwards, which moves the inner corners towards the center. Where they
+     *              were is still red
+     */
+    static Mat course(int inset) {
+        Mat frame = new Mat(768, 1024, CvType.CV_8UC3, FLOOR);
+        Imgproc.rectangle(frame, new Point(150, 80), new Point(880, 680), RED, 20 + 2 * inset);
+
+        Point c = new Point(500, 380);
+        MatOfPoint cross = new MatOfPoint(
+                new Point(c.x - 60, c.y - 8), new Point(c.x - 8, c.y - 8), new Point(c.x - 8, c.y - 60),
+                new Point(c.x + 8, c.y - 60), new Point(c.x + 8, c.y - 8), new Point(c.x + 60, c.y - 8),
+                new Point(c.x + 60, c.y + 8), new Point(c.x + 8, c.y + 8), new Point(c.x + 8, c.y + 60),
+                new Point(c.x - 8, c.y + 60), new Point(c.x - 8, c.y + 8), new Point(c.x - 60, c.y + 8));
+        Imgproc.fillPoly(frame, List.of(cross), RED);
+        return frame;
+    }
+
+    boolean detect(Mat frame) {
+        preprocessor.setFrame(frame);
+        return borderDetector.detectBorder(preprocessor);
+    }
+
+    void lock(Mat frame) {
+        for (int i = 0; i < config.getBorderLockFrames(); i++)
+            Assertions.assertTrue(detect(frame));
+        Assertions.assertTrue(borderDetector.isLocked());
+    }
+
+    @Test
+    void locksAfterStableFrames() {
+        Mat frame = course(0);
+        for (int i = 0; i < config.getBorderLockFrames() - 1; i++) {
+            Assertions.assertTrue(detect(frame));
+            Assertions.assertFalse(borderDetector.isLocked());
+        }
+
+        Assertions.assertTrue(detect(frame));
+        Assertions.assertTrue(borderDetector.isLocked());
+        Assertions.assertEquals(160, borderDetector.getBorder().getTopLeft().x, 1.5); // The inner edge of the line
+        Assertions.assertNotNull(borderDetector.getCross().getMiddle());
+    }
+
+    @Test
+    void movedBorderStartsOver() {
+        for (int i = 0; i < config.getBorderLockFrames() - 1; i++)
+            detect(course(0));
+
+        detect(course(moved));
+        Assertions.assertFalse(borderDetector.isLocked());
+    }
+
+    @Test
+    void unlocksWhenCornerIsNoLongerRed() {
+        lock(course(0));
+
+        // E.g. the camera was bumped so the border is out of view
+        Assertions.assertFalse(detect(new Mat(768, 1024, CvType.CV_8UC3, FLOOR)));
+        Assertions.assertFalse(borderDetector.isLocked());
+    }
+
+    @Test
+    void revalidatesAtInterval() {
+        lock(course(0));
+        Point locked = borderDetector.getBorder().getTopLeft();
+
+        // Only the validation notices that the border has moved
+        Mat frame = course(moved);
+        for (int i = 1; i < config.getBorderValidationInterval(); i++) {
+            Assertions.assertTrue(detect(frame));
+            Assertions.assertTrue(borderDetector.isLocked());
+            Assertions.assertSame(locked, borderDetector.getBorder().getTopLeft());
+        }
+
+        Assertions.assertTrue(detect(frame));
+        Assertions.assertFalse(borderDetector.isLocked());
+        Assertions.assertEquals(160 + moved, borderDetector.getBorder().getTopLeft().x, 1.5);
+    }
+
+    @Test
+    void unmovedBorderStaysLockedAfterValidation() {
+        lock(course(0));
+
+        for (int i = 0; i < config.getBorderValidationInterval() * 2; i++)
+            Assertions.assertTrue(detect(course(0)));
+        Assertions.assertTrue(borderDetector.isLocked());
+    }
+}
@@ -0,0 +1,52 @@
+package vision.detection;
+
+import nu.pattern.OpenCV;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+
+class ColorLookupTableTest {
+    static final Scalar LOWER_A = new Scalar(0, 40, 130), UPPER_A = new Scalar(20, 170, 255);
+    static final Scalar LOWER_B = new Scalar(0, 0, 100), UPPER_B = new Scalar(60, 60, 255);
+
+    @BeforeAll
+    static void loadOpenCV() {
+        OpenCV.loadLocally();
+    }
+
+    @Test
+    void overlappingClassesGetBothBits() {
+        ColorLookupTable table = new ColorLookupTable();
+        table.addClass(1, LOWER_A, UPPER_A);
+        table.addClass(2, LOWER_B, UPPER_B);
+
+        Assertions.assertEquals(1, table.classify(10, 100, 200));
+        Assertions.assertEquals(2, table.classify(50, 10, 200));
+        Assertions.assertEquals(3, table.classify(10, 50, 200));
+        Assertions.assertEquals(0, table.classify(200, 200, 200));
+    }
+
+    @Test
+    void masksMatchInRange() {
+        ColorLookupTable table = new ColorLookupTable();
+        table.addClass(1, LOWER_A, UPPER_A);
+        table.addClass(2, LOWER_B, UPPER_B);
+
+        Mat image = new Mat(64, 64, CvType.CV_8UC3);
+        Core.randu(image, 0, 256);
+
+        Mat labels = new Mat();
+        table.apply(image, labels);
+
+        Mat expected = new Mat(), actual = new Mat(), difference = new Mat();
+        Core.inRange(image, LOWER_B, UPPER_B, expected);
+        Core.LUT(labels, ColorLookupTable.maskTable(2), actual);
+        Core.compare(expected, actual, difference, Core.CMP_NE);
+
+        Assertions.assertEquals(0, Core.countNonZero(difference));
+    }
+}
@@ -0,0 +1,71 @@
+package vision.detection;
+
+import courseObjects.BallColor;
+import nu.pattern.OpenCV;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class ComponentsBallEngineTest {
+    static final Scalar WHITE = new Scalar(200, 200, 200), FLOOR = new Scalar(40, 90, 40);
+    static final int RADIUS = 10;
+
+    @BeforeAll
+    static void loadOpenCV() {
+        OpenCV.loadLocally();
+    }
+
+    static List<Point> findWhiteBalls(Point... balls) {
+        Mat frame = new Mat(768, 1024, CvType.CV_8UC3, FLOOR);
+        for (Point ball : balls)
+            Imgproc.circle(frame, ball, RADIUS, WHITE, -1);
+
+        FramePreprocessor preprocessor = new FramePreprocessor();
+        preprocessor.setFrame(frame);
+        List<Point> found = new ArrayList<>();
+        new ComponentsBallEngine().findBalls(preprocessor, BallColor.WHITE, (x, y) -> found.add(new Point(x, y)));
+        return found;
+    }
+
+    static void assertFound(List<Point> found, Point ball, double tolerance) {
+        double distance = found.stream().mapToDouble(point -> Math.hypot(point.x - ball.x, point.y - ball.y)).min().orElse(Double.MAX_VALUE);
+        Assertions.assertTrue(distance <= tolerance, "No ball within " + tolerance + " of " + ball + " in " + found);
+    }
+
+    @Test
+    void singleBallCenterIsExact() {
+        Point ball = new Point(300, 200);
+        List<Point> found = findWhiteBalls(ball);
+
+        // Also when the half resolution mask is searched, as its pixel i is frame pixel 2i
+        Assertions.assertEquals(1, found.size());
+        Assertions.assertEquals(ball.x, found.get(0).x, 0.25);
+        Assertions.assertEquals(ball.y, found.get(0).y, 0.25);
+    }
+
+    @Test
+    void touchingPairIsSplit() {
+        Point left = new Point(300, 200), right = new Point(300 + 2 * RADIUS, 200);
+        Point top = new Point(600, 400), bottom = new Point(614, 414); // On a diagonal
+        List<Point> found = findWhiteBalls(left, right, top, bottom);
+
+        Assertions.assertEquals(4, found.size());
+        for (Point ball : new Point[]{left, right, top, bottom})
+            assertFound(found, ball, 3);
+    }
+
+    @Test
+    void touchingTripleIsSplit() {
+        Point a = new Point(500, 300), b = new Point(500 + 2 * RADIUS, 300), c = new Point(500 + RADIUS, 300 + RADIUS * Math.sqrt(3));
+        List<Point> found = findWhiteBalls(a, b, c);
+
+        Assertions.assertEquals(3, found.size());
+        for (Point ball : new Point[]{a, b, c})
+            assertFound(found, ball, 3);
+    }
+}
@@ -0,0 +1,81 @@
+package vision.detection;
+
+import nu.pattern.OpenCV;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+
+class CourseMaskTest {
+    @BeforeAll
+    static void loadOpenCV() {
+        OpenCV.loadLocally();
+    }
+
+    // Top left, top right, bottom left, bottom right
+    static Point[] corners(double left, double top, double right, double bottom) {
+        return new Point[]{new Point(left, top), new Point(right, top), new Point(left, bottom), new Point(right, bottom)};
+    }
+
+    @Test
+    void noAreaBeforeBorderIsFound() {
+        Assertions.assertNull(new CourseMask(10).getArea(400, 300));
+    }
+
+    @Test
+    void areaIsBorderWithMargin() {
+        CourseMask courseMask = new CourseMask(10);
+        courseMask.setBorder(corners(100, 50, 300, 250));
+        CourseMask.Area area = courseMask.getArea(400, 300);
+
+        Assertions.assertEquals(new Rect(90, 40, 221, 221), area.getBounds(false));
+        Assertions.assertEquals(new Rect(45, 20, 111, 111), area.getBounds(true));
+
+        Mat mask = area.getMask(false);
+        Assertions.assertEquals(255, mask.get(150, 200)[0]); // Inside
+        Assertions.assertEquals(255, mask.get(45, 200)[0]); // In the margin
+        Assertions.assertEquals(0, mask.get(20, 200)[0]); // Outside
+        Assertions.assertEquals(0, mask.get(150, 350)[0]);
+    }
+
+    @Test
+    void rebuiltOnlyWhenBorderMoves() {
+        CourseMask courseMask = new CourseMask(10);
+        courseMask.setBorder(corners(100, 50, 300, 250));
+        CourseMask.Area area = courseMask.getArea(400, 300);
+
+        courseMask.setBorder(corners(100, 50, 300, 250));
+        Assertions.assertSame(area, courseMask.getArea(400, 300));
+
+        courseMask.setBorder(corners(110, 50, 300, 250));
+        Assertions.assertNotSame(area, courseMask.getArea(400, 300));
+        Assertions.assertEquals(100, courseMask.getArea(400, 300).getBounds(false).x);
+    }
+
+    @Test
+    void markerAreaIsBorderMovedAwayFromCenter() {
+        // The diagonals cross at (200, 150)
+        CourseMask courseMask = new CourseMask(10, 1.25);
+        courseMask.setBorder(corners(100, 50, 300, 250));
+        CourseMask.Area area = courseMask.getArea(400, 300);
+
+        Assertions.assertEquals(new Rect(90, 40, 221, 221), area.getBounds(false));
+        Assertions.assertEquals(new Rect(65, 15, 271, 271), area.getMarkerBounds(new Rect()));
+
+        Mat markerMask = area.getMarkerMask();
+        Assertions.assertEquals(255, markerMask.get(150, 320)[0]); // A marker at the wall, seen outside the border
+        Assertions.assertEquals(0, area.getMask(false).get(150, 320)[0]);
+        Assertions.assertEquals(0, markerMask.get(150, 345)[0]);
+    }
+
+    @Test
+    void markerAreaIsCourseAreaWithoutScale() {
+        CourseMask courseMask = new CourseMask(10);
+        courseMask.setBorder(corners(100, 50, 300, 250));
+        CourseMask.Area area = courseMask.getArea(400, 300);
+
+        Assertions.assertSame(area.getMask(false), area.getMarkerMask());
+    }
+}
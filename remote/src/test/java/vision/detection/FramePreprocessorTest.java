@@ -0,0 +1,34 @@
+package vision.detection;
+
+import nu.pattern.OpenCV;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+
+class FramePreprocessorTest {
+    @BeforeAll
+    static void loadOpenCV() {
+        OpenCV.loadLocally();
+    }
+
+    @Test
+    void quarterRegionIsInQuarterPixels() {
+        Mat frame = new Mat(768, 1024, CvType.CV_8UC3, new Scalar(120, 120, 110));
+        Imgproc.rectangle(frame, new Point(400, 300), new Point(600, 460), new Scalar(30, 30, 200), -1);
+        Rect region = new Rect(90, 65, 40, 30); // Around the corner of the red at (100, 75)
+
+        // Asked for before the whole mask is computed, as the region is then not a region of the frame
+        FramePreprocessor preprocessor = new FramePreprocessor();
+        preprocessor.setFrame(frame);
+        Mat part = preprocessor.getRegion(FrameVariant.OBSTACLE_MASK_QUARTER, region, new Mat()).clone();
+
+        FramePreprocessor whole = new FramePreprocessor();
+        whole.setFrame(frame);
+        Mat difference = new Mat();
+        Core.absdiff(whole.get(FrameVariant.OBSTACLE_MASK_QUARTER).submat(region), part, difference);
+        Assertions.assertEquals(0, Core.countNonZero(difference));
+        Assertions.assertEquals(255, part.get(20, 20)[0]);
+    }
+}
@@ -0,0 +1,64 @@
+package vision.detection;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Rect;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+class FrameStripsTest {
+
+    @Test
+    void stripsCoverEveryRowOnce() {
+        FrameStrips strips = new FrameStrips(4);
+        Assertions.assertEquals(4, strips.getCount(1080));
+
+        int nextRow = 0;
+        for (int i = 0; i < 4; i++) {
+            Rect strip = strips.getStrip(i, new Rect(0, 0, 1920, 1079), new Rect());
+            Assertions.assertEquals(nextRow, strip.y);
+            Assertions.assertEquals(1920, strip.width);
+            Assertions.assertTrue(strip.height >= 269 && strip.height <= 270);
+            nextRow = strip.y + strip.height;
+        }
+        Assertions.assertEquals(1079, nextRow);
+    }
+
+    @Test
+    void neverMoreStripsThanRows() {
+        Assertions.assertEquals(3, new FrameStrips(8).getCount(3));
+        Assertions.assertTrue(new FrameStrips(0).getCount(1080) >= 1); // One per core
+    }
+
+    @Test
+    void widenedStripStaysInFrame() {
+        Rect top = FrameStrips.widen(new Rect(0, 0, 100, 50), 20, new Rect(0, 0, 100, 200), new Rect());
+        Assertions.assertEquals(new Rect(0, 0, 100, 70), top);
+
+        Rect middle = FrameStrips.widen(new Rect(0, 100, 100, 50), 20, new Rect(0, 0, 100, 200), new Rect());
+        Assertions.assertEquals(new Rect(0, 80, 100, 90), middle);
+
+        Rect bottom = FrameStrips.widen(new Rect(0, 150, 100, 50), 20, new Rect(0, 0, 100, 200), new Rect());
+        Assertions.assertEquals(new Rect(0, 130, 100, 70), bottom);
+    }
+
+    @Test
+    void splitsPartOfFrame() {
+        FrameStrips strips = new FrameStrips(2);
+        Rect area = new Rect(100, 50, 300, 101);
+
+        Rect first = strips.getStrip(0, area, new Rect()), second = strips.getStrip(1, area, new Rect());
+        Assertions.assertEquals(new Rect(100, 50, 300, 50), first);
+        Assertions.assertEquals(new Rect(100, 100, 300, 51), second);
+        Assertions.assertEquals(new Rect(100, 80, 300, 71), FrameStrips.widen(second, 20, area, new Rect()));
+    }
+
+    @Test
+    void runsEveryStripOnce() {
+        AtomicIntegerArray runs = new AtomicIntegerArray(5);
+        new FrameStrips(5).forEach(5, runs::incrementAndGet);
+
+        for (int i = 0; i < 5; i++)
+            Assertions.assertEquals(1, runs.get(i));
+    }
+}
@@ -0,0 +1,50 @@
+package vision.detection;
+
+import nu.pattern.OpenCV;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+class TileChangeDetectorTest {
+    @BeforeAll
+    static void loadOpenCV() {
+        OpenCV.loadLocally();
+    }
+
+    static Mat frame(double brightness) {
+        return new Mat(200, 300, CvType.CV_8UC3, new Scalar(brightness, brightness, brightness));
+    }
+
+    @Test
+    void onlyChangedTilesAreMarked() {
+        TileChangeDetector detector = new TileChangeDetector(64, 12);
+        Assertions.assertEquals(5 * 4, detector.update(frame(70), false)); // The first frame changes every tile
+
+        Assertions.assertEquals(0, detector.update(frame(70), false));
+
+        Mat frame = frame(70);
+        Imgproc.circle(frame, new Point(100, 100), 10, new Scalar(220, 220, 220), -1);
+        Assertions.assertEquals(1, detector.update(frame, false));
+        Assertions.assertTrue(detector.isChanged(1, 1));
+        Assertions.assertTrue(detector.isChangedAt(100, 100));
+        Assertions.assertFalse(detector.isChangedAt(10, 10));
+
+        Assertions.assertEquals(5 * 4, detector.update(frame, true));
+    }
+
+    @Test
+    void slowChangesAddUp() {
+        TileChangeDetector detector = new TileChangeDetector(64, 12);
+        detector.update(frame(70), false);
+
+        // Each step is below the threshold, but the difference to the reference grows
+        Assertions.assertEquals(0, detector.update(frame(78), false));
+        Assertions.assertEquals(20, detector.update(frame(86), false));
+        Assertions.assertEquals(0, detector.update(frame(86), false));
+    }
+}